@@ -0,0 +1,50 @@
+package io.github.jengine;
+
+/**
+ * BlockFace names the six axis-aligned faces of a grid cell by their outward normal.
+ */
+public enum BlockFace {
+    POS_X(1, 0, 0),
+    NEG_X(-1, 0, 0),
+    POS_Y(0, 1, 0),
+    NEG_Y(0, -1, 0),
+    POS_Z(0, 0, 1),
+    NEG_Z(0, 0, -1);
+
+    private static final BlockFace[] VALUES = values();
+
+    /** Face mask with every face set */
+    public static final int ALL = (1 << 6) - 1;
+
+    public final int dx, dy, dz;
+    private final Vector3 normal;
+
+    BlockFace(int dx, int dy, int dz) {
+        this.dx = dx;
+        this.dy = dy;
+        this.dz = dz;
+        this.normal = new Vector3(dx, dy, dz);
+    }
+
+    /**
+     * This face's bit in a 6-bit face mask
+     */
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * The face on an axis (0 = x, 1 = y, 2 = z) whose normal has the given sign
+     */
+    public static BlockFace of(int axis, int sign) {
+        return VALUES[axis * 2 + (sign > 0 ? 0 : 1)];
+    }
+
+    public BlockFace opposite() {
+        return VALUES[ordinal() ^ 1];
+    }
+
+    public Vector3 getNormal() {
+        return normal;
+    }
+}
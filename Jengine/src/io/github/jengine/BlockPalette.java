@@ -0,0 +1,115 @@
+package io.github.jengine;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * BlockPalette numbers the block types a grid chunk can store as plain cell ids
+ * instead of object references.
+ * <p>
+ * A block is fully described by its class, material and position, so a cell only
+ * needs the id of its type: queries that return blocks create them again from the
+ * cell's coordinates. Ray traversal creates nothing: it tests the cell as a unit
+ * box and reports a hit on one shared instance of the type, whose material is
+ * right but whose position is not the cell's. Blocks of an unregistered class,
+ * with a material other than their type's, or off their cell's exact center are
+ * kept as objects like every other renderable.
+ */
+public final class BlockPalette {
+    // Cell ids with this bit set index a chunk's own objects; 0 is an empty cell
+    static final int OBJECT = 0x8000;
+
+    private static volatile Entry[] entries = {null};
+
+    static {
+        register(StoneBlock.class, StoneBlock::new);
+        register(DirtBlock.class, DirtBlock::new);
+        register(GrassBlock.class, GrassBlock::new);
+        register(BedrockBlock.class, BedrockBlock::new);
+    }
+
+    private BlockPalette() {
+    }
+
+    /**
+     * Register a block type so chunks store it as an id. The factory must create
+     * a block of exactly this class at the given position, and every instance of
+     * the class must behave the same apart from its position and material. The
+     * type must keep the plain unit box intersection of {@link RectangularPrism}.
+     */
+    public static synchronized <T extends Block> void register(Class<T> type, Function<Vector3, T> factory) {
+        for (int id = 1; id < entries.length; id++) {
+            if (entries[id].type == type) return;
+        }
+        if (entries.length >= OBJECT) {
+            throw new IllegalStateException("Block palette is full");
+        }
+        T prototype = factory.apply(new Vector3(0, 0, 0));
+        if (prototype.getClass() != type) {
+            throw new IllegalArgumentException("Factory for " + type.getSimpleName() + " creates "
+                                               + prototype.getClass().getSimpleName());
+        }
+        try {
+            if (type.getMethod("intersect", Ray.class).getDeclaringClass() != RectangularPrism.class
+                    || type.getMethod("intersect", Ray.class, int.class).getDeclaringClass() != RectangularPrism.class) {
+                throw new IllegalArgumentException(type.getSimpleName() + " overrides intersect and cannot be stored by id");
+            }
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+        Entry[] grown = Arrays.copyOf(entries, entries.length + 1);
+        grown[entries.length] = new Entry(type, factory, prototype);
+        entries = grown;
+    }
+
+    /**
+     * Id of an object stored in cell x, y, z, or 0 if it has to be kept as an object
+     */
+    static int idOf(Renderable object, int x, int y, int z) {
+        if (!(object instanceof Block)) return 0;
+        Block block = (Block) object;
+        if (block.position.x != x || block.position.y != y || block.position.z != z) return 0;
+        Entry[] known = entries;
+        for (int id = 1; id < known.length; id++) {
+            if (known[id].type == block.getClass()) {
+                return known[id].material == block.material ? id : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Material of every block with the given id
+     */
+    static Material material(int id) {
+        return entries[id].material;
+    }
+
+    /**
+     * The instance ray hits report for every block with the given id; its position is meaningless
+     */
+    static Block shared(int id) {
+        return entries[id].prototype;
+    }
+
+    /**
+     * A block with the given id at cell x, y, z
+     */
+    static Block create(int id, int x, int y, int z) {
+        return entries[id].factory.apply(new Vector3(x, y, z));
+    }
+
+    private static final class Entry {
+        final Class<? extends Block> type;
+        final Function<Vector3, ? extends Block> factory;
+        final Block prototype;
+        final Material material;
+
+        Entry(Class<? extends Block> type, Function<Vector3, ? extends Block> factory, Block prototype) {
+            this.type = type;
+            this.factory = factory;
+            this.prototype = prototype;
+            this.material = prototype.material;
+        }
+    }
+}
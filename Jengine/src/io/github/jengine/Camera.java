@@ -14,6 +14,12 @@ public class Camera {
     private Vector3 right;
     private Vector3 trueUp;
 
+    // Bumped on every change to position, orientation or field of view
+    private volatile long version;
+    // Bumped only when orientation or field of view change, i.e. when primary ray directions change
+    private volatile long basisVersion;
+    private volatile PrimaryRays primaryRays;
+
     public Camera() {
         updateCameraBasis(); // Initialize basis vectors
     }
@@ -22,20 +28,48 @@ public class Camera {
         forward = direction.normalize();
         right = forward.cross(up).normalize(); 
         trueUp = right.cross(forward).normalize();
+        version++;
+        basisVersion++;
     }
 
     public Ray generateRay(int x, int y, int width, int height) {
+        return generateRay(x + 0.5, y + 0.5, width, height);
+    }
+
+    /**
+     * Generate a ray through a continuous image position (pixel centers are at +0.5)
+     */
+    public Ray generateRay(double x, double y, int width, int height) {
         double aspect = (double) width / height;
-        double px = (2 * ((x + 0.5) / width) - 1) * Math.tan(fov / 2) * aspect;
-        double py = (1 - 2 * ((y + 0.5) / height)) * Math.tan(fov / 2);
+        double tan = Math.tan(fov / 2);
+        double px = (2 * (x / width) - 1) * tan * aspect;
+        double py = (1 - 2 * (y / height)) * tan;
 
         Vector3 rayDir = forward.add(right.multiply(px)).add(trueUp.multiply(py)).normalize();
         return new Ray(position, rayDir);
     }
 
+    /**
+     * Primary rays through every pixel center of a width x height image, the same rays
+     * {@link #generateRay(int, int, int, int)} returns. The direction table is reused
+     * until the size, orientation or field of view change; moving only swaps the origin.
+     */
+    public PrimaryRays getPrimaryRays(int width, int height) {
+        long basis = basisVersion;
+        PrimaryRays rays = primaryRays;
+        if (rays == null || rays.width != width || rays.height != height || rays.basisVersion != basis) {
+            rays = new PrimaryRays(position, forward, right, trueUp, fov, width, height, basis);
+        } else if (rays.origin != position) {
+            rays = rays.from(position);
+        }
+        primaryRays = rays;
+        return rays;
+    }
+
     // Setters with auto-update of basis
     public void setPosition(Vector3 position) {
         this.position = position;
+        version++;
     }
 
     public void setDirection(Vector3 direction) {
@@ -50,6 +84,17 @@ public class Camera {
 
     public void setFovDegrees(double fovDegrees) {
         this.fov = Math.toRadians(fovDegrees);
+        version++;
+        basisVersion++;
+    }
+
+    /**
+     * Set the vertical field of view in radians
+     */
+    public void setFov(double fov) {
+        this.fov = fov;
+        version++;
+        basisVersion++;
     }
 
     public Vector3 getPosition() {
@@ -60,20 +105,61 @@ public class Camera {
         return direction;
     }
 
+    /**
+     * World up vector the basis is built from
+     */
+    public Vector3 getUp() {
+        return up;
+    }
+
+    public Vector3 getForward() {
+        return forward;
+    }
+
+    public Vector3 getRight() {
+        return right;
+    }
+
+    public Vector3 getTrueUp() {
+        return trueUp;
+    }
+
+    /**
+     * Version counter that changes whenever the camera moves, turns or zooms
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Vertical field of view in radians
+     */
+    public double getFov() {
+        return fov;
+    }
+
+    /**
+     * Approximate angle one pixel covers at the given image height, i.e. how fast a
+     * primary ray's footprint grows with distance
+     */
+    public double getPixelSpread(int height) {
+        return 2 * Math.tan(fov / 2) / height;
+    }
+
     public void moveForward(double distance) {
-        position = position.add(forward.multiply(distance));
+        setPosition(position.add(forward.multiply(distance)));
     }
 
     public void moveBackward(double distance) {
-        position = position.subtract(forward.multiply(distance));
+        setPosition(position.subtract(forward.multiply(distance)));
     }
 
     public void moveLeft(double distance) {
-        position = position.subtract(right.multiply(distance));
+        setPosition(position.subtract(right.multiply(distance)));
     }
 
     public void moveRight(double distance) {
-        position = position.add(right.multiply(distance));
+        setPosition(position.add(right.multiply(distance)));
     }
 
     public void rotateHorizontal(double angleDegrees) {
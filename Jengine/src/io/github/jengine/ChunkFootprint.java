@@ -0,0 +1,215 @@
+package io.github.jengine;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * ChunkFootprint is the set of grid chunks that some rays passed through.
+ * <p>
+ * A ray's result can only change when a chunk along the traced part of the
+ * ray changes, so the renderer records a footprint per screen tile (see
+ * {@link Scene#recording(ChunkFootprint)}) and after an edit re-traces only
+ * the tiles whose footprint holds an edited chunk. Segments are walked chunk
+ * by chunk within the grid's bounds at the time of recording; an edit outside
+ * those bounds is reported by {@link #intersects} as touching every footprint.
+ * Shadow segments are widened by the light's size, since later samples aim at
+ * other points of the light.
+ */
+public class ChunkFootprint {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double CHUNK = GridChunk.SIZE;
+
+    // Chunk coordinate range covered by the grid bounds
+    private final int minX, minY, minZ, maxX, maxY, maxZ;
+    // Open-addressing set of chunk keys
+    private long[] keys = new long[64];
+    private int size;
+    private long lastKey = EMPTY;
+    // Last shadow test recorded, to skip further samples of the same light from the same point
+    private Renderable lastTarget;
+    private double lastOriginX, lastOriginY, lastOriginZ;
+
+    /**
+     * Footprint for rays traced through a scene snapshot, clipped to that snapshot's grid bounds
+     */
+    public ChunkFootprint(Scene frame) {
+        int[] bounds = frame.getGridBounds();
+        minX = bounds[0] >> GridChunk.SHIFT;
+        minY = bounds[1] >> GridChunk.SHIFT;
+        minZ = bounds[2] >> GridChunk.SHIFT;
+        maxX = bounds[3] >> GridChunk.SHIFT;
+        maxY = bounds[4] >> GridChunk.SHIFT;
+        maxZ = bounds[5] >> GridChunk.SHIFT;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Record a shadow test toward a target. For an area light the segment is widened by the
+     * light's size, which covers every sample of that light from the same point at once.
+     */
+    public void addShadowSegment(Ray ray, double length, Renderable target) {
+        if (target == lastTarget && ray.origin.x == lastOriginX && ray.origin.y == lastOriginY
+                && ray.origin.z == lastOriginZ && target instanceof RectangularLight) {
+            return;
+        }
+        lastTarget = target;
+        lastOriginX = ray.origin.x;
+        lastOriginY = ray.origin.y;
+        lastOriginZ = ray.origin.z;
+        addSegment(ray, length, target instanceof RectangularLight ? ((RectangularLight) target).size.length() : 0);
+    }
+
+    /**
+     * Record the chunks within margin of the segment from the ray's origin to length along it
+     */
+    public void addSegment(Ray ray, double length, double margin) {
+        if (minX > maxX) return;
+        // Chunk space: chunk c covers [c, c + 1), i.e. cells 16c to 16c + 15 of half-unit extent
+        double ox = (ray.origin.x + 0.5) / CHUNK, oy = (ray.origin.y + 0.5) / CHUNK, oz = (ray.origin.z + 0.5) / CHUNK;
+        double dx = ray.direction.x / CHUNK, dy = ray.direction.y / CHUNK, dz = ray.direction.z / CHUNK;
+        double m = margin / CHUNK;
+
+        // Clip to the bounds, widened by the margin
+        double[] range = {0, length};
+        if (!clip(ox, dx, minX - m, maxX + 1 + m, range) || !clip(oy, dy, minY - m, maxY + 1 + m, range)
+                || !clip(oz, dz, minZ - m, maxZ + 1 + m, range)) {
+            return;
+        }
+        double t = range[0], tEnd = range[1];
+        int x = (int) Math.floor(ox + dx * t), y = (int) Math.floor(oy + dy * t), z = (int) Math.floor(oz + dz * t);
+        int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1, stepZ = dz > 0 ? 1 : -1;
+        double tMaxX = dx != 0 ? ((x + (dx > 0 ? 1 : 0)) - ox) / dx : Double.POSITIVE_INFINITY;
+        double tMaxY = dy != 0 ? ((y + (dy > 0 ? 1 : 0)) - oy) / dy : Double.POSITIVE_INFINITY;
+        double tMaxZ = dz != 0 ? ((z + (dz > 0 ? 1 : 0)) - oz) / dz : Double.POSITIVE_INFINITY;
+        double tDeltaX = Math.abs(1 / dx), tDeltaY = Math.abs(1 / dy), tDeltaZ = Math.abs(1 / dz);
+
+        while (true) {
+            double tNext = Math.min(tEnd, Math.min(tMaxX, Math.min(tMaxY, tMaxZ)));
+            if (m == 0) {
+                add(x, y, z);
+            } else {
+                // Every chunk within the margin of this piece of the segment lies in its widened bounding box
+                addBox(ox + dx * t, oy + dy * t, oz + dz * t, ox + dx * tNext, oy + dy * tNext, oz + dz * tNext, m);
+            }
+            if (tNext >= tEnd) return;
+            t = tNext;
+            if (tMaxX <= tMaxY && tMaxX <= tMaxZ) {
+                x += stepX;
+                tMaxX += tDeltaX;
+            } else if (tMaxY <= tMaxZ) {
+                y += stepY;
+                tMaxY += tDeltaY;
+            } else {
+                z += stepZ;
+                tMaxZ += tDeltaZ;
+            }
+        }
+    }
+
+    private void addBox(double ax, double ay, double az, double bx, double by, double bz, double m) {
+        int x0 = Math.max(minX, (int) Math.floor(Math.min(ax, bx) - m)), x1 = Math.min(maxX, (int) Math.floor(Math.max(ax, bx) + m));
+        int y0 = Math.max(minY, (int) Math.floor(Math.min(ay, by) - m)), y1 = Math.min(maxY, (int) Math.floor(Math.max(ay, by) + m));
+        int z0 = Math.max(minZ, (int) Math.floor(Math.min(az, bz) - m)), z1 = Math.min(maxZ, (int) Math.floor(Math.max(az, bz) + m));
+        for (int y = y0; y <= y1; y++) {
+            for (int z = z0; z <= z1; z++) {
+                for (int x = x0; x <= x1; x++) {
+                    add(x, y, z);
+                }
+            }
+        }
+    }
+
+    private void add(int x, int y, int z) {
+        if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) return;
+        long key = GridChunk.key(x, y, z);
+        if (key == lastKey) return;
+        lastKey = key;
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) return;
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = key;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Whether the footprint holds a chunk key
+     */
+    public boolean contains(long key) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) return true;
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return false;
+    }
+
+    /**
+     * Whether any of the changed chunks could affect the recorded rays: one of them is in the
+     * footprint or lies outside the bounds the footprint was clipped to
+     */
+    public boolean intersects(Set<Long> changedChunks) {
+        for (long key : changedChunks) {
+            if (contains(key) || !insideBounds(key)) return true;
+        }
+        return false;
+    }
+
+    private boolean insideBounds(long key) {
+        // Unpack the 21-bit signed chunk coordinates of GridChunk.key
+        int x = (int) (key << 1 >> 43), y = (int) (key << 22 >> 43), z = (int) (key << 43 >> 43);
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        lastKey = EMPTY;
+        lastTarget = null;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 40) & (keys.length - 1);
+    }
+
+    private void grow() {
+        long[] old = keys;
+        keys = new long[old.length * 2];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        lastKey = EMPTY;
+        for (long key : old) {
+            if (key != EMPTY) {
+                int slot = slot(key);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & (keys.length - 1);
+                }
+                keys[slot] = key;
+                size++;
+            }
+        }
+    }
+
+    private static boolean clip(double o, double d, double lo, double hi, double[] range) {
+        if (d == 0) {
+            return o >= lo && o <= hi;
+        }
+        double t0 = (lo - o) / d, t1 = (hi - o) / d;
+        if (t0 > t1) {
+            double swap = t0;
+            t0 = t1;
+            t1 = swap;
+        }
+        range[0] = Math.max(range[0], t0);
+        range[1] = Math.min(range[1], t1);
+        return range[0] <= range[1];
+    }
+}
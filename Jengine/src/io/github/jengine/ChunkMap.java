@@ -0,0 +1,210 @@
+package io.github.jengine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChunkMap maps packed chunk keys (see {@link GridChunk#key}) to values and
+ * hands out immutable snapshots of itself in constant time.
+ * <p>
+ * Entries live in a hash trie of 32-way nodes. Every node carries the edit
+ * epoch that created it: edits change nodes of the current epoch in place and
+ * copy older ones, so an edit only copies the path from the root to the entry
+ * it changes. {@link #snapshot()} shares the whole trie and starts a new epoch,
+ * which leaves every node the snapshot can reach untouched by later edits.
+ * This is the same copy-on-write scheme {@link UnitGrid} applies to chunks.
+ */
+public class ChunkMap<V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // Source of edit epochs, unique across all maps so no two maps ever own the same node
+    private static final AtomicLong EPOCHS = new AtomicLong();
+
+    private Node root;
+    private int size;
+    // Nodes stamped with this epoch belong to this map alone and may be changed in place
+    private long epoch;
+
+    public ChunkMap() {
+        this.epoch = EPOCHS.incrementAndGet();
+        this.root = new Node(epoch, 0, new Object[0]);
+    }
+
+    private ChunkMap(Node root, int size, long epoch) {
+        this.root = root;
+        this.size = size;
+        this.epoch = epoch;
+    }
+
+    /**
+     * A map with the current entries that later edits of this map do not change
+     */
+    public ChunkMap<V> snapshot() {
+        ChunkMap<V> copy = new ChunkMap<>(root, size, EPOCHS.incrementAndGet());
+        epoch = EPOCHS.incrementAndGet();
+        return copy;
+    }
+
+    /**
+     * The value for a key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long hash = hash(key);
+        Node node = root;
+        while (true) {
+            int bit = 1 << (hash & MASK);
+            if ((node.bitmap & bit) == 0) return null;
+            Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (slot instanceof Node) {
+                node = (Node) slot;
+                hash >>>= BITS;
+            } else {
+                Leaf leaf = (Leaf) slot;
+                return leaf.key == key ? (V) leaf.value : null;
+            }
+        }
+    }
+
+    public void put(long key, V value) {
+        root = put(root, new Leaf(key, value), hash(key), 0);
+    }
+
+    public void remove(long key) {
+        Node node = remove(root, key, hash(key));
+        root = node != null ? node : new Node(epoch, 0, new Object[0]);
+    }
+
+    public void clear() {
+        root = new Node(epoch, 0, new Object[0]);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * All values, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<Object> values = new ArrayList<>(size);
+        collect(root, values);
+        return (List<V>) values;
+    }
+
+    private Node put(Node node, Leaf leaf, long hash, int shift) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0) {
+            Object[] slots = new Object[node.slots.length + 1];
+            System.arraycopy(node.slots, 0, slots, 0, index);
+            slots[index] = leaf;
+            System.arraycopy(node.slots, index, slots, index + 1, node.slots.length - index);
+            size++;
+            return edit(node, node.bitmap | bit, slots);
+        }
+        Object slot = node.slots[index];
+        Object replacement;
+        if (slot instanceof Node) {
+            replacement = put((Node) slot, leaf, hash, shift + BITS);
+            if (replacement == slot) return node;
+        } else if (((Leaf) slot).key == leaf.key) {
+            replacement = leaf;
+        } else {
+            // Distinct keys have distinct hashes, so the two leaves part at some depth
+            Leaf other = (Leaf) slot;
+            Node split = put(new Node(epoch, 0, new Object[0]), other, hash(other.key), shift + BITS);
+            // The other leaf only moved down a level
+            size--;
+            replacement = put(split, leaf, hash, shift + BITS);
+        }
+        Node edited = edit(node, node.bitmap, node.slots);
+        edited.slots[index] = replacement;
+        return edited;
+    }
+
+    /**
+     * The node with one key removed, the same node if the key is absent, or null if it ends up empty
+     */
+    private Node remove(Node node, long key, long hash) {
+        int bit = 1 << (hash & MASK);
+        if ((node.bitmap & bit) == 0) return node;
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        Object slot = node.slots[index];
+        if (slot instanceof Node) {
+            Node child = remove((Node) slot, key, hash >>> BITS);
+            if (child == slot) return node;
+            if (child != null) {
+                Node edited = edit(node, node.bitmap, node.slots);
+                edited.slots[index] = child;
+                return edited;
+            }
+        } else if (((Leaf) slot).key != key) {
+            return node;
+        } else {
+            size--;
+        }
+        if (node.bitmap == bit) return null;
+        Object[] slots = new Object[node.slots.length - 1];
+        System.arraycopy(node.slots, 0, slots, 0, index);
+        System.arraycopy(node.slots, index + 1, slots, index, slots.length - index);
+        return edit(node, node.bitmap & ~bit, slots);
+    }
+
+    /**
+     * The node with new contents: itself if it belongs to this map's epoch, otherwise a copy.
+     * Slots that are the node's own array are copied before a copy may change them.
+     */
+    private Node edit(Node node, int bitmap, Object[] slots) {
+        if (node.epoch == epoch) {
+            node.bitmap = bitmap;
+            node.slots = slots;
+            return node;
+        }
+        return new Node(epoch, bitmap, slots == node.slots ? slots.clone() : slots);
+    }
+
+    private static void collect(Node node, List<Object> values) {
+        for (Object slot : node.slots) {
+            if (slot instanceof Node) {
+                collect((Node) slot, values);
+            } else {
+                values.add(((Leaf) slot).value);
+            }
+        }
+    }
+
+    /**
+     * Mix a key so neighbouring chunks spread over the trie; a bijection, so distinct keys never collide
+     */
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private static final class Node {
+        final long epoch;
+        // Which of the 32 branches are present; slots holds them in order, as Nodes or Leaves
+        int bitmap;
+        Object[] slots;
+
+        Node(long epoch, int bitmap, Object[] slots) {
+            this.epoch = epoch;
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final class Leaf {
+        final long key;
+        final Object value;
+
+        Leaf(long key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package io.github.jengine;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * ChunkMemory supplies the data slots of grid chunks (cell ids, face masks,
+ * empty distances and levels of detail), either as ordinary heap buffers or
+ * off the Java heap.
+ * <p>
+ * Off-heap memory is reserved in direct slabs and handed out in fixed slots,
+ * one per chunk. Slots are released explicitly by the grid: a chunk no snapshot
+ * has seen is freed as soon as it is dropped, and a chunk that published
+ * snapshots may still show is retired with the edit epoch that dropped it and
+ * freed once every snapshot older than that epoch has been released (see
+ * {@link UnitGrid#acquire()}). A slab whose slots are all free is returned to
+ * the system, keeping one spare. Heap memory is left to the garbage collector
+ * and ignores all of this.
+ * <p>
+ * Together with {@link BlockPalette} ids this keeps the contents of terrain
+ * chunks out of the heap entirely, so the garbage collector has no per-block
+ * objects to trace; the chunk objects, their meshes and non-block objects
+ * remain on the heap.
+ */
+public class ChunkMemory {
+    /** Bytes of data per chunk */
+    static final int SLOT_BYTES = GridChunk.DATA_BYTES;
+    private static final int SLOTS_PER_SLAB = 64;
+
+    /** Plain heap buffers, released by the garbage collector */
+    public static final ChunkMemory HEAP = new ChunkMemory(false);
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final boolean offHeap;
+    // All below guarded by this
+    private final List<Slab> slabs = new ArrayList<>();
+    private int emptySlabs;
+    private long slotsInUse;
+    // Slots waiting for older snapshots to be released, in epoch order
+    private final ArrayDeque<Retired> retired = new ArrayDeque<>();
+    // Number of holds on each snapshot epoch
+    private final TreeMap<Long, Integer> holds = new TreeMap<>();
+    private boolean claimed;
+
+    private ChunkMemory(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * A new pool of off-heap slots for a single grid
+     */
+    public static ChunkMemory offHeap() {
+        return new ChunkMemory(true);
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Take this pool for a grid; epochs of different grids cannot share one
+     */
+    synchronized void claim() {
+        if (offHeap && claimed) {
+            throw new IllegalStateException("Off-heap chunk memory is already used by another grid");
+        }
+        claimed = true;
+    }
+
+    /**
+     * A zeroed slot for a new chunk
+     */
+    Slot allocate() {
+        if (!offHeap) {
+            return new Slot(ByteBuffer.allocate(SLOT_BYTES).order(ByteOrder.nativeOrder()), null, 0);
+        }
+        synchronized (this) {
+            Slab slab = null;
+            for (Slab candidate : slabs) {
+                if (candidate.freeCount > 0) {
+                    slab = candidate;
+                    break;
+                }
+            }
+            if (slab == null) {
+                slab = new Slab();
+                slabs.add(slab);
+                emptySlabs++;
+            }
+            if (slab.freeCount == SLOTS_PER_SLAB) {
+                emptySlabs--;
+            }
+            int index = slab.free[--slab.freeCount];
+            slotsInUse++;
+            ByteBuffer data = slab.buffer.slice(index * SLOT_BYTES, SLOT_BYTES).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < SLOT_BYTES; i += Long.BYTES) {
+                data.putLong(i, 0);
+            }
+            return new Slot(data, slab, index);
+        }
+    }
+
+    /**
+     * Release the slot of a chunk that no snapshot can reach
+     */
+    synchronized void free(Slot slot) {
+        if (!offHeap) return;
+        if (slot.released) {
+            throw new IllegalStateException("Chunk slot released twice");
+        }
+        slot.released = true;
+        Slab slab = slot.slab;
+        slab.free[slab.freeCount++] = slot.index;
+        slotsInUse--;
+        if (slab.freeCount == SLOTS_PER_SLAB) {
+            if (emptySlabs > 0) {
+                slabs.remove(slab);
+            } else {
+                emptySlabs++;
+            }
+        }
+    }
+
+    /**
+     * Release the slot of a chunk dropped by the edit of the given epoch once no
+     * snapshot from before that edit is held
+     */
+    synchronized void retire(Slot slot, long epoch) {
+        if (!offHeap) return;
+        retired.addLast(new Retired(slot, epoch));
+        reclaim();
+    }
+
+    /**
+     * Hold a newly published snapshot epoch
+     */
+    synchronized void hold(long epoch) {
+        if (!offHeap) return;
+        holds.merge(epoch, 1, Integer::sum);
+    }
+
+    /**
+     * Hold a snapshot epoch again, unless it is no longer held at all (its chunks may be gone)
+     */
+    boolean tryHold(long epoch) {
+        if (!offHeap) return true;
+        synchronized (this) {
+            Integer count = holds.get(epoch);
+            if (count == null) return false;
+            holds.put(epoch, count + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Hold a snapshot epoch until owner becomes unreachable, for snapshots handed
+     * out without a matching release
+     */
+    boolean holdWhileReachable(Object owner, long epoch) {
+        if (!tryHold(epoch)) return false;
+        if (offHeap) {
+            CLEANER.register(owner, () -> release(epoch));
+        }
+        return true;
+    }
+
+    /**
+     * Drop one hold of a snapshot epoch and free the slots it kept alive
+     */
+    void release(long epoch) {
+        if (!offHeap) return;
+        synchronized (this) {
+            Integer count = holds.get(epoch);
+            if (count == null) {
+                throw new IllegalStateException("Snapshot released more often than held");
+            }
+            if (count == 1) {
+                holds.remove(epoch);
+                reclaim();
+            } else {
+                holds.put(epoch, count - 1);
+            }
+        }
+    }
+
+    private void reclaim() {
+        long oldest = holds.isEmpty() ? Long.MAX_VALUE : holds.firstKey();
+        while (!retired.isEmpty() && retired.peekFirst().epoch <= oldest) {
+            free(retired.removeFirst().slot);
+        }
+    }
+
+    /**
+     * Off-heap bytes reserved in slabs (0 for heap memory)
+     */
+    public synchronized long getReservedBytes() {
+        return (long) slabs.size() * SLOTS_PER_SLAB * SLOT_BYTES;
+    }
+
+    /**
+     * Off-heap bytes held by chunks, including retired ones not yet freed (0 for heap memory)
+     */
+    public synchronized long getUsedBytes() {
+        return slotsInUse * SLOT_BYTES;
+    }
+
+    /**
+     * The data of one chunk
+     */
+    static final class Slot {
+        final ByteBuffer data;
+        private final Slab slab;
+        private final int index;
+        private boolean released;
+
+        private Slot(ByteBuffer data, Slab slab, int index) {
+            this.data = data;
+            this.slab = slab;
+            this.index = index;
+        }
+    }
+
+    private static final class Slab {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(SLOT_BYTES * SLOTS_PER_SLAB);
+        final int[] free = new int[SLOTS_PER_SLAB];
+        int freeCount = SLOTS_PER_SLAB;
+
+        Slab() {
+            for (int i = 0; i < SLOTS_PER_SLAB; i++) {
+                free[i] = SLOTS_PER_SLAB - 1 - i;
+            }
+        }
+    }
+
+    private static final class Retired {
+        final Slot slot;
+        final long epoch;
+
+        Retired(Slot slot, long epoch) {
+            this.slot = slot;
+            this.epoch = epoch;
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package io.github.jengine;
+
+import java.util.Arrays;
+
+/**
+ * ChunkMesh is the greedy-meshed surface of the blocks in one chunk.
+ * <p>
+ * Exposed block faces that lie in the same plane, point the same way and share
+ * a material are merged into axis-aligned rectangles (quads). A small BVH over
+ * the quads lets a ray find its nearest hit in the chunk without stepping
+ * through the cells one by one; a flat patch of ground becomes a handful of
+ * quads instead of hundreds of cubes. Objects that are not blocks (spheres,
+ * lights) sit in the same BVH under their cell's box and are intersected directly.
+ * <p>
+ * A mesh is immutable and belongs to a single chunk; UnitGrid rebuilds it for
+ * every chunk an edit touches when it publishes. Chunks whose faces do not
+ * merge well (scattered blocks, rough ground) get no mesh: the face-masked
+ * cell walk is cheaper there than a BVH over nearly as many quads as faces.
+ */
+public class ChunkMesh {
+    private static final int LEAF_SIZE = 4;
+    // Merging must cut the faces this many times over before the BVH beats walking the cells
+    private static final int MIN_MERGE_FACTOR = 4;
+    // Node boxes are padded so that flat quads never fall through a box on round-off
+    private static final double BOX_PADDING = 1e-9;
+    private static final int STACK_SIZE = 32;
+
+    private static final ThreadLocal<Traversal> TRAVERSALS = ThreadLocal.withInitial(Traversal::new);
+
+    private final GridChunk chunk;
+
+    // Primitives: a quad's face (BlockFace ordinal), plane coordinate and extent along the face's
+    // u and v axes, or a non-block object (face -1) intersected on its own
+    private final int primitiveCount;
+    private final int quadCount;
+    private final byte[] faces;
+    private final Renderable[] objects;
+    private final double[] plane;
+    private final double[] uMin, uMax, vMin, vMax;
+
+    // Flattened BVH in depth-first order: the left child of node n is n + 1
+    private final double[] bounds; // minX, minY, minZ, maxX, maxY, maxZ per node
+    private final int[] nodeFirst, nodeCount, nodeRight; // nodeCount > 0 marks a leaf
+
+    private ChunkMesh(GridChunk chunk, QuadList quads) {
+        this.chunk = chunk;
+        this.primitiveCount = quads.size;
+        this.quadCount = quads.quadCount;
+
+        int[] order = new int[primitiveCount];
+        int maxNodes = Math.max(1, 2 * primitiveCount);
+        this.bounds = new double[6 * maxNodes];
+        this.nodeFirst = new int[maxNodes];
+        this.nodeCount = new int[maxNodes];
+        this.nodeRight = new int[maxNodes];
+        if (primitiveCount > 0) {
+            BvhBuilder builder = new BvhBuilder(quads);
+            builder.build(0, primitiveCount);
+            builder.copyOrder(order);
+        }
+
+        // Store the primitives in leaf order so each leaf reads a contiguous range
+        this.faces = new byte[primitiveCount];
+        this.objects = new Renderable[primitiveCount];
+        this.plane = new double[primitiveCount];
+        this.uMin = new double[primitiveCount];
+        this.uMax = new double[primitiveCount];
+        this.vMin = new double[primitiveCount];
+        this.vMax = new double[primitiveCount];
+        for (int i = 0; i < primitiveCount; i++) {
+            int q = order[i];
+            faces[i] = quads.faces[q];
+            objects[i] = quads.objects[q];
+            plane[i] = quads.plane[q];
+            uMin[i] = quads.uMin[q];
+            uMax[i] = quads.uMax[q];
+            vMin[i] = quads.vMin[q];
+            vMax[i] = quads.vMax[q];
+        }
+    }
+
+    /**
+     * Mesh the exposed faces of a chunk whose face masks are up to date. Returns
+     * null when merging does not cut the face count by MIN_MERGE_FACTOR.
+     */
+    public static ChunkMesh build(GridChunk chunk) {
+        QuadList quads = new QuadList();
+        int[] origin = {chunk.originX(), chunk.originY(), chunk.originZ()};
+        int size = GridChunk.SIZE;
+
+        // Sort every exposed face into the slice it lies in: one slice per face
+        // orientation and depth, holding the face's material at its (u, v) cell
+        Material[][] slices = new Material[6 * size][];
+        int faceCount = 0;
+        for (int index = 0; index < GridChunk.VOLUME; index++) {
+            if (!chunk.isOccupied(index)) continue;
+            int lx = index & GridChunk.MASK;
+            int lz = (index >> GridChunk.SHIFT) & GridChunk.MASK;
+            int ly = index >> (2 * GridChunk.SHIFT);
+            if (!chunk.isBlock(index)) {
+                quads.addObject(chunk.get(index), origin[0] + lx, origin[1] + ly, origin[2] + lz);
+                continue;
+            }
+            int mask = chunk.getFaceMask(index);
+            for (int face = 0; mask != 0; face++, mask >>= 1) {
+                if ((mask & 1) == 0) continue;
+                int depth, cu, cv;
+                switch (face >> 1) {
+                    case 0: depth = lx; cu = ly; cv = lz; break;
+                    case 1: depth = ly; cu = lz; cv = lx; break;
+                    default: depth = lz; cu = lx; cv = ly; break;
+                }
+                Material[] slice = slices[face * size + depth];
+                if (slice == null) {
+                    slice = slices[face * size + depth] = new Material[size * size];
+                }
+                slice[cv * size + cu] = chunk.getMaterial(index);
+                faceCount++;
+            }
+        }
+
+        for (int s = 0; s < slices.length; s++) {
+            if (slices[s] == null) continue;
+            int face = s / size;
+            int depth = s % size;
+            int axis = face >> 1;
+            int sign = (face & 1) == 0 ? 1 : -1;
+            double planeCoord = origin[axis] + depth + sign * 0.5;
+            mergeSlice(slices[s], quads, (byte) face, planeCoord, origin[(axis + 1) % 3], origin[(axis + 2) % 3]);
+        }
+
+        if (quads.quadCount * MIN_MERGE_FACTOR > faceCount) {
+            return null;
+        }
+        return new ChunkMesh(chunk, quads);
+    }
+
+    /**
+     * Greedily cover a slice with rectangles of one material: grow each rectangle
+     * along u as far as it goes, then along v while whole rows still match
+     */
+    private static void mergeSlice(Material[] slice, QuadList quads, byte face, double planeCoord,
+                                   int originU, int originV) {
+        int size = GridChunk.SIZE;
+        for (int cv = 0; cv < size; cv++) {
+            for (int cu = 0; cu < size; ) {
+                Material material = slice[cv * size + cu];
+                if (material == null) {
+                    cu++;
+                    continue;
+                }
+                int width = 1;
+                while (cu + width < size && slice[cv * size + cu + width] == material) {
+                    width++;
+                }
+                int height = 1;
+                grow:
+                while (cv + height < size) {
+                    int row = (cv + height) * size;
+                    for (int i = 0; i < width; i++) {
+                        if (slice[row + cu + i] != material) break grow;
+                    }
+                    height++;
+                }
+                for (int j = 0; j < height; j++) {
+                    Arrays.fill(slice, (cv + j) * size + cu, (cv + j) * size + cu + width, null);
+                }
+                quads.add(face, planeCoord, originU + cu - 0.5, originU + cu + width - 0.5,
+                          originV + cv - 0.5, originV + cv + height - 0.5);
+                cu += width;
+            }
+        }
+    }
+
+    public int getQuadCount() {
+        return quadCount;
+    }
+
+    public boolean isEmpty() {
+        return primitiveCount == 0;
+    }
+
+    /**
+     * The calling thread's traversal scratch, to pass to {@link #intersect(Ray, Traversal)}
+     */
+    static Traversal traversal() {
+        return TRAVERSALS.get();
+    }
+
+    /**
+     * Nearest front-face hit on this chunk's surface, or null. Everything in the
+     * mesh lies inside the chunk, so when a ray walks chunks in order the first
+     * chunk with a hit holds the closest hit. The BVH stack lives in the
+     * caller's traversal scratch, which also receives the number of quads and
+     * objects tested.
+     */
+    Intersection intersect(Ray ray, Traversal traversal) {
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+        int nearX = invX < 0 ? 3 : 0, nearY = invY < 0 ? 3 : 0, nearZ = invZ < 0 ? 3 : 0;
+
+        double bestT = Double.POSITIVE_INFINITY;
+        int bestQuad = -1;
+        Intersection bestObjectHit = null;
+        int tests = 0;
+
+        if (primitiveCount > 0 && boxEntry(0, ox, oy, oz, invX, invY, invZ, nearX, nearY, nearZ, bestT) < bestT) {
+            // Nodes to visit with their entry distance; the nearer child is always visited first
+            int[] stack = traversal.stack;
+            double[] stackT = traversal.stackT;
+            int top = 0;
+            stack[top] = 0;
+            stackT[top++] = 0;
+            while (top > 0) {
+                top--;
+                if (stackT[top] >= bestT) continue;
+                int node = stack[top];
+
+                int count = nodeCount[node];
+                if (count == 0) {
+                    int left = node + 1;
+                    int right = nodeRight[node];
+                    double tLeft = boxEntry(left, ox, oy, oz, invX, invY, invZ, nearX, nearY, nearZ, bestT);
+                    double tRight = boxEntry(right, ox, oy, oz, invX, invY, invZ, nearX, nearY, nearZ, bestT);
+                    if (tLeft > tRight) {
+                        int n = left; left = right; right = n;
+                        double t = tLeft; tLeft = tRight; tRight = t;
+                    }
+                    if (tRight < bestT) {
+                        stack[top] = right;
+                        stackT[top++] = tRight;
+                    }
+                    if (tLeft < bestT) {
+                        stack[top] = left;
+                        stackT[top++] = tLeft;
+                    }
+                    continue;
+                }
+                int first = nodeFirst[node];
+                for (int q = first; q < first + count; q++) {
+                    tests++;
+                    int face = faces[q];
+                    if (face < 0) {
+                        Intersection hit = objects[q].intersect(ray);
+                        if (hit != null && hit.distance < bestT) {
+                            bestT = hit.distance;
+                            bestQuad = q;
+                            bestObjectHit = hit;
+                        }
+                        continue;
+                    }
+                    // Plane crossing, then the hit point along the face's u and v axes
+                    double d, t, pu, pv;
+                    switch (face >> 1) {
+                        case 0:
+                            d = dx;
+                            t = (plane[q] - ox) * invX;
+                            pu = oy + dy * t;
+                            pv = oz + dz * t;
+                            break;
+                        case 1:
+                            d = dy;
+                            t = (plane[q] - oy) * invY;
+                            pu = oz + dz * t;
+                            pv = ox + dx * t;
+                            break;
+                        default:
+                            d = dz;
+                            t = (plane[q] - oz) * invZ;
+                            pu = ox + dx * t;
+                            pv = oy + dy * t;
+                            break;
+                    }
+                    // Only faces turned towards the ray can be hit
+                    if ((face & 1) == 0 ? d >= 0 : d <= 0) continue;
+                    if (t <= 0 || t >= bestT) continue;
+                    if (pu < uMin[q] || pu > uMax[q] || pv < vMin[q] || pv > vMax[q]) continue;
+                    bestT = t;
+                    bestQuad = q;
+                }
+            }
+        }
+
+        traversal.tests = tests;
+
+        if (bestQuad < 0) return null;
+        return faces[bestQuad] < 0 ? bestObjectHit : quadHit(bestQuad, ray, bestT);
+    }
+
+    /**
+     * Build the intersection for a quad hit; the hit object is the block in the cell under the hit
+     * point, as {@link GridChunk#intersect} reports it
+     */
+    private Intersection quadHit(int q, Ray ray, double t) {
+        BlockFace face = BlockFace.values()[faces[q]];
+        int axis = faces[q] >> 1;
+        int u = axis == 2 ? 0 : axis + 1;
+        int v = axis == 0 ? 2 : axis - 1;
+        Vector3 point = ray.origin.add(ray.direction.multiply(t));
+        double[] p = {point.x, point.y, point.z};
+
+        int[] cell = new int[3];
+        cell[axis] = (int) Math.round(plane[q] - 0.5 * (face.dx + face.dy + face.dz));
+        cell[u] = clampCell(p[u], uMin[q], uMax[q]);
+        cell[v] = clampCell(p[v], vMin[q], vMax[q]);
+        return new Intersection(t, point, face.getNormal(),
+                                chunk.getHitObject(GridChunk.cellIndex(cell[0], cell[1], cell[2])));
+    }
+
+    /**
+     * Cell along a quad axis that contains a coordinate, kept inside the quad on its edges
+     */
+    private static int clampCell(double coord, double min, double max) {
+        int cell = (int) Math.floor(coord + 0.5);
+        return Math.max((int) Math.round(min + 0.5), Math.min((int) Math.round(max - 0.5), cell));
+    }
+
+    /**
+     * Distance at which a ray enters a node's box, or infinity if it misses the box
+     * before tLimit. near[axis] is 0 when the ray runs towards +axis (so it meets
+     * the min side first) and 3 otherwise, which keeps the slab test free of swaps.
+     */
+    private double boxEntry(int node, double ox, double oy, double oz, double invX, double invY, double invZ,
+                            int nearX, int nearY, int nearZ, double tLimit) {
+        int b = node * 6;
+        double tNear = Math.max(Math.max(0, (bounds[b + nearX] - ox) * invX),
+                                Math.max((bounds[b + 1 + nearY] - oy) * invY, (bounds[b + 2 + nearZ] - oz) * invZ));
+        double tFar = Math.min(Math.min(tLimit, (bounds[b + 3 - nearX] - ox) * invX),
+                               Math.min((bounds[b + 4 - nearY] - oy) * invY, (bounds[b + 5 - nearZ] - oz) * invZ));
+        return tNear <= tFar ? tNear : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Top-down median-split BVH construction over the quads' centers. The
+     * primitives are sorted by center along each axis once; every node keeps its
+     * primitives in all three orders, and a split partitions the other two
+     * orders stably, so building needs no sorting below the root.
+     */
+    private final class BvhBuilder {
+        private final QuadList quads;
+        // Primitives of every node's range in center order along each axis
+        private final int[][] sorted = new int[3][];
+        private final boolean[] inLeft;
+        private final int[] scratch;
+        private final double[] lo = new double[3];
+        private final double[] hi = new double[3];
+        private int nodeTotal;
+
+        BvhBuilder(QuadList quads) {
+            this.quads = quads;
+            int count = quads.size;
+            this.inLeft = new boolean[count];
+            this.scratch = new int[count];
+            // Sort (center, index) pairs packed into longs: the float center's bits, made to
+            // order like the value, above the index. Centers are half-integers, exact as floats
+            long[] keys = new long[count];
+            for (int axis = 0; axis < 3; axis++) {
+                for (int q = 0; q < count; q++) {
+                    quads.box(q, lo, hi);
+                    int bits = Float.floatToIntBits((float) (lo[axis] + hi[axis]));
+                    keys[q] = ((long) (bits ^ ((bits >> 31) & 0x7FFFFFFF)) << 32) | q;
+                }
+                Arrays.sort(keys);
+                int[] order = sorted[axis] = new int[count];
+                for (int i = 0; i < count; i++) {
+                    order[i] = (int) keys[i];
+                }
+            }
+        }
+
+        int build(int first, int count) {
+            int node = nodeTotal++;
+            int b = node * 6;
+            bounds[b] = bounds[b + 1] = bounds[b + 2] = Double.POSITIVE_INFINITY;
+            bounds[b + 3] = bounds[b + 4] = bounds[b + 5] = Double.NEGATIVE_INFINITY;
+            for (int i = first; i < first + count; i++) {
+                quads.box(sorted[0][i], lo, hi);
+                for (int a = 0; a < 3; a++) {
+                    bounds[b + a] = Math.min(bounds[b + a], lo[a] - BOX_PADDING);
+                    bounds[b + 3 + a] = Math.max(bounds[b + 3 + a], hi[a] + BOX_PADDING);
+                }
+            }
+
+            if (count <= LEAF_SIZE) {
+                nodeFirst[node] = first;
+                nodeCount[node] = count;
+                return node;
+            }
+
+            // Split at the median along the axis where the centers spread the most; the
+            // extreme centers are the ends of each axis order
+            int axis = 0;
+            double widest = -1;
+            for (int a = 0; a < 3; a++) {
+                double spread = center(sorted[a][first + count - 1], a) - center(sorted[a][first], a);
+                if (spread > widest) {
+                    widest = spread;
+                    axis = a;
+                }
+            }
+            int half = count / 2;
+            partition(first, count, half, axis);
+            build(first, half);
+            nodeRight[node] = build(first + half, count - half);
+            return node;
+        }
+
+        /**
+         * Move the first half primitives in the split axis order to the front of the
+         * range in the other two orders, keeping both sides sorted
+         */
+        private void partition(int first, int count, int half, int axis) {
+            int[] split = sorted[axis];
+            for (int i = first; i < first + half; i++) {
+                inLeft[split[i]] = true;
+            }
+            for (int a = 0; a < 3; a++) {
+                if (a == axis) continue;
+                int[] order = sorted[a];
+                int left = first, right = 0;
+                for (int i = first; i < first + count; i++) {
+                    int q = order[i];
+                    if (inLeft[q]) {
+                        order[left++] = q;
+                    } else {
+                        scratch[right++] = q;
+                    }
+                }
+                System.arraycopy(scratch, 0, order, left, right);
+            }
+            for (int i = first; i < first + half; i++) {
+                inLeft[split[i]] = false;
+            }
+        }
+
+        private double center(int q, int axis) {
+            quads.box(q, lo, hi);
+            return (lo[axis] + hi[axis]) * 0.5;
+        }
+
+        /**
+         * The primitives in leaf order
+         */
+        void copyOrder(int[] order) {
+            System.arraycopy(sorted[0], 0, order, 0, order.length);
+        }
+    }
+
+    /**
+     * Per-thread scratch for ray traversal: the BVH node stack with each node's entry
+     * distance, and the number of primitives the last intersection tested
+     */
+    static final class Traversal {
+        final int[] stack = new int[STACK_SIZE];
+        final double[] stackT = new double[STACK_SIZE];
+        int tests;
+    }
+
+    /**
+     * Growable primitive storage used while meshing
+     */
+    private static final class QuadList {
+        int size;
+        int quadCount;
+        byte[] faces = new byte[64];
+        Renderable[] objects = new Renderable[64];
+        double[] plane = new double[64];
+        double[] uMin = new double[64], uMax = new double[64];
+        double[] vMin = new double[64], vMax = new double[64];
+
+        void add(byte face, double planeCoord, double u0, double u1, double v0, double v1) {
+            append(face, null, planeCoord, u0, u1, v0, v1);
+            quadCount++;
+        }
+
+        /**
+         * Add a non-block object; its box is the cell it occupies
+         */
+        void addObject(Renderable object, int x, int y, int z) {
+            append((byte) -1, object, x, y - 0.5, y + 0.5, z - 0.5, z + 0.5);
+        }
+
+        private void append(byte face, Renderable object, double planeCoord, double u0, double u1, double v0, double v1) {
+            if (size == faces.length) {
+                int capacity = size * 2;
+                faces = Arrays.copyOf(faces, capacity);
+                objects = Arrays.copyOf(objects, capacity);
+                plane = Arrays.copyOf(plane, capacity);
+                uMin = Arrays.copyOf(uMin, capacity);
+                uMax = Arrays.copyOf(uMax, capacity);
+                vMin = Arrays.copyOf(vMin, capacity);
+                vMax = Arrays.copyOf(vMax, capacity);
+            }
+            faces[size] = face;
+            objects[size] = object;
+            plane[size] = planeCoord;
+            uMin[size] = u0;
+            uMax[size] = u1;
+            vMin[size] = v0;
+            vMax[size] = v1;
+            size++;
+        }
+
+        /**
+         * World-space box of a primitive; a quad's box is flat along the face's axis
+         */
+        void box(int q, double[] lo, double[] hi) {
+            if (faces[q] < 0) {
+                // Objects keep their cell's x center in plane and y, z ranges in u, v
+                lo[0] = plane[q] - 0.5;
+                hi[0] = plane[q] + 0.5;
+                lo[1] = uMin[q];
+                hi[1] = uMax[q];
+                lo[2] = vMin[q];
+                hi[2] = vMax[q];
+                return;
+            }
+            int axis = faces[q] >> 1;
+            int u = (axis + 1) % 3;
+            int v = (axis + 2) % 3;
+            lo[axis] = hi[axis] = plane[q];
+            lo[u] = uMin[q];
+            hi[u] = uMax[q];
+            lo[v] = vMin[q];
+            hi[v] = vMax[q];
+        }
+    }
+}
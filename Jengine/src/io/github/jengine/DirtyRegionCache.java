@@ -0,0 +1,100 @@
+package io.github.jengine;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * DirtyRegionCache keeps the previous frame's pixels together with the chunk
+ * footprint of every 16x16 screen tile, so that after a block edit only the
+ * tiles that could see the edit are traced again.
+ * <p>
+ * A tile's footprint holds every chunk its primary, secondary and shadow rays
+ * passed through (see {@link ChunkFootprint}). When the camera, image size or
+ * trace settings stay the same and the scene changed only in its grid, a tile
+ * is re-traced only if one of the changed chunks is in its footprint. Any other
+ * change (camera, lights, skybox, or edits too old to be known) re-traces the
+ * whole frame.
+ */
+public class DirtyRegionCache {
+    static final int TILE = 16;
+
+    private int width, height, tilesX;
+    private int[] pixels = new int[0];
+    private ChunkFootprint[] footprints = new ChunkFootprint[0];
+    // Snapshot the cached pixels show, and the view they were traced with
+    private Scene frame;
+    private long cameraVersion;
+    private TraceSettings settings;
+    private double spread;
+    private int tracedTiles;
+
+    /**
+     * Prepare for a new frame and return the indices of the tiles that must be traced
+     */
+    public int[] beginFrame(Scene scene, Scene frame, int width, int height, long cameraVersion,
+                            TraceSettings settings, double spread) {
+        boolean sameView = this.frame != null && width == this.width && height == this.height
+            && cameraVersion == this.cameraVersion && settings == this.settings && spread == this.spread;
+        Set<Long> changed = sameView ? scene.getChangedChunks(this.frame, frame) : null;
+
+        if (width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            this.tilesX = (width + TILE - 1) / TILE;
+            pixels = new int[width * height];
+            footprints = new ChunkFootprint[tilesX * ((height + TILE - 1) / TILE)];
+        }
+        this.frame = frame;
+        this.cameraVersion = cameraVersion;
+        this.settings = settings;
+        this.spread = spread;
+
+        int[] dirty = new int[footprints.length];
+        int count = 0;
+        for (int tile = 0; tile < footprints.length; tile++) {
+            if (changed == null || footprints[tile] == null || footprints[tile].intersects(changed)) {
+                dirty[count++] = tile;
+            }
+        }
+        tracedTiles = count;
+        return Arrays.copyOf(dirty, count);
+    }
+
+    /**
+     * A new footprint for recording one tile of the current frame, replacing the tile's old one
+     */
+    public ChunkFootprint newFootprint(int tile) {
+        ChunkFootprint footprint = new ChunkFootprint(frame);
+        footprints[tile] = footprint;
+        return footprint;
+    }
+
+    /**
+     * The cached frame, updated in place by the tiles being traced
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int tileX(int tile) {
+        return tile % tilesX * TILE;
+    }
+
+    public int tileY(int tile) {
+        return tile / tilesX * TILE;
+    }
+
+    /**
+     * Fraction of tiles traced in the last frame
+     */
+    public double getTracedRatio() {
+        return footprints.length > 0 ? (double) tracedTiles / footprints.length : 0;
+    }
+
+    /**
+     * Drop all cached tiles so the next frame is traced from scratch
+     */
+    public void invalidate() {
+        frame = null;
+    }
+}
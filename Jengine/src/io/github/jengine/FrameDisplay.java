@@ -0,0 +1,103 @@
+package io.github.jengine;
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.util.function.Consumer;
+
+/**
+ * FrameDisplay presents rendered frames with active rendering.
+ * <p>
+ * Frames are drawn straight into a double-buffered {@link BufferStrategy}
+ * from the render thread, bypassing Swing's repaint and layout machinery.
+ * Nothing is allocated per frame beyond the strategy's draw graphics, and
+ * presentation can optionally be paced to the display refresh. Frames
+ * smaller than the canvas (dynamic resolution) are upscaled bilinearly.
+ */
+public class FrameDisplay extends Canvas {
+    private static final long serialVersionUID = 1L;
+
+    private BufferStrategy strategy;
+    private BufferedImage lastFrame;
+    private boolean vsync = true;
+    private long lastPresentNanos;
+
+    public FrameDisplay() {
+        setIgnoreRepaint(true);
+        setBackground(Color.BLACK);
+        setFocusable(false);
+    }
+
+    /**
+     * Draw a frame to the screen
+     */
+    public void present(BufferedImage frame) {
+        present(frame, null);
+    }
+
+    /**
+     * Draw a frame to the screen, then let the decoration draw on top of it
+     */
+    public synchronized void present(BufferedImage frame, Consumer<Graphics2D> decoration) {
+        if (!isDisplayable() || frame == null) return;
+        long start = System.nanoTime();
+
+        if (strategy == null) {
+            createBufferStrategy(2);
+            strategy = getBufferStrategy();
+        }
+
+        do {
+            do {
+                Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    if (frame.getWidth() != getWidth() || frame.getHeight() != getHeight()) {
+                        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                           RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    }
+                    g.drawImage(frame, 0, 0, getWidth(), getHeight(), null);
+                    if (decoration != null) {
+                        decoration.accept(g);
+                    }
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+
+            strategy.show();
+        } while (strategy.contentsLost());
+
+        if (vsync) {
+            Toolkit.getDefaultToolkit().sync();
+        }
+
+        lastFrame = frame;
+        lastPresentNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * The most recently presented frame, or null if none yet
+     */
+    public synchronized BufferedImage getLastFrame() {
+        return lastFrame;
+    }
+
+    /**
+     * Time spent in the last present call, in nanoseconds
+     */
+    public long getLastPresentNanos() {
+        return lastPresentNanos;
+    }
+
+    public void setVsync(boolean vsync) {
+        this.vsync = vsync;
+    }
+
+    public boolean isVsync() {
+        return vsync;
+    }
+}
@@ -0,0 +1,322 @@
+package io.github.jengine;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * FrameOutput encodes and writes finished frames off the render thread.
+ * <p>
+ * {@link #submit} hands a frame over and returns immediately. Frames are
+ * encoded in parallel on a small pool of encoder threads, then written by one
+ * writer thread in submission order, so streams receive frames in sequence. At
+ * most {@code capacity} frames are pending at once; when encoding falls that
+ * far behind, submit blocks until a frame has been written (back-pressure),
+ * and {@link #offer} returns false instead so a real-time caller can skip the
+ * frame.
+ * <p>
+ * Where frames go is decided by a {@link FrameSink}: PNG files in a directory,
+ * raw 8-bit RGB to a stream such as a pipe into a video encoder, or raw RGB
+ * into a memory-mapped file.
+ */
+public class FrameOutput implements Closeable {
+    private final FrameSink sink;
+    private final ExecutorService encoders;
+    private final Thread writer;
+    private final Semaphore slots;
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private volatile long nextFrame;
+    private volatile long framesWritten;
+    private volatile IOException failure;
+    private boolean closed;
+
+    // Frames mapped at a time by rawMappedFile, rather than one mapping per frame
+    private static final int MAPPED_WINDOW_FRAMES = 16;
+    // Marks the end of the stream for the writer thread
+    private static final Pending END = new Pending(-1, null);
+
+    /**
+     * Where and how frames are stored. encode may run on several threads at once;
+     * write is called from one thread, in frame order.
+     */
+    public interface FrameSink extends Closeable {
+        byte[] encode(long frame, BufferedImage image) throws IOException;
+
+        void write(long frame, byte[] data) throws IOException;
+    }
+
+    public FrameOutput(FrameSink sink, int encoderThreads, int capacity) {
+        if (encoderThreads < 1 || capacity < 1) {
+            throw new IllegalArgumentException("encoderThreads and capacity must be >= 1");
+        }
+        this.sink = sink;
+        this.slots = new Semaphore(capacity);
+        AtomicInteger count = new AtomicInteger();
+        this.encoders = Executors.newFixedThreadPool(encoderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "FrameOutput-encoder-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer = new Thread(this::writeFrames, "FrameOutput-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue a frame for output, waiting while {@code capacity} frames are already pending.
+     * The image must not be modified afterwards.
+     */
+    public synchronized void submit(BufferedImage image) throws IOException {
+        checkOpen();
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for frame output");
+        }
+        enqueue(image);
+    }
+
+    /**
+     * Queue a frame for output if fewer than {@code capacity} frames are pending, without waiting
+     *
+     * @return false if the frame was not queued
+     */
+    public synchronized boolean offer(BufferedImage image) throws IOException {
+        checkOpen();
+        if (!slots.tryAcquire()) {
+            return false;
+        }
+        enqueue(image);
+        return true;
+    }
+
+    private void enqueue(BufferedImage image) {
+        long frame = nextFrame++;
+        pending.add(new Pending(frame, CompletableFuture.supplyAsync(() -> {
+            try {
+                return sink.encode(frame, image);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, encoders)));
+    }
+
+    /**
+     * Number of frames written so far
+     */
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /**
+     * Number of frames submitted but not yet written
+     */
+    public long getPendingFrames() {
+        return nextFrame - framesWritten;
+    }
+
+    /**
+     * Write frames in order as their encoding completes, until the end marker
+     */
+    private void writeFrames() {
+        try {
+            while (true) {
+                Pending next = pending.take();
+                if (next == END) return;
+                try {
+                    if (failure == null) {
+                        sink.write(next.frame, next.data.join());
+                        framesWritten++;
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+                    failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                } finally {
+                    slots.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Frame output is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Write every pending frame, then close the sink. Throws the first encoding or write error, if any.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        pending.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing pending frames");
+        } finally {
+            encoders.shutdownNow();
+            sink.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * One PNG file per frame, named frame00000.png, frame00001.png and so on
+     */
+    public static FrameSink pngFiles(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return new FrameSink() {
+            @Override
+            public byte[] encode(long frame, BufferedImage image) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ImageIO.write(image, "png", bytes);
+                return bytes.toByteArray();
+            }
+
+            @Override
+            public void write(long frame, byte[] data) throws IOException {
+                Files.write(new File(directory, String.format("frame%05d.png", frame)).toPath(), data);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Raw 8-bit RGB rows, frame after frame, to a stream such as a pipe into a video encoder.
+     * The stream is closed with the output.
+     */
+    public static FrameSink rawStream(OutputStream out) {
+        return new FrameSink() {
+            @Override
+            public byte[] encode(long frame, BufferedImage image) {
+                return toRgb(image);
+            }
+
+            @Override
+            public void write(long frame, byte[] data) throws IOException {
+                out.write(data);
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * Raw 8-bit RGB frames stored back to back in a memory-mapped file, which grows as frames
+     * arrive. All frames must have the same size.
+     */
+    public static FrameSink rawMappedFile(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new FrameSink() {
+            private int frameBytes = -1;
+            private long frames;
+            private MappedByteBuffer window;
+            private long windowStart = -1;
+
+            @Override
+            public byte[] encode(long frame, BufferedImage image) {
+                return toRgb(image);
+            }
+
+            @Override
+            public void write(long frame, byte[] data) throws IOException {
+                if (frameBytes < 0) {
+                    frameBytes = data.length;
+                } else if (data.length != frameBytes) {
+                    throw new IOException("Frame " + frame + " has a different size than the first frame");
+                }
+                long start = frame / MAPPED_WINDOW_FRAMES * MAPPED_WINDOW_FRAMES;
+                if (start != windowStart) {
+                    if (window != null) {
+                        window.force();
+                    }
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, start * frameBytes,
+                                         (long) MAPPED_WINDOW_FRAMES * frameBytes);
+                    windowStart = start;
+                }
+                window.put((int) (frame - start) * frameBytes, data);
+                frames = frame + 1;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try (channel) {
+                    if (window != null) {
+                        window.force();
+                        // Drop the unused tail of the last window
+                        channel.truncate(frames * frameBytes);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Pack an image into 8-bit RGB rows, top to bottom
+     */
+    static byte[] toRgb(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        byte[] rgb = new byte[3 * pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            rgb[3 * i] = (byte) (pixels[i] >> 16);
+            rgb[3 * i + 1] = (byte) (pixels[i] >> 8);
+            rgb[3 * i + 2] = (byte) pixels[i];
+        }
+        return rgb;
+    }
+
+    private static final class Pending {
+        final long frame;
+        final CompletableFuture<byte[]> data;
+
+        Pending(long frame, CompletableFuture<byte[]> data) {
+            this.frame = frame;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package io.github.jengine;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * GridChunk is a dense 16x16x16 block of grid cells.
+ * <p>
+ * UnitGrid stores its cells in chunks so that ray traversal can step from cell
+ * to cell with plain array reads instead of a hash lookup per cell. Cells hold
+ * ids rather than references: blocks registered in the {@link BlockPalette} are
+ * stored as their type's id and created again when read, and only other objects
+ * (spheres, lights and unregistered blocks) are kept as objects. The ids and all
+ * derived per-cell data live in one slot from the grid's {@link ChunkMemory},
+ * which may be off the Java heap.
+ */
+public class GridChunk {
+    public static final int SHIFT = 4;
+    public static final int SIZE = 1 << SHIFT;
+    public static final int MASK = SIZE - 1;
+    public static final int VOLUME = SIZE * SIZE * SIZE;
+    // Coarse levels of detail, with cells 2, 4 and 8 grid cells wide
+    public static final int LOD_LEVELS = 3;
+
+    // Where each level of detail starts among the coarse cells of all levels
+    private static final int[] LOD_START = new int[LOD_LEVELS + 2];
+
+    static {
+        for (int level = 1; level <= LOD_LEVELS; level++) {
+            int size = SIZE >> level;
+            LOD_START[level + 1] = LOD_START[level] + size * size * size;
+        }
+    }
+
+    // Layout of a slot. Per cell: exposed faces as BlockFace bits; the Chebyshev distance to the nearest
+    // occupied cell, capped at the chunk border; and the cell id (0 for air, a palette id, or
+    // BlockPalette.OBJECT plus an index into objects). Per coarse cell: the index of the cell standing
+    // in for it plus one (0 if it holds no block), and whether it also holds other objects
+    private static final int FACE_MASKS = 0;
+    private static final int EMPTY_DISTANCES = VOLUME;
+    private static final int CELL_IDS = 2 * VOLUME;
+    private static final int LOD_CELLS = 4 * VOLUME;
+    private static final int LOD_MIXED = LOD_CELLS + 2 * LOD_START[LOD_LEVELS + 1];
+    /** Bytes of data per chunk, rounded up to whole longs */
+    static final int DATA_BYTES = (LOD_MIXED + LOD_START[LOD_LEVELS + 1] + 7) & ~7;
+
+    public final int chunkX, chunkY, chunkZ;
+    // Edit generation that owns this chunk; UnitGrid copies chunks from older epochs before writing
+    final long epoch;
+    private final ChunkMemory memory;
+    private final ChunkMemory.Slot slot;
+    private final ByteBuffer data;
+    // Objects without a palette id, by the low bits of their cell id; null where removed
+    private Renderable[] objects;
+    private int firstFreeObject;
+    // Greedy-meshed surface used for ray intersection, or null to walk the cells; rebuilt by UnitGrid
+    private ChunkMesh mesh;
+    private int count;
+
+    public GridChunk(int chunkX, int chunkY, int chunkZ) {
+        this(chunkX, chunkY, chunkZ, 0, ChunkMemory.HEAP);
+    }
+
+    GridChunk(int chunkX, int chunkY, int chunkZ, long epoch, ChunkMemory memory) {
+        this.chunkX = chunkX;
+        this.chunkY = chunkY;
+        this.chunkZ = chunkZ;
+        this.epoch = epoch;
+        this.memory = memory;
+        this.slot = memory.allocate();
+        this.data = slot.data;
+    }
+
+    private GridChunk(GridChunk source, long epoch) {
+        this.chunkX = source.chunkX;
+        this.chunkY = source.chunkY;
+        this.chunkZ = source.chunkZ;
+        this.epoch = epoch;
+        this.memory = source.memory;
+        this.slot = memory.allocate();
+        this.data = slot.data;
+        this.data.put(0, source.data, 0, DATA_BYTES);
+        this.objects = source.objects != null ? source.objects.clone() : null;
+        this.firstFreeObject = source.firstFreeObject;
+        this.count = source.count;
+    }
+
+    /**
+     * Copy of this chunk owned by a newer edit epoch
+     */
+    GridChunk copy(long epoch) {
+        return new GridChunk(this, epoch);
+    }
+
+    /**
+     * Return this chunk's slot to its memory now; only for chunks no snapshot has seen
+     */
+    void free() {
+        memory.free(slot);
+    }
+
+    /**
+     * Return this chunk's slot to its memory once no snapshot from before the given edit epoch is held
+     */
+    void retire(long epoch) {
+        memory.retire(slot, epoch);
+    }
+
+    /**
+     * Index of a cell inside its chunk from world grid coordinates
+     */
+    public static int cellIndex(int x, int y, int z) {
+        return ((y & MASK) << (2 * SHIFT)) | ((z & MASK) << SHIFT) | (x & MASK);
+    }
+
+    /**
+     * Pack chunk coordinates into a single map key (21 bits per axis)
+     */
+    public static long key(int chunkX, int chunkY, int chunkZ) {
+        return ((long) (chunkX & 0x1FFFFF) << 42) | ((long) (chunkY & 0x1FFFFF) << 21) | (chunkZ & 0x1FFFFF);
+    }
+
+    /**
+     * Index of the coarse cell of a level of detail that holds a cell, from world grid coordinates
+     */
+    public static int lodIndex(int level, int x, int y, int z) {
+        int shift = SHIFT - level;
+        return (((y & MASK) >> level) << (2 * shift)) | (((z & MASK) >> level) << shift) | ((x & MASK) >> level);
+    }
+
+    /**
+     * The object in a cell; blocks stored by id are created anew on every call
+     */
+    public Renderable get(int x, int y, int z) {
+        return get(cellIndex(x, y, z));
+    }
+
+    public Renderable get(int index) {
+        int id = getCellId(index);
+        if (id == 0) return null;
+        if ((id & BlockPalette.OBJECT) != 0) return objects[id & ~BlockPalette.OBJECT];
+        return BlockPalette.create(id, originX() + (index & MASK), originY() + (index >> (2 * SHIFT)),
+                                   originZ() + ((index >> SHIFT) & MASK));
+    }
+
+    /**
+     * Intersect a ray with the object in an occupied cell, only on the faces in faceMask if it
+     * is a block. Blocks stored by id are tested as unit boxes without creating them and the
+     * hit reports their type's shared instance (see {@link BlockPalette}).
+     */
+    Intersection intersect(int index, int faceMask, Ray ray) {
+        int id = getCellId(index);
+        if ((id & BlockPalette.OBJECT) != 0) {
+            Renderable object = objects[id & ~BlockPalette.OBJECT];
+            return object instanceof Block ? ((Block) object).intersect(ray, faceMask) : object.intersect(ray);
+        }
+        return RectangularPrism.intersect(ray, originX() + (index & MASK), originY() + (index >> (2 * SHIFT)),
+                                          originZ() + ((index >> SHIFT) & MASK), 0.5, 0.5, 0.5, faceMask,
+                                          BlockPalette.shared(id));
+    }
+
+    /**
+     * The object a ray hit on an occupied cell reports: the object itself, or the shared instance
+     * of the type of a block stored by id
+     */
+    Renderable getHitObject(int index) {
+        int id = getCellId(index);
+        if ((id & BlockPalette.OBJECT) != 0) return objects[id & ~BlockPalette.OBJECT];
+        return BlockPalette.shared(id);
+    }
+
+    int getCellId(int index) {
+        return data.getShort(CELL_IDS + 2 * index) & 0xFFFF;
+    }
+
+    public boolean isOccupied(int index) {
+        return getCellId(index) != 0;
+    }
+
+    /**
+     * Whether a cell holds a block, which covers its neighbours' faces
+     */
+    public boolean isBlock(int index) {
+        int id = getCellId(index);
+        return id != 0 && ((id & BlockPalette.OBJECT) == 0 || objects[id & ~BlockPalette.OBJECT] instanceof Block);
+    }
+
+    /**
+     * Whether a cell holds this very object (never true for blocks stored by id)
+     */
+    public boolean holds(int index, Renderable object) {
+        int id = getCellId(index);
+        return (id & BlockPalette.OBJECT) != 0 && objects[id & ~BlockPalette.OBJECT] == object;
+    }
+
+    /**
+     * Material of the object in a cell, or null if the cell is empty
+     */
+    public Material getMaterial(int index) {
+        int id = getCellId(index);
+        if (id == 0) return null;
+        if ((id & BlockPalette.OBJECT) != 0) return objects[id & ~BlockPalette.OBJECT].material;
+        return BlockPalette.material(id);
+    }
+
+    /**
+     * Faces of a cell that are not covered by a neighbouring block, as BlockFace bits
+     */
+    public int getFaceMask(int index) {
+        return data.get(FACE_MASKS + index);
+    }
+
+    void setFaceMask(int index, int mask) {
+        data.put(FACE_MASKS + index, (byte) mask);
+    }
+
+    /**
+     * How far a ray may leap from a cell: 0 for an occupied cell, otherwise d such
+     * that every cell within Chebyshev distance d - 1 is empty and in this chunk
+     */
+    public int getEmptyDistance(int index) {
+        return data.get(EMPTY_DISTANCES + index);
+    }
+
+    void setEmptyDistance(int index, int distance) {
+        data.put(EMPTY_DISTANCES + index, (byte) distance);
+    }
+
+    /**
+     * Block standing in for a coarse cell of a level of detail (1 to LOD_LEVELS), or null if the cell holds no block
+     */
+    public Renderable getLod(int level, int index) {
+        int cell = getLodCell(level, index);
+        return cell >= 0 ? get(cell) : null;
+    }
+
+    /**
+     * Index of the cell standing in for a coarse cell, or -1 if the coarse cell holds no block
+     */
+    int getLodCell(int level, int index) {
+        return (data.getShort(LOD_CELLS + 2 * (LOD_START[level] + index)) & 0xFFFF) - 1;
+    }
+    
+    /**
+     * Whether a coarse cell also holds objects other than blocks, which have no coarse form
+     */
+    public boolean isLodMixed(int level, int index) {
+        return data.get(LOD_MIXED + LOD_START[level] + index) != 0;
+    }
+    
+    void setLod(int level, int index, int cell, boolean mixed) {
+        data.putShort(LOD_CELLS + 2 * (LOD_START[level] + index), (short) (cell + 1));
+        data.put(LOD_MIXED + LOD_START[level] + index, (byte) (mixed ? 1 : 0));
+    }
+
+    public ChunkMesh getMesh() {
+        return mesh;
+    }
+
+    void setMesh(ChunkMesh mesh) {
+        this.mesh = mesh;
+    }
+
+    /**
+     * Store an object in a cell (null to clear it) and return whether the cell was occupied
+     */
+    public boolean set(int x, int y, int z, Renderable object) {
+        int index = cellIndex(x, y, z);
+        int previous = getCellId(index);
+        if ((previous & BlockPalette.OBJECT) != 0) {
+            int slot = previous & ~BlockPalette.OBJECT;
+            objects[slot] = null;
+            firstFreeObject = Math.min(firstFreeObject, slot);
+        }
+        int id = 0;
+        if (object != null) {
+            id = BlockPalette.idOf(object, x, y, z);
+            if (id == 0) {
+                id = BlockPalette.OBJECT | storeObject(object);
+            }
+        }
+        data.putShort(CELL_IDS + 2 * index, (short) id);
+        if (previous == 0 && id != 0) count++;
+        if (previous != 0 && id == 0) count--;
+        return previous != 0;
+    }
+
+    private int storeObject(Renderable object) {
+        if (objects == null) {
+            objects = new Renderable[4];
+        }
+        int slot = firstFreeObject;
+        while (slot < objects.length && objects[slot] != null) {
+            slot++;
+        }
+        if (slot == objects.length) {
+            objects = Arrays.copyOf(objects, 2 * objects.length);
+        }
+        objects[slot] = object;
+        firstFreeObject = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Number of occupied cells
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * World grid coordinate of the first cell along each axis
+     */
+    public int originX() {
+        return chunkX << SHIFT;
+    }
+
+    public int originY() {
+        return chunkY << SHIFT;
+    }
+
+    public int originZ() {
+        return chunkZ << SHIFT;
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.jengine;
+
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * InputState records which keys are held and how far the mouse has been dragged,
+ * so the game loop can poll input once per update instead of reacting to
+ * individual (OS key-repeat driven) events.
+ */
+public class InputState extends KeyAdapter {
+    private final Set<Integer> heldKeys = ConcurrentHashMap.newKeySet();
+    private double lookX, lookY;
+
+    @Override
+    public void keyPressed(KeyEvent e) {
+        heldKeys.add(e.getKeyCode());
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        heldKeys.remove(e.getKeyCode());
+    }
+
+    /**
+     * Whether a key (a KeyEvent.VK_ code) is currently held down
+     */
+    public boolean isHeld(int keyCode) {
+        return heldKeys.contains(keyCode);
+    }
+
+    /**
+     * Forget all held keys, e.g. when the window loses focus and releases would be missed
+     */
+    public void releaseAll() {
+        heldKeys.clear();
+    }
+
+    /**
+     * Accumulate a mouse-look movement in pixels
+     */
+    public synchronized void addLook(double dx, double dy) {
+        lookX += dx;
+        lookY += dy;
+    }
+
+    /**
+     * Take the mouse-look movement accumulated since the last call, as {dx, dy}
+     */
+    public synchronized double[] consumeLook() {
+        double[] look = {lookX, lookY};
+        lookX = 0;
+        lookY = 0;
+        return look;
+    }
+}
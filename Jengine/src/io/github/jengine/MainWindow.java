@@ -4,25 +4,51 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.List;
 
 /**
  * MainWindow sets up the Swing GUI and renders the ray-traced image.
  * <p>
  * Initializes the scene, camera, renderer, and displays the output.
- * This is the entry point and render loop for the program.
+ * This is the entry point and render loop for the program. Frames are
+ * presented by a {@link FrameDisplay} canvas directly from the render thread.
+ * <p>
+ * A dedicated loop thread polls held keys and mouse-look movement from
+ * {@link InputState}, advances the camera in fixed time steps scaled by real
+ * elapsed time, and renders at a target frame rate whenever the view changed.
+ * <p>
+ * Per-frame {@link RenderStats} are shown in the overlay and published over JMX.
+ * Setting the system property {@code jengine.frameLog} to a file path also writes
+ * them as one JSON object per frame.
  */
 public class MainWindow extends JFrame {
     private final Scene scene;
     private final Camera camera;
     private final Renderer renderer;
-    private final JLabel label;
-    private boolean paused = false;
+    private final FrameDisplay display;
+    private final RenderStats stats;
+    private final InputState input = new InputState();
+    private volatile boolean paused = false;
+    private volatile boolean progressive = false;
     private boolean mouseLookEnabled = false;
     private Point lastMousePosition;
     private final double MOUSE_SENSITIVITY = 0.2;
-    private final double MOVE_SPEED = 0.5;
-    
+    private final double MOVE_SPEED = 8.0; // Units per second
+
+    // Loop timing
+    private static final double TARGET_FPS = 30.0;
+    private static final double UPDATE_STEP = 1.0 / 60.0; // Seconds per fixed update
+    // Most simulation time carried into one frame; longer stalls (a debugger pause, a full GC) are
+    // dropped rather than replayed as a sudden jump
+    private static final double MAX_LAG = 0.25;
+
+    // Internal render resolution follows a 33 ms frame budget, upscaled on present
+    private final ResolutionController resolution = new ResolutionController(33.0, 0.25, 1.0);
+    private int renderWidth, renderHeight;
+
     // Performance and debug tracking
     private long lastFrameTime = System.nanoTime();
     private int frameCount = 0;
@@ -38,9 +64,12 @@ public class MainWindow extends JFrame {
         scene = new Scene();
         camera = new Camera();
         renderer = new Renderer(scene, camera);
-        label = new JLabel();
+        display = new FrameDisplay();
+        stats = scene.getStats();
+        stats.registerMBean();
+        openFrameLog();
 
-        getContentPane().add(label);
+        getContentPane().add(display);
 
         setSize(800, 600);
         setLocationRelativeTo(null);
@@ -63,26 +92,22 @@ public class MainWindow extends JFrame {
         camera.setPosition(new Vector3(0, 5, 5));
         camera.setDirection(new Vector3(0, -0.3, -1));
 
-        renderScene();
-
         // Mouse motion listener for look controls (only when dragging)
-        addMouseMotionListener(new MouseMotionAdapter() {
+        display.addMouseMotionListener(new MouseMotionAdapter() {
             public void mouseDragged(MouseEvent e) {
                 if (mouseLookEnabled && lastMousePosition != null) {
                     int dx = e.getX() - lastMousePosition.x;
                     int dy = e.getY() - lastMousePosition.y;
 
-                    camera.rotateHorizontal(dx * MOUSE_SENSITIVITY);
-                    camera.rotateVertical(-dy * MOUSE_SENSITIVITY);
-
-                    renderScene();
+                    // Applied by the loop thread on its next frame
+                    input.addLook(dx, dy);
                 }
                 lastMousePosition = e.getPoint();
             }
         });
 
         // Mouse listener for enabling/disabling look mode
-        addMouseListener(new MouseAdapter() {
+        display.addMouseListener(new MouseAdapter() {
             public void mousePressed(MouseEvent e) {
                 if (SwingUtilities.isRightMouseButton(e)) {
                     mouseLookEnabled = true;
@@ -99,86 +124,175 @@ public class MainWindow extends JFrame {
             }
         });
 
-        // Keyboard listener for movement and pause
+        // Held keys are polled by the loop; toggles react to the key press itself
+        addKeyListener(input);
         addKeyListener(new KeyAdapter() {
             public void keyPressed(KeyEvent e) {
                 switch (e.getKeyCode()) {
                 case KeyEvent.VK_ESCAPE:
                     paused = !paused;
-                    if (paused) {
-                        Graphics g = label.getGraphics();
-                        g.setColor(new Color(0, 0, 0, 150));
-                        g.fillRect(0, 0, getWidth(), getHeight());
-                        g.setColor(Color.WHITE);
-                        g.setFont(new Font("Arial", Font.BOLD, 36));
-                        g.drawString("PAUSED", getWidth() / 2 - 80, getHeight() / 2);
-                    } else {
-                        renderScene();
-                    }
                     break;
-                case KeyEvent.VK_W:
-                    if (!paused) {
-                        camera.moveForward(MOVE_SPEED);
-                        renderScene();
-                    }
-                    break;
-                case KeyEvent.VK_S:
-                    if (!paused) {
-                        camera.moveBackward(MOVE_SPEED);
-                        renderScene();
-                    }
-                    break;
-                case KeyEvent.VK_A:
-                    if (!paused) {
-                        camera.moveLeft(MOVE_SPEED);
-                        renderScene();
-                    }
-                    break;
-                case KeyEvent.VK_D:
-                    if (!paused) {
-                        camera.moveRight(MOVE_SPEED);
-                        renderScene();
-                    }
+                case KeyEvent.VK_P:
+                    progressive = !progressive;
                     break;
                 }
             }
         });
+
+        // Key releases are lost while unfocused, so forget held keys
+        addWindowFocusListener(new WindowAdapter() {
+            public void windowLostFocus(WindowEvent e) {
+                input.releaseAll();
+            }
+        });
+
+        Thread loop = new Thread(this::runLoop, "render-loop");
+        loop.setDaemon(true);
+        loop.start();
     }
 
-    private void renderScene() {
-        if (paused) return;
-        
-        new Thread(() -> {
-            long startTime = System.nanoTime();
-            
-            BufferedImage img = renderer.render(getWidth(), getHeight());
-            
-            // Calculate frame time and FPS
-            long endTime = System.nanoTime();
-            frameTime = (endTime - startTime) / 1_000_000.0; // Convert to milliseconds
-            
-            frameCount++;
-            long currentTime = System.currentTimeMillis();
-            if (currentTime - fpsUpdateTime >= 1000) { // Update FPS every second
-                fps = frameCount * 1000.0 / (currentTime - fpsUpdateTime);
-                frameCount = 0;
-                fpsUpdateTime = currentTime;
+    /**
+     * Fixed-timestep loop: poll input, advance the camera, render at the target frame rate
+     */
+    private void runLoop() {
+        long frameNanos = (long) (1_000_000_000L / TARGET_FPS);
+        long previousTime = System.nanoTime();
+        double lag = 0;
+        long renderedCameraVersion = -1;
+        long renderedSceneVersion = -1;
+        boolean pauseShown = false;
+
+        while (true) {
+            long frameStart = System.nanoTime();
+            lag += (frameStart - previousTime) / 1_000_000_000.0;
+            previousTime = frameStart;
+
+            if (paused) {
+                lag = 0;
+                input.consumeLook();
+                if (!pauseShown) {
+                    showPaused();
+                    pauseShown = true;
+                }
+            } else {
+                if (pauseShown) {
+                    // Replace the dimmed pause frame even if nothing moved while paused
+                    renderedCameraVersion = -1;
+                    pauseShown = false;
+                }
+
+                // Mouse look is a distance, not a rate, so it is applied once per frame
+                double[] look = input.consumeLook();
+                if (look[0] != 0 || look[1] != 0) {
+                    camera.rotateHorizontal(look[0] * MOUSE_SENSITIVITY);
+                    camera.rotateVertical(-look[1] * MOUSE_SENSITIVITY);
+                }
+
+                // Run every step that is due, so movement keeps its speed however long frames take
+                lag = Math.min(lag, MAX_LAG);
+                while (lag >= UPDATE_STEP) {
+                    update(UPDATE_STEP);
+                    lag -= UPDATE_STEP;
+                }
+
+                long cameraVersion = camera.getVersion();
+                long sceneVersion = scene.getVersion();
+                if (progressive || cameraVersion != renderedCameraVersion || sceneVersion != renderedSceneVersion) {
+                    renderedCameraVersion = cameraVersion;
+                    renderedSceneVersion = sceneVersion;
+                    renderFrame();
+                }
+            }
+
+            long sleepNanos = frameStart + frameNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    return;
+                }
             }
-            
-            // Add debug overlay
-            addDebugOverlay(img);
-            
-            SwingUtilities.invokeLater(() -> {
-                label.setIcon(new ImageIcon(img));
-            });
-        }).start();
+        }
+    }
+
+    /**
+     * Advance the simulation by one fixed step of dt seconds
+     */
+    private void update(double dt) {
+        double distance = MOVE_SPEED * dt;
+        if (input.isHeld(KeyEvent.VK_W)) camera.moveForward(distance);
+        if (input.isHeld(KeyEvent.VK_S)) camera.moveBackward(distance);
+        if (input.isHeld(KeyEvent.VK_A)) camera.moveLeft(distance);
+        if (input.isHeld(KeyEvent.VK_D)) camera.moveRight(distance);
+    }
+
+    /**
+     * Dim the last frame and show the pause banner
+     */
+    private void showPaused() {
+        display.present(display.getLastFrame(), g -> {
+            g.setColor(new Color(0, 0, 0, 150));
+            g.fillRect(0, 0, display.getWidth(), display.getHeight());
+            g.setColor(Color.WHITE);
+            g.setFont(new Font("Arial", Font.BOLD, 36));
+            g.drawString("PAUSED", display.getWidth() / 2 - 80, display.getHeight() / 2);
+        });
+    }
+
+    private void renderFrame() {
+        stats.beginFrame();
+        long startTime = System.nanoTime();
+
+        // Progressive mode keeps refining the same view at full resolution until the camera moves
+        int width = Math.max(1, display.getWidth());
+        int height = Math.max(1, display.getHeight());
+        if (!progressive) {
+            width = resolution.scaledWidth(width);
+            height = resolution.scaledHeight(height);
+        }
+        renderWidth = width;
+        renderHeight = height;
+        BufferedImage img = progressive
+            ? renderer.renderProgressive(width, height, 1, 1)
+            : renderer.render(width, height);
+
+        // Calculate frame time and FPS
+        long endTime = System.nanoTime();
+        frameTime = (endTime - startTime) / 1_000_000.0; // Convert to milliseconds
+        if (!progressive) {
+            resolution.recordFrame(frameTime);
+        }
+
+        frameCount++;
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - fpsUpdateTime >= 1000) { // Update FPS every second
+            fps = frameCount * 1000.0 / (currentTime - fpsUpdateTime);
+            frameCount = 0;
+            fpsUpdateTime = currentTime;
+        }
+
+        // Upscale to the window and draw the debug overlay at display resolution
+        display.present(img, g -> addDebugOverlay(g, display.getWidth(), display.getHeight()));
+        stats.addTime(RenderStats.Stage.PRESENT, display.getLastPresentNanos());
     }
     
     /**
-     * Add FPS, frame time, position and heading overlay to the rendered image
+     * Start the JSON-lines frame log if the jengine.frameLog property names a file
      */
-    private void addDebugOverlay(BufferedImage img) {
-        Graphics2D g2d = img.createGraphics();
+    private void openFrameLog() {
+        String path = System.getProperty("jengine.frameLog");
+        if (path == null || path.isEmpty()) return;
+        try {
+            stats.setFrameLog(new PrintWriter(new FileWriter(path)));
+        } catch (IOException e) {
+            System.err.println("Could not open frame log " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Add FPS, frame time, position and heading overlay on top of the presented frame
+     */
+    private void addDebugOverlay(Graphics2D g2d, int width, int height) {
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         
         // Set up text properties
@@ -187,7 +301,7 @@ public class MainWindow extends JFrame {
         
         // Create semi-transparent background for better readability
         g2d.setColor(new Color(0, 0, 0, 180));
-        g2d.fillRect(10, 10, 300, 120);
+        g2d.fillRect(10, 10, 340, 230);
         
         // Set text color
         g2d.setColor(Color.WHITE);
@@ -222,12 +336,40 @@ public class MainWindow extends JFrame {
         g2d.drawString(String.format("Pitch: %.1f°", pitch), 15, y);
         y += lineHeight;
         
+        g2d.drawString(String.format("Resolution: %dx%d (%.0f%%)", renderWidth, renderHeight,
+                                     100.0 * renderWidth / Math.max(1, width)), 15, y);
+        y += lineHeight;
+
+        if (progressive) {
+            g2d.drawString(String.format("Samples: %d", renderer.getProgressiveSampleCount()), 15, y);
+            y += lineHeight;
+        }
+
+        // Counters of the last completed frame
+        RenderStats.Frame last = stats.getLastFrame();
+        g2d.drawString(String.format("Rays: %dk pri %dk sec %dk shd",
+                                     last.count(RenderStats.Counter.PRIMARY_RAYS) / 1000,
+                                     last.count(RenderStats.Counter.SECONDARY_RAYS) / 1000,
+                                     last.count(RenderStats.Counter.SHADOW_RAYS) / 1000), 15, y);
+        y += lineHeight;
+
+        g2d.drawString(String.format("Per Ray: %.1f cells, %.2f objects",
+                                     last.perIntersect(RenderStats.Counter.CELLS_TRAVERSED),
+                                     last.perIntersect(RenderStats.Counter.OBJECTS_TESTED)), 15, y);
+        y += lineHeight;
+
+        g2d.drawString(String.format("Render: %.1f ms  Present: %.1f ms",
+                                     last.millis(RenderStats.Stage.RENDER),
+                                     last.millis(RenderStats.Stage.PRESENT)), 15, y);
+        y += lineHeight;
+
+        g2d.drawString(String.format("Throughput: %.2f Mrays/s", last.mraysPerSecond()), 15, y);
+        y += lineHeight;
+
         // Add controls hint
         g2d.setColor(new Color(200, 200, 200));
         g2d.setFont(new Font("Monospaced", Font.PLAIN, 12));
-        g2d.drawString("WASD: Move | Right-click+drag: Look | ESC: Pause", 15, img.getHeight() - 15);
-        
-        g2d.dispose();
+        g2d.drawString("WASD: Move | Right-click+drag: Look | P: Refine | ESC: Pause", 15, height - 15);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,87 @@
+package io.github.jengine;
+
+import java.util.List;
+
+/**
+ * PacketBenchmark compares primary-ray throughput of single-ray grid traversal
+ * against 4x4 packet traversal on a hilly terrain scene.
+ * <p>
+ * Usage: java io.github.jengine.PacketBenchmark [width height iterations]
+ */
+public class PacketBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Scene scene = new Scene();
+        TerrainGenerator terrainGen = new TerrainGenerator(12345L);
+        List<Block> terrain = terrainGen.generateTerrain(-48, 48, -48, 48, 1);
+        scene.addBlocks(terrain);
+        System.out.println(scene.getGridStats());
+
+        Camera camera = new Camera();
+        camera.setPosition(new Vector3(0, 110, 60));
+        camera.setDirection(new Vector3(0, -0.5, -1));
+
+        // Verify both paths agree before timing them
+        int mismatches = 0;
+        RayPacket packet = new RayPacket();
+        for (int tileY = 0; tileY < height; tileY += Renderer.PACKET_TILE) {
+            for (int tileX = 0; tileX < width; tileX += Renderer.PACKET_TILE) {
+                fillPacket(packet, camera, tileX, tileY, width, height);
+                scene.intersect(packet);
+                for (int lane = 0; lane < packet.size(); lane++) {
+                    Intersection single = scene.intersect(packet.getRay(lane));
+                    Intersection bundled = packet.getHit(lane);
+                    if ((single == null) != (bundled == null)
+                            || (single != null && Math.abs(single.distance - bundled.distance) > 1e-9)) {
+                        mismatches++;
+                    }
+                }
+            }
+        }
+        System.out.printf("Mismatched lanes: %d of %d%n", mismatches, width * height);
+
+        for (int round = 0; round < 2; round++) {
+            String label = round == 0 ? "warmup" : "measured";
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        scene.intersect(camera.generateRay(x, y, width, height));
+                    }
+                }
+            }
+            double singleSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (int tileY = 0; tileY < height; tileY += Renderer.PACKET_TILE) {
+                    for (int tileX = 0; tileX < width; tileX += Renderer.PACKET_TILE) {
+                        fillPacket(packet, camera, tileX, tileY, width, height);
+                        scene.intersect(packet);
+                    }
+                }
+            }
+            double packetSeconds = (System.nanoTime() - start) / 1e9;
+
+            double rays = (double) width * height * iterations;
+            System.out.printf("[%s] single: %.2f Mrays/s, packet: %.2f Mrays/s (%.2fx)%n", label,
+                              rays / singleSeconds / 1e6, rays / packetSeconds / 1e6, singleSeconds / packetSeconds);
+        }
+    }
+
+    private static void fillPacket(RayPacket packet, Camera camera, int tileX, int tileY, int width, int height) {
+        int tileW = Math.min(Renderer.PACKET_TILE, width - tileX);
+        int tileH = Math.min(Renderer.PACKET_TILE, height - tileY);
+        packet.clear();
+        for (int y = 0; y < tileH; y++) {
+            for (int x = 0; x < tileW; x++) {
+                packet.add(camera.generateRay(tileX + x, tileY + y, width, height));
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.jengine;
+
+/**
+ * PrimaryRays is a table of a camera's primary ray directions through every
+ * pixel center of a width x height image, in row-major structure-of-arrays form.
+ * <p>
+ * The table is filled once per frame from the camera basis and field of view,
+ * so generating a primary ray is three array loads instead of a tangent, vector
+ * arithmetic and two normalizations per pixel. Directions do not depend on the
+ * camera position, so {@link Camera#getPrimaryRays} keeps the table while the
+ * camera only moves (e.g. strafing) and rebuilds it when it turns or zooms.
+ */
+public final class PrimaryRays {
+    public final int width, height;
+    public final Vector3 origin;
+    final double[] dirX, dirY, dirZ;
+    // Camera basis version the directions were computed for
+    final long basisVersion;
+
+    PrimaryRays(Vector3 origin, Vector3 forward, Vector3 right, Vector3 up, double fov,
+                int width, int height, long basisVersion) {
+        this.width = width;
+        this.height = height;
+        this.origin = origin;
+        this.basisVersion = basisVersion;
+        int count = width * height;
+        dirX = new double[count];
+        dirY = new double[count];
+        dirZ = new double[count];
+
+        // Same arithmetic as Camera.generateRay followed by the normalization in Ray, so the
+        // directions are bit-identical to rays generated one at a time
+        double tan = Math.tan(fov / 2);
+        double aspect = (double) width / height;
+        double[] rightX = new double[width], rightY = new double[width], rightZ = new double[width];
+        for (int x = 0; x < width; x++) {
+            double px = (2 * ((x + 0.5) / width) - 1) * tan * aspect;
+            rightX[x] = forward.x + right.x * px;
+            rightY[x] = forward.y + right.y * px;
+            rightZ[x] = forward.z + right.z * px;
+        }
+        for (int y = 0; y < height; y++) {
+            double py = (1 - 2 * ((y + 0.5) / height)) * tan;
+            double upX = up.x * py, upY = up.y * py, upZ = up.z * py;
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                double dx = rightX[x] + upX, dy = rightY[x] + upY, dz = rightZ[x] + upZ;
+                double len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                dx /= len;
+                dy /= len;
+                dz /= len;
+                len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                dirX[i] = dx / len;
+                dirY[i] = dy / len;
+                dirZ[i] = dz / len;
+            }
+        }
+    }
+
+    private PrimaryRays(PrimaryRays directions, Vector3 origin) {
+        this.width = directions.width;
+        this.height = directions.height;
+        this.origin = origin;
+        this.basisVersion = directions.basisVersion;
+        this.dirX = directions.dirX;
+        this.dirY = directions.dirY;
+        this.dirZ = directions.dirZ;
+    }
+
+    /**
+     * The same directions from another origin
+     */
+    PrimaryRays from(Vector3 origin) {
+        return new PrimaryRays(this, origin);
+    }
+
+    /**
+     * Primary ray through the center of pixel (x, y)
+     */
+    public Ray ray(int x, int y) {
+        return ray(y * width + x);
+    }
+
+    /**
+     * Primary ray through the center of the pixel at row-major index i
+     */
+    public Ray ray(int i) {
+        return new Ray(origin, dirX[i], dirY[i], dirZ[i]);
+    }
+}
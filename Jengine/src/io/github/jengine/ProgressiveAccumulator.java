@@ -0,0 +1,83 @@
+package io.github.jengine;
+
+import java.util.Arrays;
+
+/**
+ * ProgressiveAccumulator sums jittered samples per pixel in a float radiance
+ * buffer and serves the running mean.
+ * <p>
+ * While neither the camera nor the scene changes, every pass adds more samples
+ * and the image converges (soft shadows, anti-aliased edges, optional diffuse
+ * bounces). Any change to the camera, the scene or the resolution clears the
+ * buffer and accumulation starts over.
+ */
+public class ProgressiveAccumulator {
+    private int width, height;
+    private long sceneVersion = -1;
+    private long cameraVersion = -1;
+    private float[] sumR = new float[0], sumG = new float[0], sumB = new float[0];
+    private int samples;
+
+    /**
+     * Start a pass; clears the buffer if anything it was accumulated against changed.
+     * Returns true if the buffer was cleared.
+     */
+    public boolean beginPass(int width, int height, long sceneVersion, long cameraVersion) {
+        if (width == this.width && height == this.height
+                && sceneVersion == this.sceneVersion && cameraVersion == this.cameraVersion) {
+            return false;
+        }
+
+        this.width = width;
+        this.height = height;
+        this.sceneVersion = sceneVersion;
+        this.cameraVersion = cameraVersion;
+        int size = width * height;
+        if (sumR.length != size) {
+            sumR = new float[size];
+            sumG = new float[size];
+            sumB = new float[size];
+        } else {
+            Arrays.fill(sumR, 0);
+            Arrays.fill(sumG, 0);
+            Arrays.fill(sumB, 0);
+        }
+        samples = 0;
+        return true;
+    }
+
+    /**
+     * Add one packed RGB sample to a pixel
+     */
+    public void add(int index, int rgb) {
+        sumR[index] += (rgb >> 16) & 0xFF;
+        sumG[index] += (rgb >> 8) & 0xFF;
+        sumB[index] += rgb & 0xFF;
+    }
+
+    /**
+     * Record that every pixel received this many more samples
+     */
+    public void endPass(int samplesPerPixel) {
+        samples += samplesPerPixel;
+    }
+
+    /**
+     * Running mean of a pixel as packed RGB
+     */
+    public int mean(int index) {
+        if (samples == 0) return 0;
+        float scale = 1.0f / samples;
+        int r = Math.min(255, Math.round(sumR[index] * scale));
+        int g = Math.min(255, Math.round(sumG[index] * scale));
+        int b = Math.min(255, Math.round(sumB[index] * scale));
+        return (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Samples per pixel accumulated so far
+     */
+    public int getSampleCount() {
+        return samples;
+    }
+}
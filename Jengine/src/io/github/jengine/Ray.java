@@ -11,4 +11,12 @@ public class Ray {
         this.origin = origin;
         this.direction = direction.normalize();
     }
+
+    /**
+     * Ray with a direction that is already unit length, kept as given
+     */
+    Ray(Vector3 origin, double dx, double dy, double dz) {
+        this.origin = origin;
+        this.direction = new Vector3(dx, dy, dz);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package io.github.jengine;
+
+/**
+ * RayPacket bundles up to 16 coherent rays (e.g. a 4x4 tile of primary rays)
+ * so they can walk the voxel grid together.
+ * <p>
+ * Besides the rays and their results, the packet carries the per-lane scratch
+ * state used by {@link UnitGrid#intersect(RayPacket)}, so a packet can be
+ * reused for every tile without allocating.
+ */
+public class RayPacket {
+    public static final int MAX_LANES = 16;
+    // Meshed chunks remembered per lane; a lane's footprint touches at most four chunks at once
+    static final int MESH_MEMORY = 4;
+
+    final Ray[] rays = new Ray[MAX_LANES];
+    final Intersection[] hits = new Intersection[MAX_LANES];
+    private int size;
+
+    // Traversal scratch state, one entry per lane
+    final boolean[] active = new boolean[MAX_LANES];
+    final boolean[] inSlice = new boolean[MAX_LANES];
+    final double[] tEnter = new double[MAX_LANES];
+    final double[] tExit = new double[MAX_LANES];
+    final double[] originK = new double[MAX_LANES], invDirK = new double[MAX_LANES];
+    final double[] originU = new double[MAX_LANES], dirU = new double[MAX_LANES];
+    final double[] originV = new double[MAX_LANES], dirV = new double[MAX_LANES];
+    final int[] uMin = new int[MAX_LANES], uMax = new int[MAX_LANES];
+    final int[] vMin = new int[MAX_LANES], vMax = new int[MAX_LANES];
+    final double[] tSliceEnd = new double[MAX_LANES];
+    // Union of the lanes' cell ranges in the current slices: u min, u max, v min, v max
+    final int[] footprint = new int[4];
+    // Keys of the last meshed chunks each lane was intersected with, and how many it has met
+    final long[] meshChunks = new long[MAX_LANES * MESH_MEMORY];
+    final int[] meshChunkCount = new int[MAX_LANES];
+    final double[] range = new double[2];
+
+    /**
+     * Add a ray as the next lane
+     */
+    public void add(Ray ray) {
+        if (size == MAX_LANES) {
+            throw new IllegalStateException("Packet is full (" + MAX_LANES + " lanes)");
+        }
+        rays[size] = ray;
+        hits[size] = null;
+        size++;
+    }
+
+    public Ray getRay(int lane) {
+        return rays[lane];
+    }
+
+    /**
+     * Closest hit for a lane after intersection, or null for a miss
+     */
+    public Intersection getHit(int lane) {
+        return hits[lane];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            rays[i] = null;
+            hits[i] = null;
+        }
+        size = 0;
+    }
+}
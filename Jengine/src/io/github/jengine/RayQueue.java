@@ -0,0 +1,119 @@
+package io.github.jengine;
+
+import java.util.Arrays;
+
+/**
+ * RayQueue stores a batch of rays of one kind in structure-of-arrays form.
+ * <p>
+ * Each entry has an origin, a direction, a maximum distance, a throughput
+ * weight and an owner index that links the ray back to whatever spawned it
+ * (a pixel, a parent hit or a light sample slot). Queues grow on demand and are reused across
+ * frames by calling {@link #clear()}.
+ */
+public class RayQueue {
+    double[] originX, originY, originZ;
+    double[] dirX, dirY, dirZ;
+    double[] maxDistance;
+    double[] weight;
+    int[] owner;
+    private int size;
+
+    public RayQueue(int capacity) {
+        capacity = Math.max(16, capacity);
+        originX = new double[capacity];
+        originY = new double[capacity];
+        originZ = new double[capacity];
+        dirX = new double[capacity];
+        dirY = new double[capacity];
+        dirZ = new double[capacity];
+        maxDistance = new double[capacity];
+        weight = new double[capacity];
+        owner = new int[capacity];
+    }
+
+    /**
+     * Append a ray and return its index in the queue
+     */
+    public int add(Vector3 origin, Vector3 direction, double maxDist, int ownerIndex) {
+        return add(origin, direction, maxDist, 1.0, ownerIndex);
+    }
+
+    /**
+     * Append a ray with a throughput weight and return its index in the queue
+     */
+    public int add(Vector3 origin, Vector3 direction, double maxDist, double throughput, int ownerIndex) {
+        if (size == owner.length) {
+            grow();
+        }
+        int i = size++;
+        originX[i] = origin.x;
+        originY[i] = origin.y;
+        originZ[i] = origin.z;
+        dirX[i] = direction.x;
+        dirY[i] = direction.y;
+        dirZ[i] = direction.z;
+        maxDistance[i] = maxDist;
+        weight[i] = throughput;
+        owner[i] = ownerIndex;
+        return i;
+    }
+
+    /**
+     * Append every primary ray of a frame, owned by its pixel index
+     */
+    public void addAll(PrimaryRays rays, double maxDist) {
+        int count = rays.width * rays.height;
+        while (owner.length < size + count) {
+            grow();
+        }
+        Vector3 origin = rays.origin;
+        for (int p = 0, i = size; p < count; p++, i++) {
+            originX[i] = origin.x;
+            originY[i] = origin.y;
+            originZ[i] = origin.z;
+            dirX[i] = rays.dirX[p];
+            dirY[i] = rays.dirY[p];
+            dirZ[i] = rays.dirZ[p];
+            maxDistance[i] = maxDist;
+            weight[i] = 1.0;
+            owner[i] = p;
+        }
+        size += count;
+    }
+
+    /**
+     * Build a Ray object for the entry at the given index
+     */
+    public Ray toRay(int i) {
+        return new Ray(new Vector3(originX[i], originY[i], originZ[i]),
+                       new Vector3(dirX[i], dirY[i], dirZ[i]));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all rays while keeping the allocated storage
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = owner.length * 2;
+        originX = Arrays.copyOf(originX, capacity);
+        originY = Arrays.copyOf(originY, capacity);
+        originZ = Arrays.copyOf(originZ, capacity);
+        dirX = Arrays.copyOf(dirX, capacity);
+        dirY = Arrays.copyOf(dirY, capacity);
+        dirZ = Arrays.copyOf(dirZ, capacity);
+        maxDistance = Arrays.copyOf(maxDistance, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+        owner = Arrays.copyOf(owner, capacity);
+    }
+}
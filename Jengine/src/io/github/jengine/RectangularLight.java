@@ -29,6 +29,7 @@ public class RectangularLight extends Renderable {
     public Color calculateLighting(Vector3 point, Vector3 normal, Material material, Scene scene, int samples) {
         double totalR = 0, totalG = 0, totalB = 0;
         int validSamples = 0;
+        scene.getStats().add(RenderStats.Counter.SHADOW_RAYS, samples);
         
         // Sample multiple points on the light surface for soft shadows
         for (int i = 0; i < samples; i++) {
@@ -36,22 +37,10 @@ public class RectangularLight extends Renderable {
             Vector3 lightDir = lightPoint.subtract(point).normalize();
             double distance = lightPoint.subtract(point).length();
             
-            // Check if the light ray is blocked (shadow test)
+            // Check if the light ray is blocked (shadow test); the light's own surface is not an obstruction
             Ray shadowRay = new Ray(point.add(normal.multiply(0.001)), lightDir);
-            Intersection shadowHit = scene.intersect(shadowRay);
-            
-            // If no obstruction or obstruction is farther than light
-            if (shadowHit == null || shadowHit.distance > distance) {
-                // Calculate attenuation based on distance
-                double attenuation = 1.0 / (1.0 + 0.05 * distance + 0.005 * distance * distance);
-                
-                // Calculate diffuse lighting (Lambert's cosine law)
-                double diffuse = Math.max(0, normal.dot(lightDir));
-                
-                // Calculate area light falloff (closer to center = brighter)
-                double areaFalloff = calculateAreaFalloff(lightPoint);
-                
-                double lightContribution = diffuse * intensity * attenuation * areaFalloff;
+            if (!scene.isOccluded(shadowRay, distance, this)) {
+                double lightContribution = sampleContribution(normal, lightPoint, lightDir, distance);
                 
                 totalR += material.color.getRed() * lightContribution * color.getRed() / 255.0;
                 totalG += material.color.getGreen() * lightContribution * color.getGreen() / 255.0;
@@ -71,10 +60,33 @@ public class RectangularLight extends Renderable {
         return new Color(r, g, b);
     }
     
+    /**
+     * Unshadowed contribution of a single light sample at a surface point
+     */
+    double sampleContribution(Vector3 normal, Vector3 lightPoint, Vector3 lightDir, double distance) {
+        // Calculate attenuation based on distance
+        double attenuation = 1.0 / (1.0 + 0.05 * distance + 0.005 * distance * distance);
+        
+        // Calculate diffuse lighting (Lambert's cosine law)
+        double diffuse = Math.max(0, normal.dot(lightDir));
+        
+        // Calculate area light falloff (closer to center = brighter)
+        double areaFalloff = calculateAreaFalloff(lightPoint);
+        
+        return diffuse * intensity * attenuation * areaFalloff;
+    }
+    
+    /**
+     * Reseed the surface sampler so soft shadows come out identical between runs
+     */
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+    
     /**
      * Sample a random point on the light's surface
      */
-    private Vector3 sampleLightSurface() {
+    Vector3 sampleLightSurface() {
         double x = position.x + (random.nextDouble() - 0.5) * size.x;
         double y = position.y + (random.nextDouble() - 0.5) * size.y;
         double z = position.z + (random.nextDouble() - 0.5) * size.z;
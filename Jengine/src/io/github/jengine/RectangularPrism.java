@@ -18,80 +18,90 @@ public class RectangularPrism extends Renderable {
      * Optimized ray-box intersection with backface culling
      */
     public Intersection intersect(Ray ray) {
-        Vector3 halfSize = size.multiply(0.5);
-        Vector3 min = position.subtract(halfSize);
-        Vector3 max = position.add(halfSize);
+        return intersect(ray, BlockFace.ALL);
+    }
+    
+    /**
+     * Ray-box intersection that only accepts hits on front faces whose bit is set
+     * in faceMask (see {@link BlockFace#bit()}). The grid passes the faces that
+     * are not buried against a neighbouring block, so grazing rays along a seam
+     * cannot hit the internal faces between two blocks.
+     */
+    public Intersection intersect(Ray ray, int faceMask) {
+        return intersect(ray, position.x, position.y, position.z, size.x * 0.5, size.y * 0.5, size.z * 0.5,
+                         faceMask, this);
+    }
+    
+    /**
+     * Front-face hit on the faces in faceMask of the box with the given center and
+     * half sizes, reported as a hit on object. Lets the grid test blocks it stores
+     * by id without creating them.
+     */
+    static Intersection intersect(Ray ray, double centerX, double centerY, double centerZ,
+                                  double halfX, double halfY, double halfZ, int faceMask, Renderable object) {
+        if (faceMask == 0) return null;
         
         double tNear = Double.NEGATIVE_INFINITY;
         double tFar = Double.POSITIVE_INFINITY;
-        Vector3 hitNormal = null;
+        int entryAxis = -1;
         
         // Check each axis (X, Y, Z)
         for (int axis = 0; axis < 3; axis++) {
             double rayDir = getRayComponent(ray.direction, axis);
             double rayOrigin = getRayComponent(ray.origin, axis);
-            double boxMin = getRayComponent(min, axis);
-            double boxMax = getRayComponent(max, axis);
+            double center = axis == 0 ? centerX : (axis == 1 ? centerY : centerZ);
+            double half = axis == 0 ? halfX : (axis == 1 ? halfY : halfZ);
             
             if (Math.abs(rayDir) < 1e-8) {
                 // Ray is parallel to the slab
-                if (rayOrigin < boxMin || rayOrigin > boxMax) {
+                if (rayOrigin < center - half || rayOrigin > center + half) {
                     return null; // Ray misses the box
                 }
-            } else {
-                double t1 = (boxMin - rayOrigin) / rayDir;
-                double t2 = (boxMax - rayOrigin) / rayDir;
+                continue;
+            }
                 
-                Vector3 normal1 = createNormal(axis, rayDir > 0 ? -1 : 1);
-                Vector3 normal2 = createNormal(axis, rayDir > 0 ? 1 : -1);
+            double t1 = (center - half - rayOrigin) / rayDir;
+            double t2 = (center + half - rayOrigin) / rayDir;
+            if (t1 > t2) {
+                double temp = t1;
+                t1 = t2;
+                t2 = temp;
+            }
                 
-                if (t1 > t2) {
-                    // Swap t1 and t2
-                    double temp = t1;
-                    t1 = t2;
-                    t2 = temp;
+            // Update tNear (entry point) and tFar (exit point)
+            if (t1 > tNear) {
+                tNear = t1;
+                entryAxis = axis;
+            }
+            if (t2 < tFar) {
+                tFar = t2;
+            }
                     
-                    // Swap normals
-                    Vector3 tempNormal = normal1;
-                    normal1 = normal2;
-                    normal2 = tempNormal;
-                }
-                
-                // Update tNear (entry point)
-                if (t1 > tNear) {
-                    tNear = t1;
-                    // Only consider front faces (backface culling optimization)
-                    if (rayDir * getRayComponent(normal1, axis) < 0) {
-                        hitNormal = normal1;
-                    }
-                }
-                
-                // Update tFar (exit point)
-                if (t2 < tFar) {
-                    tFar = t2;
-                }
-                
-                // Early exit if no intersection possible
-                if (tNear > tFar || tFar < 0) {
-                    return null;
-                }
+            // Early exit if no intersection possible
+            if (tNear > tFar || tFar < 0) {
+                return null;
             }
         }
         
-        // Choose the appropriate intersection point
-        double t = (tNear > 0) ? tNear : tFar;
-        if (t < 0 || hitNormal == null) {
-            return null; // No valid front-facing intersection
+        // Only front faces are hit, so rays starting inside the box pass through it
+        if (entryAxis < 0 || tNear <= 0) {
+            return null;
+        }
+        
+        // The entry face faces against the ray
+        BlockFace face = BlockFace.of(entryAxis, getRayComponent(ray.direction, entryAxis) > 0 ? -1 : 1);
+        if ((faceMask & face.bit()) == 0) {
+            return null; // Buried face
         }
         
-        Vector3 hitPoint = ray.origin.add(ray.direction.multiply(t));
-        return new Intersection(t, hitPoint, hitNormal, this);
+        Vector3 hitPoint = ray.origin.add(ray.direction.multiply(tNear));
+        return new Intersection(tNear, hitPoint, face.getNormal(), object);
     }
     
     /**
      * Get the component of a vector for a given axis (0=x, 1=y, 2=z)
      */
-    private double getRayComponent(Vector3 vector, int axis) {
+    private static double getRayComponent(Vector3 vector, int axis) {
         switch (axis) {
             case 0: return vector.x;
             case 1: return vector.y;
@@ -99,17 +109,5 @@ public class RectangularPrism extends Renderable {
             default: throw new IllegalArgumentException("Invalid axis: " + axis);
         }
     }
-    
-    /**
-     * Create a normal vector for a given axis and direction
-     */
-    private Vector3 createNormal(int axis, int direction) {
-        switch (axis) {
-            case 0: return new Vector3(direction, 0, 0);
-            case 1: return new Vector3(0, direction, 0);
-            case 2: return new Vector3(0, 0, direction);
-            default: throw new IllegalArgumentException("Invalid axis: " + axis);
-        }
-    }
 }
 
@@ -0,0 +1,254 @@
+package io.github.jengine;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import javax.imageio.ImageIO;
+
+/**
+ * RegressionSuite renders a fixed set of seeded scenes headlessly and checks
+ * both image quality and speed against stored references.
+ * <p>
+ * Every scene is compared pixel by pixel to its reference PNG; a pixel is bad
+ * when any channel differs by more than the tolerance, and the scene fails if
+ * too many pixels are bad. Throughput (Mrays/s) and frame time are compared to
+ * a baseline file, and the scene fails if throughput drops by more than the
+ * allowed fraction. Missing references and baselines are recorded on first run
+ * (the baseline is machine specific, so each machine keeps its own), and
+ * --update re-records both after an intended change.
+ * <p>
+ * References are rendered with the recursive renderer and light sampling seeded
+ * per frame, so the output is deterministic.
+ * <p>
+ * Usage: java io.github.jengine.RegressionSuite [--update] [directory]
+ * <br>Exits with status 1 if any scene fails.
+ */
+public class RegressionSuite {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final int WARMUP_FRAMES = 2;
+    private static final int TIMED_FRAMES = 10;
+
+    // Quality: largest per-channel difference that is still a match, and the share of pixels allowed to exceed it
+    private static final int PIXEL_TOLERANCE = 3;
+    private static final double MAX_BAD_PIXELS = 0.002;
+    // Speed: largest allowed throughput drop relative to the baseline
+    private static final double MAX_SLOWDOWN = 0.15;
+
+    private static final String BASELINE_FILE = "baseline.properties";
+
+    public static void main(String[] args) throws IOException {
+        boolean update = false;
+        File directory = new File("golden");
+        for (String arg : args) {
+            if (arg.equals("--update")) {
+                update = true;
+            } else {
+                directory = new File(arg);
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        File baselineFile = new File(directory, BASELINE_FILE);
+        Properties baseline = new Properties();
+        if (baselineFile.exists()) {
+            try (Reader reader = new FileReader(baselineFile)) {
+                baseline.load(reader);
+            }
+        }
+        boolean baselineChanged = false;
+
+        int failures = 0;
+        for (TestScene test : scenes()) {
+            Result result = run(test);
+            File referenceFile = new File(directory, test.name + ".png");
+            List<String> problems = new ArrayList<>();
+
+            // Quality
+            String quality;
+            if (update || !referenceFile.exists()) {
+                ImageIO.write(result.image, "png", referenceFile);
+                quality = "reference recorded";
+            } else {
+                BufferedImage reference = ImageIO.read(referenceFile);
+                double badShare = compare(reference, result.image);
+                quality = String.format("%.3f%% pixels off", badShare * 100);
+                if (badShare > MAX_BAD_PIXELS) {
+                    problems.add("image drifted from reference");
+                }
+            }
+
+            // Speed
+            String mraysKey = test.name + ".mraysPerSecond";
+            String speed;
+            if (update || baseline.getProperty(mraysKey) == null) {
+                baseline.setProperty(mraysKey, String.format("%.4f", result.mraysPerSecond));
+                baseline.setProperty(test.name + ".frameMillis", String.format("%.3f", result.frameMillis));
+                baselineChanged = true;
+                speed = "baseline recorded";
+            } else {
+                double expected = Double.parseDouble(baseline.getProperty(mraysKey));
+                double change = result.mraysPerSecond / expected - 1;
+                speed = String.format("%+.1f%% vs baseline %.3f", change * 100, expected);
+                if (change < -MAX_SLOWDOWN) {
+                    problems.add("throughput dropped");
+                }
+            }
+
+            System.out.printf("%-8s %7.3f Mrays/s %8.2f ms  %-22s %-28s %s%n", test.name,
+                              result.mraysPerSecond, result.frameMillis, quality, speed,
+                              problems.isEmpty() ? "OK" : "FAIL: " + String.join(", ", problems));
+            if (!problems.isEmpty()) failures++;
+        }
+
+        if (baselineChanged) {
+            try (Writer writer = new FileWriter(baselineFile)) {
+                baseline.store(writer, "RegressionSuite baseline (" + WIDTH + "x" + HEIGHT + ")");
+            }
+        }
+
+        System.out.println(failures == 0 ? "All scenes passed" : failures + " scene(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Render a scene a few times and keep the last image with the average timing
+     */
+    private static Result run(TestScene test) {
+        Renderer renderer = new Renderer(test.scene, test.camera);
+        RenderStats stats = test.scene.getStats();
+
+        BufferedImage image = null;
+        long rays = 0;
+        long nanos = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + TIMED_FRAMES; frame++) {
+            seedLights(test.scene);
+            stats.beginFrame();
+            image = renderer.render(WIDTH, HEIGHT);
+            stats.endFrame();
+
+            if (frame >= WARMUP_FRAMES) {
+                RenderStats.Frame last = stats.getLastFrame();
+                rays += last.rays();
+                nanos += (long) (last.millis(RenderStats.Stage.RENDER) * 1e6);
+            }
+        }
+
+        double frameMillis = nanos / 1e6 / TIMED_FRAMES;
+        double mraysPerSecond = nanos > 0 ? rays * 1e3 / nanos : 0;
+        return new Result(image, mraysPerSecond, frameMillis);
+    }
+
+    private static void seedLights(Scene scene) {
+        List<UnitLight> lights = scene.getLights();
+        for (int i = 0; i < lights.size(); i++) {
+            lights.get(i).setSeed(1000L + i);
+        }
+    }
+
+    /**
+     * Share of pixels where any channel differs by more than the tolerance
+     */
+    private static double compare(BufferedImage reference, BufferedImage image) {
+        if (reference.getWidth() != image.getWidth() || reference.getHeight() != image.getHeight()) {
+            return 1;
+        }
+        int bad = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int a = reference.getRGB(x, y);
+                int b = image.getRGB(x, y);
+                int dr = Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF));
+                int dg = Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF));
+                int db = Math.abs((a & 0xFF) - (b & 0xFF));
+                if (Math.max(dr, Math.max(dg, db)) > PIXEL_TOLERANCE) {
+                    bad++;
+                }
+            }
+        }
+        return (double) bad / (image.getWidth() * image.getHeight());
+    }
+
+    /**
+     * The canonical scenes: flat ground, hilly terrain, mirror and glass spheres, many lights
+     */
+    private static List<TestScene> scenes() {
+        List<TestScene> scenes = new ArrayList<>();
+
+        // Flat terrain as in MainWindow, lit from just behind the camera
+        Scene flat = new Scene();
+        flat.addBlocks(new TerrainGenerator(12345L).generateFlatTerrain(-10, 10, -10, 10));
+        flat.addUnitLight(new UnitLight(0, 7, 8, new Color(255, 255, 200), 10.0));
+        scenes.add(new TestScene("flat", flat, camera(new Vector3(0, 5, 5), new Vector3(0, -0.3, -1))));
+
+        // Hilly noise terrain seen from above, lit from above the near slopes
+        Scene hills = new Scene();
+        hills.addBlocks(new TerrainGenerator(12345L).generateTerrain(-24, 24, -24, 24, 1));
+        hills.addUnitLight(new UnitLight(0, 95, 30, new Color(255, 255, 200), 30.0));
+        scenes.add(new TestScene("hills", hills, camera(new Vector3(0, 90, 45), new Vector3(0, -0.5, -1))));
+
+        // Mirror and glass spheres on flat ground
+        Scene spheres = new Scene();
+        spheres.addBlocks(new TerrainGenerator(12345L).generateFlatTerrain(-10, 10, -10, 10));
+        spheres.addUnitSphere(new UnitSphere(-1, 1, 0, new Material(new Color(230, 230, 230), 0.9, 0, 1)));
+        spheres.addUnitSphere(new UnitSphere(1, 1, 0, new Material(new Color(200, 220, 255), 0.1, 0.85, 1.5)));
+        spheres.addUnitLight(new UnitLight(0, 8, 4, Color.WHITE, 2.0));
+        scenes.add(new TestScene("spheres", spheres, camera(new Vector3(0, 2, 4), new Vector3(0, -0.2, -1))));
+
+        // A ring of colored lights
+        Scene lights = new Scene();
+        lights.addBlocks(new TerrainGenerator(12345L).generateFlatTerrain(-10, 10, -10, 10));
+        for (int i = 0; i < 8; i++) {
+            double angle = i * Math.PI / 4;
+            Color color = Color.getHSBColor(i / 8f, 0.6f, 1f);
+            lights.addUnitLight(new UnitLight((int) Math.round(6 * Math.cos(angle)), 4,
+                                              (int) Math.round(6 * Math.sin(angle)), color, 0.8));
+        }
+        scenes.add(new TestScene("lights", lights, camera(new Vector3(0, 8, 10), new Vector3(0, -0.6, -1))));
+
+        return scenes;
+    }
+
+    private static Camera camera(Vector3 position, Vector3 direction) {
+        Camera camera = new Camera();
+        camera.setPosition(position);
+        camera.setDirection(direction);
+        return camera;
+    }
+
+    private static class TestScene {
+        final String name;
+        final Scene scene;
+        final Camera camera;
+
+        TestScene(String name, Scene scene, Camera camera) {
+            this.name = name;
+            this.scene = scene;
+            this.camera = camera;
+        }
+    }
+
+    private static class Result {
+        final BufferedImage image;
+        final double mraysPerSecond;
+        final double frameMillis;
+
+        Result(BufferedImage image, double mraysPerSecond, double frameMillis) {
+            this.image = image;
+            this.mraysPerSecond = mraysPerSecond;
+            this.frameMillis = frameMillis;
+        }
+    }
+}
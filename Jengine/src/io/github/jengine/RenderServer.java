@@ -0,0 +1,568 @@
+package io.github.jengine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+
+/**
+ * RenderServer renders views of one scene on request over HTTP, from a single
+ * warm JVM.
+ * <p>
+ * Requests name a camera pose and resolution. They queue for a dispatcher
+ * thread, which collects everything that arrives within a short window into a
+ * batch, renders identical poses only once, and traces all images of the batch
+ * together in row bands on the shared parallel pool, so many small thumbnails
+ * keep every core busy. Finished frames are kept in a small LRU cache by pose
+ * until the scene changes.
+ * <p>
+ * The server has no authentication and only listens on the loopback interface.
+ * Admission is bounded: requests beyond the render queue's capacity get 503, as
+ * do requests still waiting when the server closes, and connections beyond what
+ * the request threads and their backlog can take are closed unanswered.
+ * <p>
+ * Endpoints:
+ * <br>{@code GET /render?x=&y=&z=&dx=&dy=&dz=[&fov=60][&width=160][&height=120][&format=png|raw]}
+ * returns a PNG, or for {@code raw} the frame as 8-bit RGB rows with its size in
+ * the X-Width and X-Height headers.
+ * <br>{@code GET /metrics} returns request, cache, rejection, batch, throughput and
+ * queue-latency counters as JSON.
+ * <p>
+ * Usage: java io.github.jengine.RenderServer [--port N] [--cache N] [scene script]
+ * <br>The scene script is a {@link SceneScript} file; without one a small demo scene is served.
+ */
+public class RenderServer implements Closeable {
+    public static final int DEFAULT_PORT = 8765;
+    public static final int DEFAULT_CACHE_SIZE = 64;
+    // Largest number of requests rendered together, and how long the first one waits for company
+    private static final int MAX_BATCH = 32;
+    private static final long BATCH_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    // Rows traced per parallel task
+    private static final int BAND_HEIGHT = 8;
+    private static final int MAX_DIMENSION = 4096;
+    // Most pixels requested by one batch, which holds a framebuffer and an image per pose; a batch
+    // always takes its first request, and MAX_DIMENSION squared lets that one be of any size
+    private static final long MAX_BATCH_PIXELS = (long) MAX_DIMENSION * MAX_DIMENSION;
+    // Requests waiting for a batch. Request threads block while their render is queued or in a batch,
+    // so there are enough of them to answer 503 quickly once the queue is full
+    private static final int MAX_QUEUED = 2 * MAX_BATCH;
+    private static final int MAX_HANDLERS = MAX_QUEUED + 2 * MAX_BATCH;
+    // Connections waiting for a request thread; the server closes any beyond these
+    private static final int MAX_PENDING_EXCHANGES = 256;
+
+    private final Scene scene;
+    private final HttpServer http;
+    private final ThreadPoolExecutor handlers;
+    private final BlockingQueue<Job> queue = new ArrayBlockingQueue<>(MAX_QUEUED);
+    private final Thread dispatcher;
+    private final Map<Pose, CachedFrame> cache;
+    private volatile TraceSettings traceSettings = TraceSettings.DEFAULT;
+    private volatile boolean closed;
+
+    // Metrics since start
+    private final long startNanos = System.nanoTime();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedRequests = new LongAdder();
+    private final LongAdder framesRendered = new LongAdder();
+    private final LongAdder pixelsRendered = new LongAdder();
+    private final LongAdder renderNanos = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    /**
+     * Create a server for a scene on a loopback port (0 picks a free one); call {@link #start()} to serve
+     */
+    public RenderServer(Scene scene, int port, int cacheSize) throws IOException {
+        this.scene = scene;
+        this.cache = new LinkedHashMap<Pose, CachedFrame>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Pose, CachedFrame> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.handlers = new ThreadPoolExecutor(MAX_HANDLERS, MAX_HANDLERS, 60, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<>(MAX_PENDING_EXCHANGES), runnable -> {
+            Thread thread = new Thread(runnable, "RenderServer-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+        handlers.allowCoreThreadTimeOut(true);
+        this.http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.setExecutor(handlers);
+        http.createContext("/render", this::handleRender);
+        http.createContext("/metrics", this::handleMetrics);
+        this.dispatcher = new Thread(this::dispatch, "RenderServer-dispatcher");
+        dispatcher.setDaemon(true);
+    }
+
+    public void start() {
+        dispatcher.start();
+        http.start();
+    }
+
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    public void setTraceSettings(TraceSettings traceSettings) {
+        this.traceSettings = traceSettings;
+    }
+
+    /**
+     * Render a pose, from the cache if the scene has not changed since it was last rendered,
+     * otherwise in the next batch
+     *
+     * @throws RejectedExecutionException if the render queue is full, or the server closes before the pose is rendered
+     */
+    public BufferedImage render(Pose pose) throws InterruptedException {
+        return renderCached(pose).image;
+    }
+
+    private CachedFrame renderCached(Pose pose) throws InterruptedException {
+        requests.increment();
+        CachedFrame cached = lookup(pose);
+        if (cached != null) {
+            cacheHits.increment();
+            return cached;
+        }
+        Job job = new Job(pose);
+        if (closed || !queue.offer(job)) {
+            rejected.increment();
+            throw new RejectedExecutionException(closed ? "Server is closed" : "Render queue is full");
+        }
+        if (closed) {
+            // close() may have drained the queue before this job went in
+            job.result.cancel(false);
+        }
+        try {
+            return job.result.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Render failed", e.getCause());
+        } catch (CancellationException e) {
+            throw new RejectedExecutionException("Server closed before the render finished", e);
+        }
+    }
+
+    private CachedFrame lookup(Pose pose) {
+        synchronized (cache) {
+            CachedFrame cached = cache.get(pose);
+            return cached != null && cached.sceneVersion == scene.getVersion() ? cached : null;
+        }
+    }
+
+    /**
+     * Collect requests into batches and render them until the server closes
+     */
+    private void dispatch() {
+        List<Job> batch = new ArrayList<>();
+        // A request that did not fit the pixel budget of the previous batch starts the next one
+        Job carried = null;
+        try {
+            while (true) {
+                Job first = carried != null ? carried : queue.take();
+                carried = null;
+                batch.add(first);
+                long pixels = first.pose.pixels();
+                long deadline = System.nanoTime() + BATCH_WINDOW_NANOS;
+                while (batch.size() < MAX_BATCH) {
+                    Job job = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (job == null) break;
+                    if (pixels + job.pose.pixels() > MAX_BATCH_PIXELS) {
+                        carried = job;
+                        break;
+                    }
+                    batch.add(job);
+                    pixels += job.pose.pixels();
+                }
+                try {
+                    renderBatch(batch);
+                } catch (Throwable e) {
+                    // Errors too (e.g. OutOfMemoryError): the dispatcher must outlive a failed batch,
+                    // or every later request would wait forever
+                    for (Job job : batch) {
+                        job.result.completeExceptionally(e);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            for (Job job : batch) {
+                job.result.cancel(false);
+            }
+            if (carried != null) {
+                carried.result.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Render every distinct pose of a batch against one scene snapshot, all row bands in parallel
+     */
+    private void renderBatch(List<Job> batch) {
+        long start = System.nanoTime();
+        for (Job job : batch) {
+            long waited = start - job.enqueued;
+            queueNanos.add(waited);
+            maxQueueNanos.accumulateAndGet(waited, Math::max);
+        }
+        batches.increment();
+        batchedRequests.add(batch.size());
+
+        Scene frame = scene.acquire();
+        try {
+            TraceSettings settings = traceSettings;
+            Map<Pose, List<Job>> byPose = new LinkedHashMap<>();
+            for (Job job : batch) {
+                byPose.computeIfAbsent(job.pose, pose -> new ArrayList<>()).add(job);
+            }
+            List<Pose> poses = new ArrayList<>(byPose.keySet());
+            List<Renderer> renderers = new ArrayList<>();
+            List<int[]> framebuffers = new ArrayList<>();
+            List<int[]> bands = new ArrayList<>();
+            long pixels = 0;
+            for (int p = 0; p < poses.size(); p++) {
+                Pose pose = poses.get(p);
+                Renderer renderer = new Renderer(frame, pose.toCamera());
+                renderer.setTraceSettings(settings);
+                renderers.add(renderer);
+                framebuffers.add(new int[pose.width * pose.height]);
+                for (int y = 0; y < pose.height; y += BAND_HEIGHT) {
+                    bands.add(new int[] {p, y});
+                }
+                pixels += (long) pose.width * pose.height;
+            }
+
+            IntStream.range(0, bands.size()).parallel().forEach(i -> {
+                int[] band = bands.get(i);
+                Pose pose = poses.get(band[0]);
+                int rows = Math.min(BAND_HEIGHT, pose.height - band[1]);
+                int[] out = new int[pose.width * rows];
+                renderers.get(band[0]).renderTile(pose.width, pose.height, 0, band[1], pose.width, rows, out);
+                System.arraycopy(out, 0, framebuffers.get(band[0]), band[1] * pose.width, out.length);
+            });
+
+            for (int p = 0; p < poses.size(); p++) {
+                Pose pose = poses.get(p);
+                BufferedImage image = new BufferedImage(pose.width, pose.height, BufferedImage.TYPE_INT_RGB);
+                image.setRGB(0, 0, pose.width, pose.height, framebuffers.get(p), 0, pose.width);
+                CachedFrame cached = new CachedFrame(image, frame.getVersion());
+                synchronized (cache) {
+                    cache.put(pose, cached);
+                }
+                for (Job job : byPose.get(pose)) {
+                    job.result.complete(cached);
+                }
+            }
+            framesRendered.add(poses.size());
+            pixelsRendered.add(pixels);
+            renderNanos.add(System.nanoTime() - start);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Counters since the server started, as one JSON object
+     */
+    public String getMetricsJson() {
+        long requestCount = requests.sum();
+        long batchCount = batches.sum();
+        long batched = batchedRequests.sum();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long nanos = renderNanos.sum();
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"requests\":").append(requestCount);
+        json.append(",\"cacheHits\":").append(cacheHits.sum());
+        json.append(",\"rejected\":").append(rejected.sum());
+        json.append(",\"queued\":").append(queue.size());
+        json.append(",\"batches\":").append(batchCount);
+        json.append(",\"meanBatchSize\":").append(String.format("%.2f", batchCount > 0 ? (double) batched / batchCount : 0));
+        json.append(",\"framesRendered\":").append(framesRendered.sum());
+        json.append(",\"requestsPerSecond\":").append(String.format("%.2f", requestCount / seconds));
+        json.append(",\"mpixelsPerSecond\":").append(String.format("%.3f", nanos > 0 ? pixelsRendered.sum() * 1e3 / nanos : 0));
+        json.append(",\"queueMsMean\":").append(String.format("%.3f", batched > 0 ? queueNanos.sum() / 1e6 / batched : 0));
+        json.append(",\"queueMsMax\":").append(String.format("%.3f", maxQueueNanos.get() / 1e6));
+        return json.append('}').toString();
+    }
+
+    private void handleRender(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            Pose pose;
+            String format = query.getOrDefault("format", "png");
+            try {
+                pose = Pose.parse(query);
+                if (!format.equals("png") && !format.equals("raw")) {
+                    throw new IllegalArgumentException("format must be png or raw");
+                }
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+
+            CachedFrame frame;
+            try {
+                frame = renderCached(pose);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendText(exchange, 503, "Server shutting down");
+                return;
+            } catch (RejectedExecutionException e) {
+                sendText(exchange, 503, e.getMessage());
+                return;
+            } catch (IllegalStateException e) {
+                sendText(exchange, 500, "Render failed: " + e.getCause());
+                return;
+            }
+
+            if (format.equals("png")) {
+                byte[] png = frame.png();
+                exchange.getResponseHeaders().set("Content-Type", "image/png");
+                exchange.sendResponseHeaders(200, png.length);
+                exchange.getResponseBody().write(png);
+            } else {
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.getResponseHeaders().set("X-Width", Integer.toString(pose.width));
+                exchange.getResponseHeaders().set("X-Height", Integer.toString(pose.height));
+                exchange.sendResponseHeaders(200, 3L * pose.width * pose.height);
+                writeRaw(frame.image, exchange.getResponseBody());
+            }
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] body = getMetricsJson().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    /**
+     * Stream an image as 8-bit RGB rows, top to bottom
+     */
+    static void writeRaw(BufferedImage image, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int[] row = new int[width];
+        byte[] bytes = new byte[3 * width];
+        OutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                bytes[3 * x] = (byte) (row[x] >> 16);
+                bytes[3 * x + 1] = (byte) (row[x] >> 8);
+                bytes[3 * x + 2] = (byte) row[x];
+            }
+            buffered.write(bytes);
+        }
+        buffered.flush();
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                           URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Stop accepting requests and stop the dispatcher; requests still queued are cancelled
+     */
+    @Override
+    public void close() {
+        closed = true;
+        http.stop(0);
+        dispatcher.interrupt();
+        handlers.shutdownNow();
+        Job job;
+        while ((job = queue.poll()) != null) {
+            job.result.cancel(false);
+        }
+    }
+
+    /**
+     * A camera position, view direction, vertical field of view (degrees) and resolution
+     */
+    public static final class Pose {
+        public final Vector3 position;
+        public final Vector3 direction;
+        public final double fovDegrees;
+        public final int width, height;
+
+        public Pose(Vector3 position, Vector3 direction, double fovDegrees, int width, int height) {
+            if (width < 1 || height < 1 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+                throw new IllegalArgumentException("width and height must be between 1 and " + MAX_DIMENSION);
+            }
+            if (direction.length() == 0 || !(fovDegrees > 0 && fovDegrees < 180)) {
+                throw new IllegalArgumentException("Direction must be non-zero and fov between 0 and 180 degrees");
+            }
+            this.position = position;
+            this.direction = direction;
+            this.fovDegrees = fovDegrees;
+            this.width = width;
+            this.height = height;
+        }
+
+        static Pose parse(Map<String, String> query) {
+            return new Pose(new Vector3(number(query, "x", null), number(query, "y", null), number(query, "z", null)),
+                            new Vector3(number(query, "dx", null), number(query, "dy", null), number(query, "dz", null)),
+                            number(query, "fov", 60.0),
+                            (int) number(query, "width", 160.0), (int) number(query, "height", 120.0));
+        }
+
+        private static double number(Map<String, String> query, String name, Double fallback) {
+            String value = query.get(name);
+            if (value == null) {
+                if (fallback == null) throw new IllegalArgumentException("Missing parameter " + name);
+                return fallback;
+            }
+            try {
+                double number = Double.parseDouble(value);
+                if (!Double.isFinite(number)) throw new NumberFormatException();
+                return number;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number for " + name + ": " + value);
+            }
+        }
+
+        long pixels() {
+            return (long) width * height;
+        }
+
+        Camera toCamera() {
+            Camera camera = new Camera();
+            camera.setPosition(position);
+            camera.setDirection(direction);
+            camera.setFovDegrees(fovDegrees);
+            return camera;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Pose)) return false;
+            Pose p = (Pose) o;
+            return position.x == p.position.x && position.y == p.position.y && position.z == p.position.z
+                && direction.x == p.direction.x && direction.y == p.direction.y && direction.z == p.direction.z
+                && fovDegrees == p.fovDegrees && width == p.width && height == p.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(position.x, position.y, position.z, direction.x, direction.y, direction.z,
+                                fovDegrees, width, height);
+        }
+    }
+
+    private static final class Job {
+        final Pose pose;
+        final long enqueued = System.nanoTime();
+        final CompletableFuture<CachedFrame> result = new CompletableFuture<>();
+
+        Job(Pose pose) {
+            this.pose = pose;
+        }
+    }
+
+    /**
+     * A rendered frame with the scene version it shows; PNG bytes are encoded on first request
+     */
+    private static final class CachedFrame {
+        final BufferedImage image;
+        final long sceneVersion;
+        private byte[] png;
+
+        CachedFrame(BufferedImage image, long sceneVersion) {
+            this.image = image;
+            this.sceneVersion = sceneVersion;
+        }
+
+        synchronized byte[] png() {
+            if (png == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try {
+                    ImageIO.write(image, "png", bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                png = bytes.toByteArray();
+            }
+            return png;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int cacheSize = DEFAULT_CACHE_SIZE;
+        SceneScript script = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--cache":
+                    cacheSize = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    script = SceneScript.parse(Files.readString(Paths.get(args[i])));
+            }
+        }
+        if (script == null) {
+            script = new SceneScript()
+                .addFlatTerrain(12345L, -10, 10, -10, 10)
+                .addUnitSphere(-1, 1, 0, new Material(new Color(230, 230, 230), 0.9, 0, 1))
+                .addUnitSphere(1, 1, 0, new Material(new Color(200, 220, 255), 0.1, 0.85, 1.5))
+                .addUnitLight(0, 8, 4, Color.WHITE, 2.0);
+        }
+
+        RenderServer server = new RenderServer(script.build(ChunkMemory.offHeap()), port, cacheSize);
+        server.start();
+        System.out.println("RenderServer listening on port " + server.getPort());
+    }
+}
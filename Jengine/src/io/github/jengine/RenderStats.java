@@ -0,0 +1,278 @@
+package io.github.jengine;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * RenderStats collects low-overhead per-frame counters and stage timers.
+ * <p>
+ * Counters are {@link LongAdder}s, which stripe updates across threads so the
+ * parallel render paths do not contend on a shared cache line. Hot loops keep
+ * local counts and add them once per ray. When a frame ends, all counters are
+ * drained into an immutable {@link Frame} snapshot, which is exposed to the debug
+ * overlay, over JMX (see {@link #registerMBean()}) and optionally as one JSON
+ * line per frame to a log.
+ */
+public class RenderStats implements RenderStatsMBean {
+
+    /**
+     * Counted events
+     */
+    public enum Counter {
+        PRIMARY_RAYS, SECONDARY_RAYS, SHADOW_RAYS, INTERSECT_CALLS, OBJECTS_TESTED, CELLS_TRAVERSED
+    }
+
+    /**
+     * Timed stages of a frame
+     */
+    public enum Stage {
+        /** Whole Renderer.render call */
+        RENDER,
+        /** Batched ray intersection (wavefront mode) */
+        INTERSECT,
+        /** Direct lighting and shadow rays (wavefront mode) */
+        SHADING,
+        /** Spawning and combining secondary rays (wavefront mode) */
+        RESOLVE,
+        /** Drawing the finished frame to the screen */
+        PRESENT
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LongAdder[] counters = new LongAdder[COUNTERS.length];
+    private final LongAdder[] stageNanos = new LongAdder[STAGES.length];
+    private final LongAdder totalRays = new LongAdder();
+
+    private long frameNumber;
+    private long frameStart = -1;
+    private volatile Frame lastFrame = new Frame(0, 0, new long[COUNTERS.length], new long[STAGES.length]);
+    private PrintWriter frameLog;
+
+    public RenderStats() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+        }
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    public void add(Counter counter, long amount) {
+        counters[counter.ordinal()].add(amount);
+    }
+
+    public void addTime(Stage stage, long nanos) {
+        stageNanos[stage.ordinal()].add(nanos);
+    }
+
+    /**
+     * Close the frame in progress (if any) and start a new one.
+     * Work recorded after a frame's render returns (e.g. presenting it) still counts toward it.
+     */
+    public synchronized void beginFrame() {
+        endFrame();
+        frameStart = System.nanoTime();
+    }
+
+    /**
+     * Snapshot and reset all counters into the last-frame record
+     */
+    public synchronized void endFrame() {
+        if (frameStart < 0) return;
+
+        long[] counts = new long[COUNTERS.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = counters[i].sumThenReset();
+        }
+        long[] times = new long[STAGES.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = stageNanos[i].sumThenReset();
+        }
+
+        Frame frame = new Frame(++frameNumber, System.nanoTime() - frameStart, counts, times);
+        totalRays.add(frame.rays());
+        lastFrame = frame;
+        frameStart = -1;
+
+        if (frameLog != null) {
+            frameLog.println(frame.toJson());
+            frameLog.flush();
+        }
+    }
+
+    /**
+     * Write one JSON object per completed frame to the given writer (null to stop)
+     */
+    public synchronized void setFrameLog(PrintWriter frameLog) {
+        this.frameLog = frameLog;
+    }
+
+    public Frame getLastFrame() {
+        return lastFrame;
+    }
+
+    /**
+     * Register this instance with the platform MBean server as io.github.jengine:type=RenderStats
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("io.github.jengine:type=RenderStats");
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register RenderStats MBean", e);
+        }
+    }
+
+    // RenderStatsMBean
+
+    public long getFrameNumber() {
+        return lastFrame.number;
+    }
+
+    public double getFrameMillis() {
+        return lastFrame.nanos / 1e6;
+    }
+
+    public long getPrimaryRays() {
+        return lastFrame.count(Counter.PRIMARY_RAYS);
+    }
+
+    public long getSecondaryRays() {
+        return lastFrame.count(Counter.SECONDARY_RAYS);
+    }
+
+    public long getShadowRays() {
+        return lastFrame.count(Counter.SHADOW_RAYS);
+    }
+
+    public long getIntersectCalls() {
+        return lastFrame.count(Counter.INTERSECT_CALLS);
+    }
+
+    public double getObjectsTestedPerRay() {
+        return lastFrame.perIntersect(Counter.OBJECTS_TESTED);
+    }
+
+    public double getCellsTraversedPerRay() {
+        return lastFrame.perIntersect(Counter.CELLS_TRAVERSED);
+    }
+
+    public double getRenderMillis() {
+        return lastFrame.millis(Stage.RENDER);
+    }
+
+    public double getIntersectMillis() {
+        return lastFrame.millis(Stage.INTERSECT);
+    }
+
+    public double getShadingMillis() {
+        return lastFrame.millis(Stage.SHADING);
+    }
+
+    public double getResolveMillis() {
+        return lastFrame.millis(Stage.RESOLVE);
+    }
+
+    public double getPresentMillis() {
+        return lastFrame.millis(Stage.PRESENT);
+    }
+
+    public double getMraysPerSecond() {
+        return lastFrame.mraysPerSecond();
+    }
+
+    public long getTotalRays() {
+        return totalRays.sum();
+    }
+
+    /**
+     * Immutable counters and timings of one completed frame
+     */
+    public static final class Frame {
+        public final long number;
+        public final long nanos;
+        private final long[] counts;
+        private final long[] stageNanos;
+
+        Frame(long number, long nanos, long[] counts, long[] stageNanos) {
+            this.number = number;
+            this.nanos = nanos;
+            this.counts = counts;
+            this.stageNanos = stageNanos;
+        }
+
+        public long count(Counter counter) {
+            return counts[counter.ordinal()];
+        }
+
+        public double millis(Stage stage) {
+            return stageNanos[stage.ordinal()] / 1e6;
+        }
+
+        /**
+         * Primary, secondary and shadow rays combined
+         */
+        public long rays() {
+            return count(Counter.PRIMARY_RAYS) + count(Counter.SECONDARY_RAYS) + count(Counter.SHADOW_RAYS);
+        }
+
+        /**
+         * Average of a counter over all Scene.intersect calls
+         */
+        public double perIntersect(Counter counter) {
+            long calls = count(Counter.INTERSECT_CALLS);
+            return calls > 0 ? (double) count(counter) / calls : 0;
+        }
+
+        /**
+         * Ray throughput over the render stage
+         */
+        public double mraysPerSecond() {
+            long renderNanos = stageNanos[Stage.RENDER.ordinal()];
+            return renderNanos > 0 ? rays() * 1e3 / renderNanos : 0;
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"frame\":").append(number);
+            json.append(",\"frameMs\":").append(String.format("%.3f", nanos / 1e6));
+            for (Counter counter : COUNTERS) {
+                json.append(",\"").append(camelCase(counter.name())).append("\":").append(count(counter));
+            }
+            for (Stage stage : STAGES) {
+                json.append(",\"").append(camelCase(stage.name())).append("Ms\":")
+                    .append(String.format("%.3f", millis(stage)));
+            }
+            json.append(",\"mraysPerSecond\":").append(String.format("%.3f", mraysPerSecond()));
+            return json.append('}').toString();
+        }
+
+        private static String camelCase(String name) {
+            StringBuilder out = new StringBuilder(name.length());
+            boolean upper = false;
+            for (char c : name.toLowerCase().toCharArray()) {
+                if (c == '_') {
+                    upper = true;
+                } else {
+                    out.append(upper ? Character.toUpperCase(c) : c);
+                    upper = false;
+                }
+            }
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.jengine;
+
+/**
+ * JMX view of {@link RenderStats}. Values describe the last completed frame
+ * unless named as totals.
+ */
+public interface RenderStatsMBean {
+    long getFrameNumber();
+
+    double getFrameMillis();
+
+    long getPrimaryRays();
+
+    long getSecondaryRays();
+
+    long getShadowRays();
+
+    long getIntersectCalls();
+
+    double getObjectsTestedPerRay();
+
+    double getCellsTraversedPerRay();
+
+    double getRenderMillis();
+
+    double getIntersectMillis();
+
+    double getShadingMillis();
+
+    double getResolveMillis();
+
+    double getPresentMillis();
+
+    double getMraysPerSecond();
+
+    long getTotalRays();
+}
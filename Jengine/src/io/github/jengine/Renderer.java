@@ -2,6 +2,10 @@ package io.github.jengine;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 /**
  * Renderer performs ray tracing for each pixel in the image.
@@ -11,101 +15,585 @@ import java.awt.image.BufferedImage;
  * - Checks for reflection and refraction using Snell's Law
  * - Combines colors based on material properties
  * Depth-limited recursion avoids infinite bounces.
+ * <p>
+ * In {@link RenderMode#WAVEFRONT} mode the same shading is evaluated
+ * breadth-first by {@link WavefrontTracer}, one ray generation at a time.
+ * In {@link RenderMode#PACKET} mode primary rays are traced through the grid
+ * in 4x4 packets before shading continues per pixel; on meshed terrain this is
+ * no faster than single rays (see {@link UnitGrid#intersect(RayPacket)}).
+ * <p>
+ * {@link #renderProgressive} accumulates jittered samples (and optional
+ * diffuse bounces) for a still camera and returns the converging mean.
+ * <p>
+ * With temporal reuse enabled, {@link TemporalCache} lets pixels that still
+ * see the same surface as in the previous frame skip shading entirely.
+ * Frames are scheduled by the first option that applies: dirty regions, then
+ * wavefront mode, then temporal reuse, then packet mode, then recursion.
+ * <p>
+ * Primary rays use the grid's coarse levels of detail once a pixel covers
+ * several cells (see {@link Scene#intersect(Ray, double)}), so distant terrain
+ * costs about as much as nearby terrain; packets always trace full detail.
+ * <p>
+ * {@link #renderTile} renders one rectangle of a frame, as used by
+ * {@link TileWorker} for distributed rendering.
+ * <p>
+ * With dirty regions enabled, {@link DirtyRegionCache} keeps the last frame
+ * and records which grid chunks each screen tile's rays touched, so a block
+ * edit seen from a still camera only re-traces the tiles that could see it.
+ * <p>
+ * Every frame is rendered against a single {@link Scene#acquire()}d snapshot,
+ * released when the frame is done, so edits made while it renders appear in
+ * the next frame rather than halfway through.
+ * <p>
+ * Secondary rays are spawned according to {@link TraceSettings}: each ray
+ * tracks its throughput, low-contribution rays are skipped, and deep bounces
+ * are subject to Russian roulette.
  */
 public class Renderer {
+    static final int SHADOW_SAMPLES = 4;
+    static final int AMBIENT = 20;
+
+    /**
+     * How rays are scheduled while rendering a frame
+     */
+    public enum RenderMode {
+        /** Depth-first recursion per pixel */
+        RECURSIVE,
+        /** Breadth-first batches of primary, secondary and shadow rays */
+        WAVEFRONT,
+        /** 4x4 primary ray packets, then depth-first secondary rays */
+        PACKET
+    }
+
+    static final int PACKET_TILE = 4;
+
     private final Scene scene;
     private final Camera camera;
+    private final WavefrontTracer wavefront;
+    private RenderMode mode = RenderMode.RECURSIVE;
+    private TraceSettings traceSettings = TraceSettings.DEFAULT;
+    private TemporalCache temporalCache;
+    private DirtyRegionCache dirtyRegions;
+    private boolean levelOfDetail = true;
+    private final ProgressiveAccumulator accumulator = new ProgressiveAccumulator();
+    // Frame image kept while the size stays the same, and the pixel array behind its raster
+    private BufferedImage image;
+    private int[] imagePixels;
 
     public Renderer(Scene scene, Camera camera) {
         this.scene = scene;
         this.camera = camera;
+        this.wavefront = new WavefrontTracer();
     }
 
+    /**
+     * Select how {@link #render(int, int)} schedules rays. Dirty regions, when enabled, take
+     * precedence over every mode; temporal reuse takes precedence over {@link RenderMode#PACKET},
+     * whose primary rays are then traced one at a time, and is ignored in
+     * {@link RenderMode#WAVEFRONT} mode.
+     */
+    public void setRenderMode(RenderMode mode) {
+        this.mode = mode;
+    }
+
+    public RenderMode getRenderMode() {
+        return mode;
+    }
+
+    /**
+     * Set the depth and contribution limits used by {@link #render(int, int)}
+     */
+    public void setTraceSettings(TraceSettings traceSettings) {
+        this.traceSettings = traceSettings;
+    }
+
+    public TraceSettings getTraceSettings() {
+        return traceSettings;
+    }
+
+    /**
+     * Enable or disable reuse of the previous frame's shading. Applies in the recursive and packet
+     * modes, where it replaces packet tracing with per-pixel primary rays; it has no effect in
+     * {@link RenderMode#WAVEFRONT} mode or while dirty regions are enabled.
+     */
+    public void setTemporalReuse(boolean enabled) {
+        temporalCache = enabled ? new TemporalCache() : null;
+    }
+
+    public boolean isTemporalReuse() {
+        return temporalCache != null;
+    }
+
+    /**
+     * Enable or disable re-tracing only the screen tiles an edit can affect while the camera
+     * stands still. Takes precedence over the render mode and temporal reuse.
+     */
+    public void setDirtyRegions(boolean enabled) {
+        dirtyRegions = enabled ? new DirtyRegionCache() : null;
+    }
+
+    public boolean isDirtyRegions() {
+        return dirtyRegions != null;
+    }
+
+    /**
+     * Fraction of screen tiles traced in the last frame, or 0 when dirty regions are off
+     */
+    public double getDirtyRegionRatio() {
+        DirtyRegionCache regions = dirtyRegions;
+        return regions != null ? regions.getTracedRatio() : 0;
+    }
+
+    /**
+     * Enable or disable coarse levels of detail for distant primary ray hits (on by default)
+     */
+    public void setLevelOfDetail(boolean enabled) {
+        levelOfDetail = enabled;
+    }
+
+    public boolean isLevelOfDetail() {
+        return levelOfDetail;
+    }
+
+    /**
+     * Fraction of pixels reused from the previous frame, or 0 when temporal reuse is off
+     */
+    public double getTemporalReuseRatio() {
+        TemporalCache cache = temporalCache;
+        return cache != null ? cache.getReuseRatio() : 0;
+    }
+
+    /**
+     * Render a frame. The returned image is reused and overwritten by the next frame of the
+     * same size, so copy it to keep it.
+     */
     public BufferedImage render(int width, int height) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        return render(width, height, traceSettings);
+    }
+
+    /**
+     * Render a frame with the given depth and contribution limits, into the same reused image
+     * as {@link #render(int, int)}
+     */
+    public BufferedImage render(int width, int height, TraceSettings settings) {
+        Scene frame = scene.acquire();
+        RenderStats stats = frame.getStats();
+        long start = System.nanoTime();
+        try {
+            return renderImage(frame, width, height, settings);
+        } finally {
+            stats.addTime(RenderStats.Stage.RENDER, System.nanoTime() - start);
+            frame.release();
+        }
+    }
+
+    /**
+     * Render one tile of a width x height frame into a tileW x tileH array of packed RGB rows.
+     * Tiles are always traced recursively, so a frame assembled from tiles does not depend
+     * on the render mode or on which process rendered each tile.
+     */
+    public void renderTile(int width, int height, int tileX, int tileY, int tileW, int tileH, int[] pixels) {
+        renderTile(width, height, tileX, tileY, tileW, tileH, pixels, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Render a tile as {@link #renderTile(int, int, int, int, int, int, int[])} does, drawing
+     * Russian-roulette decisions from a generator with the given seed, so the tile comes out
+     * the same on every run as long as the lights' samplers are seeded too
+     */
+    public void renderTile(int width, int height, int tileX, int tileY, int tileW, int tileH, int[] pixels,
+                           long seed) {
+        renderTile(width, height, tileX, tileY, tileW, tileH, pixels, new Random(seed));
+    }
+
+    private void renderTile(int width, int height, int tileX, int tileY, int tileW, int tileH, int[] pixels,
+                            Random random) {
+        Scene frame = scene.acquire();
+        RenderStats stats = frame.getStats();
+        long start = System.nanoTime();
+        stats.add(RenderStats.Counter.PRIMARY_RAYS, (long) tileW * tileH);
+        double spread = primarySpread(height);
+        try {
+            PrimaryRays rays = camera.getPrimaryRays(width, height);
+            for (int y = 0; y < tileH; y++) {
+                for (int x = 0; x < tileW; x++) {
+                    Ray ray = rays.ray(tileX + x, tileY + y);
+                    pixels[y * tileW + x] = shade(frame, ray, frame.intersect(ray, spread), 0, 1.0, traceSettings, random);
+                }
+            }
+        } finally {
+            stats.addTime(RenderStats.Stage.RENDER, System.nanoTime() - start);
+            frame.release();
+        }
+    }
+
+    /**
+     * The frame image for a size, reused from the previous frame while the size is unchanged
+     */
+    private BufferedImage frameImage(int width, int height) {
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        return image;
+    }
+
+    private BufferedImage renderImage(Scene frame, int width, int height, TraceSettings settings) {
+        BufferedImage image = frameImage(width, height);
+        int[] pixels = imagePixels;
+        double spread = primarySpread(height);
+
+        DirtyRegionCache regions = dirtyRegions;
+        if (regions != null) {
+            renderDirtyRegions(frame, pixels, width, height, settings, regions, spread);
+            return image;
+        }
+
+        frame.getStats().add(RenderStats.Counter.PRIMARY_RAYS, (long) width * height);
+        if (mode == RenderMode.WAVEFRONT) {
+            wavefront.render(frame, camera, width, height, pixels, settings, spread);
+            return image;
+        }
+
+        TemporalCache cache = temporalCache;
+        if (cache != null) {
+            renderTemporal(frame, pixels, width, height, settings, cache, spread);
+            return image;
+        }
 
+        if (mode == RenderMode.PACKET) {
+            renderPackets(frame, pixels, width, height, settings);
+            return image;
+        }
+
+        PrimaryRays rays = camera.getPrimaryRays(width, height);
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                Ray ray = camera.generateRay(x, y, width, height);
-                Color color = trace(ray, 0);
-                image.setRGB(x, y, color.getRGB());
+                Ray ray = rays.ray(x, y);
+                pixels[y * width + x] = shade(frame, ray, frame.intersect(ray, spread), 0, 1.0, settings,
+                                              ThreadLocalRandom.current());
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Trace only the tiles whose recorded chunk footprint saw a change since the previous frame,
+     * recording new footprints as they are traced
+     */
+    private void renderDirtyRegions(Scene frame, int[] image, int width, int height, TraceSettings settings,
+                                    DirtyRegionCache regions, double spread) {
+        synchronized (regions) {
+            int[] tiles = regions.beginFrame(scene, frame, width, height, camera.getVersion(), settings, spread);
+            int[] pixels = regions.getPixels();
+            PrimaryRays rays = camera.getPrimaryRays(width, height);
+            IntStream.of(tiles).parallel().forEach(tile -> {
+                Scene recording = frame.recording(regions.newFootprint(tile));
+                int tileX = regions.tileX(tile), tileY = regions.tileY(tile);
+                int endX = Math.min(width, tileX + DirtyRegionCache.TILE);
+                int endY = Math.min(height, tileY + DirtyRegionCache.TILE);
+                for (int y = tileY; y < endY; y++) {
+                    for (int x = tileX; x < endX; x++) {
+                        Ray ray = rays.ray(x, y);
+                        pixels[y * width + x] = shade(recording, ray, recording.intersect(ray, spread), 0, 1.0, settings,
+                                                      ThreadLocalRandom.current());
+                    }
+                }
+                frame.getStats().add(RenderStats.Counter.PRIMARY_RAYS, (long) (endX - tileX) * (endY - tileY));
+            });
+            System.arraycopy(pixels, 0, image, 0, width * height);
+        }
+    }
+
+    /**
+     * Footprint growth of primary rays for level-of-detail selection, or 0 for full detail
+     */
+    private double primarySpread(int height) {
+        return levelOfDetail ? camera.getPixelSpread(height) : 0;
+    }
+
+    /**
+     * Trace primary rays in 4x4 tiles, one packet per tile
+     */
+    private void renderPackets(Scene frame, int[] pixels, int width, int height, TraceSettings settings) {
+        RayPacket packet = new RayPacket();
+        PrimaryRays rays = camera.getPrimaryRays(width, height);
+        for (int tileY = 0; tileY < height; tileY += PACKET_TILE) {
+            for (int tileX = 0; tileX < width; tileX += PACKET_TILE) {
+                int tileW = Math.min(PACKET_TILE, width - tileX);
+                int tileH = Math.min(PACKET_TILE, height - tileY);
+
+                packet.clear();
+                for (int y = 0; y < tileH; y++) {
+                    for (int x = 0; x < tileW; x++) {
+                        packet.add(rays.ray(tileX + x, tileY + y));
+                    }
+                }
+                frame.intersect(packet);
+
+                for (int lane = 0; lane < packet.size(); lane++) {
+                    int color = shade(frame, packet.getRay(lane), packet.getHit(lane), 0, 1.0, settings,
+                                      ThreadLocalRandom.current());
+                    pixels[(tileY + lane / tileW) * width + tileX + lane % tileW] = color;
+                }
             }
         }
+    }
+
+    /**
+     * Add one pass of jittered samples to the accumulation buffer and return the running mean.
+     * The buffer restarts whenever the camera, scene or size changes. The mean is written into
+     * the same reused image as {@link #render(int, int)}.
+     *
+     * @param samplesPerPixel jittered samples added per pixel in this pass
+     * @param diffuseBounces  number of diffuse global-illumination bounces (0 for direct light only)
+     */
+    public BufferedImage renderProgressive(int width, int height, int samplesPerPixel, int diffuseBounces) {
+        BufferedImage image = frameImage(width, height);
+        int[] pixels = imagePixels;
+        TraceSettings settings = traceSettings;
+        double spread = primarySpread(height);
+        Scene frame = scene.acquire();
+        RenderStats stats = frame.getStats();
+        long start = System.nanoTime();
+        stats.add(RenderStats.Counter.PRIMARY_RAYS, (long) width * height * samplesPerPixel);
+
+        try {
+            synchronized (accumulator) {
+                accumulator.beginPass(width, height, frame.getVersion(), camera.getVersion());
+
+                IntStream.range(0, height).parallel().forEach(y -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int x = 0; x < width; x++) {
+                        int index = y * width + x;
+                        for (int s = 0; s < samplesPerPixel; s++) {
+                            Ray ray = camera.generateRay(x + random.nextDouble(), y + random.nextDouble(), width, height);
+                            accumulator.add(index, traceDiffuse(frame, ray, spread, diffuseBounces, settings));
+                        }
+                    }
+                });
+                accumulator.endPass(samplesPerPixel);
 
+                for (int i = 0; i < width * height; i++) {
+                    pixels[i] = accumulator.mean(i);
+                }
+            }
+        } finally {
+            frame.release();
+        }
+
+        stats.addTime(RenderStats.Stage.RENDER, System.nanoTime() - start);
         return image;
     }
 
-    private Color trace(Ray ray, int depth) {
-        if (depth > 2) return Color.BLACK;
+    /**
+     * Samples per pixel in the progressive accumulation buffer
+     */
+    public int getProgressiveSampleCount() {
+        synchronized (accumulator) {
+            return accumulator.getSampleCount();
+        }
+    }
+
+    /**
+     * Trace a ray and add light arriving through cosine-weighted diffuse bounces
+     */
+    private int traceDiffuse(Scene frame, Ray ray, double spread, int bounces, TraceSettings settings) {
+        Intersection hit = frame.intersect(ray, spread);
+        int color = shade(frame, ray, hit, 0, 1.0, settings, ThreadLocalRandom.current());
+        if (hit == null || bounces <= 0) return color;
+
+        Material m = hit.object.material;
+        double diffuseWeight = 1 - m.reflectivity - m.refractivity;
+        if (diffuseWeight <= 0) return color;
+
+        Vector3 bounceDir = sampleCosineHemisphere(hit.normal);
+        Ray bounceRay = new Ray(hit.point.add(hit.normal.multiply(0.001)), bounceDir);
+        frame.getStats().increment(RenderStats.Counter.SECONDARY_RAYS);
+        int incoming = traceDiffuse(frame, bounceRay, 0, bounces - 1, settings);
+
+        // Lambertian surface with cosine-weighted sampling: indirect = albedo * incoming
+        double scale = diffuseWeight / 255.0;
+        int r = (int) (((color >> 16) & 0xFF) + m.color.getRed() * scale * ((incoming >> 16) & 0xFF));
+        int g = (int) (((color >> 8) & 0xFF) + m.color.getGreen() * scale * ((incoming >> 8) & 0xFF));
+        int b = (int) ((color & 0xFF) + m.color.getBlue() * scale * (incoming & 0xFF));
+        return (Math.min(r, 255) << 16) | (Math.min(g, 255) << 8) | Math.min(b, 255);
+    }
+
+    /**
+     * Random direction around a normal with probability proportional to the cosine
+     */
+    private static Vector3 sampleCosineHemisphere(Vector3 normal) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double u = random.nextDouble();
+        double phi = 2 * Math.PI * random.nextDouble();
+        double radius = Math.sqrt(u);
+
+        Vector3 helper = Math.abs(normal.x) > 0.9 ? new Vector3(0, 1, 0) : new Vector3(1, 0, 0);
+        Vector3 tangent = normal.cross(helper).normalize();
+        Vector3 bitangent = normal.cross(tangent);
+
+        return tangent.multiply(radius * Math.cos(phi))
+                      .add(bitangent.multiply(radius * Math.sin(phi)))
+                      .add(normal.multiply(Math.sqrt(1 - u)));
+    }
+
+    /**
+     * Trace primary rays and shade only pixels whose surface is not in the history
+     */
+    private void renderTemporal(Scene frame, int[] pixels, int width, int height, TraceSettings settings,
+                                TemporalCache cache, double spread) {
+        synchronized (cache) {
+            cache.beginFrame(width, height, frame.getVersion());
+
+            // Snapshot the pose this frame is rendered from
+            Vector3 position = camera.getPosition();
+            Vector3 forward = camera.getForward();
+            Vector3 right = camera.getRight();
+            Vector3 up = camera.getTrueUp();
+            double fov = camera.getFov();
+
+            PrimaryRays rays = camera.getPrimaryRays(width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    Ray ray = rays.ray(x, y);
+                    Intersection hit = frame.intersect(ray, spread);
+
+                    int color = -1;
+                    if (hit != null && !cache.isRefreshPixel(x, y)) {
+                        color = cache.lookup(hit);
+                    }
+                    if (color < 0) {
+                        color = shade(frame, ray, hit, 0, 1.0, settings, ThreadLocalRandom.current());
+                    }
+
+                    cache.store(x, y, hit, color);
+                    pixels[y * width + x] = color;
+                }
+            }
+
+            cache.endFrame(position, forward, right, up, fov);
+        }
+    }
+
+    /**
+     * Trace a ray and return its color as packed RGB
+     */
+    private int trace(Scene frame, Ray ray, int depth, double throughput, TraceSettings settings, Random random) {
+        if (depth > settings.maxDepth) return 0;
+        if (depth > 0) {
+            frame.getStats().increment(RenderStats.Counter.SECONDARY_RAYS);
+        }
+
+        return shade(frame, ray, frame.intersect(ray), depth, throughput, settings, random);
+    }
 
-        Intersection hit = scene.intersect(ray);
+    /**
+     * Shade a ray given its closest hit (or null for a miss), drawing roulette decisions from random
+     */
+    private int shade(Scene frame, Ray ray, Intersection hit, int depth, double throughput, TraceSettings settings,
+                      Random random) {
         if (hit == null) {
-            // No intersection - return skybox color
-            return scene.getSkybox().getSkyColor(ray.direction);
+            // No intersection - return baked skybox color
+            return frame.getSkybox().getSkyRGB(ray.direction);
         }
 
         Material m = hit.object.material;
         
         // Calculate lighting contribution
-        Color lightColor = calculateLighting(hit, m);
+        Color lightColor = calculateLighting(frame, hit, m);
         
         // Reflection
-        Color reflectColor = Color.BLACK;
-        if (m.reflectivity > 0) {
-            Vector3 reflectDir = ray.direction.subtract(hit.normal.multiply(2 * ray.direction.dot(hit.normal))).normalize();
+        int reflectColor = 0;
+        double reflectScale = 1;
+        double reflectWeight = throughput * m.reflectivity;
+        double reflectChance = m.reflectivity > 0 ? settings.continueProbability(depth + 1, reflectWeight) : 0;
+        if (reflectChance > 0 && (reflectChance >= 1 || random.nextDouble() < reflectChance)) {
+            Vector3 reflectDir = reflect(ray.direction, hit.normal);
             Ray reflectRay = new Ray(hit.point.add(reflectDir.multiply(0.001)), reflectDir);
-            reflectColor = trace(reflectRay, depth + 1);
+            reflectColor = trace(frame, reflectRay, depth + 1, reflectWeight / reflectChance, settings, random);
+            reflectScale = 1 / reflectChance;
         }
 
         // Refraction (Snell's Law)
-        Color refractColor = Color.BLACK;
-        if (m.refractivity > 0) {
-            double n1 = 1.0; // air
-            double n2 = m.refractiveIndex;
-            Vector3 normal = hit.normal;
-            Vector3 dir = ray.direction;
-            double cosI = -normal.dot(dir);
-            boolean entering = cosI > 0;
-            if (!entering) {
-                normal = normal.multiply(-1);
-                double temp = n1;
-                n1 = n2;
-                n2 = temp;
-                cosI = -normal.dot(dir);
-            }
-
-            double eta = n1 / n2;
-            double k = 1 - eta * eta * (1 - cosI * cosI);
-            if (k >= 0) {
-                Vector3 refractDir = dir.multiply(eta).add(normal.multiply(eta * cosI - Math.sqrt(k))).normalize();
+        int refractColor = 0;
+        double refractScale = 1;
+        double refractWeight = throughput * m.refractivity;
+        double refractChance = m.refractivity > 0 ? settings.continueProbability(depth + 1, refractWeight) : 0;
+        if (refractChance > 0 && (refractChance >= 1 || random.nextDouble() < refractChance)) {
+            Vector3 refractDir = refract(ray.direction, hit.normal, m.refractiveIndex);
+            if (refractDir != null) {
                 Ray refractRay = new Ray(hit.point.add(refractDir.multiply(0.001)), refractDir);
-                refractColor = trace(refractRay, depth + 1);
+                refractColor = trace(frame, refractRay, depth + 1, refractWeight / refractChance, settings, random);
+                refractScale = 1 / refractChance;
             }
         }
 
-        // Combine lighting, reflection, and refraction
+        return combine(lightColor.getRGB(), reflectColor, refractColor, m, reflectScale, refractScale);
+    }
+
+    /**
+     * Mirror a direction about a surface normal
+     */
+    static Vector3 reflect(Vector3 dir, Vector3 normal) {
+        return dir.subtract(normal.multiply(2 * dir.dot(normal))).normalize();
+    }
+
+    /**
+     * Bend a direction through a surface using Snell's Law.
+     * Returns null on total internal reflection.
+     */
+    static Vector3 refract(Vector3 dir, Vector3 normal, double refractiveIndex) {
+        double n1 = 1.0; // air
+        double n2 = refractiveIndex;
+        double cosI = -normal.dot(dir);
+        boolean entering = cosI > 0;
+        if (!entering) {
+            normal = normal.multiply(-1);
+            double temp = n1;
+            n1 = n2;
+            n2 = temp;
+            cosI = -normal.dot(dir);
+        }
+
+        double eta = n1 / n2;
+        double k = 1 - eta * eta * (1 - cosI * cosI);
+        if (k < 0) return null;
+        return dir.multiply(eta).add(normal.multiply(eta * cosI - Math.sqrt(k))).normalize();
+    }
+
+    /**
+     * Combine lighting, reflection, and refraction (all packed RGB) by material weights.
+     * Roulette survivors pass 1 / survival probability as their scale; it is folded into the
+     * weight so the only clamp is on the combined color.
+     */
+    static int combine(int lightColor, int reflectColor, int refractColor, Material m,
+                       double reflectScale, double refractScale) {
         double baseWeight = 1 - m.reflectivity - m.refractivity;
-        int r = (int)(lightColor.getRed() * baseWeight
-                  + reflectColor.getRed() * m.reflectivity
-                  + refractColor.getRed() * m.refractivity);
-        int g = (int)(lightColor.getGreen() * baseWeight
-                  + reflectColor.getGreen() * m.reflectivity
-                  + refractColor.getGreen() * m.refractivity);
-        int b = (int)(lightColor.getBlue() * baseWeight
-                  + reflectColor.getBlue() * m.reflectivity
-                  + refractColor.getBlue() * m.refractivity);
-
-        return new Color(Math.min(r, 255), Math.min(g, 255), Math.min(b, 255));
+        double reflectWeight = m.reflectivity * reflectScale;
+        double refractWeight = m.refractivity * refractScale;
+        int r = (int)(((lightColor >> 16) & 0xFF) * baseWeight
+                  + ((reflectColor >> 16) & 0xFF) * reflectWeight
+                  + ((refractColor >> 16) & 0xFF) * refractWeight);
+        int g = (int)(((lightColor >> 8) & 0xFF) * baseWeight
+                  + ((reflectColor >> 8) & 0xFF) * reflectWeight
+                  + ((refractColor >> 8) & 0xFF) * refractWeight);
+        int b = (int)((lightColor & 0xFF) * baseWeight
+                  + (reflectColor & 0xFF) * reflectWeight
+                  + (refractColor & 0xFF) * refractWeight);
+
+        return (Math.min(r, 255) << 16) | (Math.min(g, 255) << 8) | Math.min(b, 255);
     }
     
     /**
      * Calculate lighting contribution from all lights in the scene
      */
-    private Color calculateLighting(Intersection hit, Material material) {
-        Color totalLight = new Color(20, 20, 20); // Ambient light
+    private Color calculateLighting(Scene frame, Intersection hit, Material material) {
+        Color totalLight = new Color(AMBIENT, AMBIENT, AMBIENT); // Ambient light
         
-        for (UnitLight light : scene.getLights()) {
-            Color lightContrib = light.calculateLighting(hit.point, hit.normal, material, scene, 4);
+        for (UnitLight light : frame.getLights()) {
+            Color lightContrib = light.calculateLighting(hit.point, hit.normal, material, frame, SHADOW_SAMPLES);
             totalLight = addColors(totalLight, lightContrib);
         }
         
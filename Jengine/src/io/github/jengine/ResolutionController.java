@@ -0,0 +1,86 @@
+package io.github.jengine;
+
+/**
+ * ResolutionController scales the internal render resolution to hold frame
+ * time near a target.
+ * <p>
+ * Since ray tracing cost is roughly proportional to pixel count, each frame
+ * time is divided by the squared scale it was rendered at, giving the cost of
+ * a full-resolution frame. That estimate is smoothed with an exponential
+ * moving average, so frames rendered at earlier scales do not skew it, and
+ * the scale heads for the absolute scale that would hit the target: limited
+ * per frame (faster down than up) and ignored inside a small dead band so the
+ * resolution does not flicker.
+ */
+public class ResolutionController {
+    private static final double SMOOTHING = 0.2;
+    private static final double DEAD_BAND = 0.1;
+    private static final double MAX_STEP_DOWN = 0.75;
+    private static final double MAX_STEP_UP = 1.1;
+    // Scaled sizes are rounded to this many pixels (the packet tile size)
+    private static final int GRANULARITY = 4;
+
+    private final double targetMillis;
+    private final double minScale;
+    private final double maxScale;
+    private double scale;
+    // Smoothed cost of a frame at scale 1
+    private double fullScaleMillis = -1;
+
+    public ResolutionController(double targetMillis, double minScale, double maxScale) {
+        if (minScale <= 0 || minScale > maxScale) {
+            throw new IllegalArgumentException("Invalid scale bounds: " + minScale + ".." + maxScale);
+        }
+        this.targetMillis = targetMillis;
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.scale = maxScale;
+    }
+
+    /**
+     * Feed the render time of the last frame and adjust the scale
+     */
+    public void recordFrame(double frameMillis) {
+        double fullScale = frameMillis / (scale * scale);
+        fullScaleMillis = fullScaleMillis < 0 ? fullScale
+                        : fullScaleMillis * (1 - SMOOTHING) + fullScale * SMOOTHING;
+
+        double ratio = targetMillis / getAverageMillis();
+        if (Math.abs(ratio - 1) < DEAD_BAND) return;
+
+        double next = Math.sqrt(targetMillis / fullScaleMillis);
+        next = Math.max(scale * MAX_STEP_DOWN, Math.min(scale * MAX_STEP_UP, next));
+        scale = Math.max(minScale, Math.min(maxScale, next));
+    }
+
+    /**
+     * Internal render size for a given output size
+     */
+    public int scaledWidth(int width) {
+        return scaleDimension(width);
+    }
+
+    public int scaledHeight(int height) {
+        return scaleDimension(height);
+    }
+
+    private int scaleDimension(int size) {
+        int scaled = (int) Math.round(size * scale / GRANULARITY) * GRANULARITY;
+        return Math.max(GRANULARITY, Math.min(size, scaled));
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public double getTargetMillis() {
+        return targetMillis;
+    }
+
+    /**
+     * Smoothed frame time in milliseconds expected at the current scale, or -1 before the first frame
+     */
+    public double getAverageMillis() {
+        return fullScaleMillis < 0 ? -1 : fullScaleMillis * scale * scale;
+    }
+}
@@ -2,89 +2,339 @@ package io.github.jengine;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
  * Scene holds all unit objects, lights, skybox and handles optimized ray intersections.
  * Only supports unit-sized objects that fit on integer grid coordinates.
+ * <p>
+ * Edits are serialized and publish a new immutable snapshot (grid, lights,
+ * skybox and version together) without waiting for renders in flight. Queries
+ * on a live scene read the latest snapshot; renderers take one with
+ * {@link #acquire()} at the start of a frame so the whole frame sees one
+ * consistent state, and release it when the frame is done.
  */
 public class Scene {
     private final UnitGrid grid;
-    private final List<UnitLight> lights = new ArrayList<>();
+    private final List<UnitLight> lights;
     private Skybox skybox;
+    private final RenderStats stats;
+    
+    // Bumped on every change that can affect a rendered image
+    private volatile long version;
+    
+    // Latest published snapshot; a snapshot points to itself
+    private volatile Scene published;
+    
+    // Where a recording snapshot logs the chunks its rays pass through, otherwise null
+    private final ChunkFootprint footprint;
     
     public Scene() {
-        this.grid = new UnitGrid();
+        this(ChunkMemory.HEAP);
+    }
+    
+    /**
+     * Create a scene whose grid keeps its chunks' cells in the given memory,
+     * e.g. {@link ChunkMemory#offHeap()} for large worlds
+     */
+    public Scene(ChunkMemory memory) {
+        this.stats = new RenderStats();
+        this.grid = new UnitGrid(stats, memory);
+        this.lights = new ArrayList<>();
         this.skybox = new Skybox(); // Default skybox
+        this.footprint = null;
+        publish();
+    }
+    
+    /**
+     * Read-only copy of a scene's current state around a held snapshot of its grid
+     * and an unmodifiable copy of its lights
+     */
+    private Scene(Scene source, UnitGrid grid, List<UnitLight> lights) {
+        this.stats = source.stats;
+        this.grid = grid;
+        this.lights = lights;
+        this.skybox = source.skybox;
+        this.version = source.version;
+        this.footprint = null;
+        this.published = this;
+    }
+    
+    /**
+     * A snapshot that also records its rays in a footprint
+     */
+    private Scene(Scene source, ChunkFootprint footprint) {
+        this.stats = source.stats;
+        this.grid = source.grid;
+        this.lights = source.lights;
+        this.skybox = source.skybox;
+        this.version = source.version;
+        this.footprint = footprint;
+        this.published = this;
+    }
+    
+    /**
+     * The latest published state of this scene. It never changes; edits made
+     * afterwards only show up in later snapshots. With off-heap chunk memory the
+     * chunks it shows are kept until it is garbage collected; prefer
+     * {@link #acquire()} for snapshots with a known lifetime.
+     */
+    public Scene snapshot() {
+        while (true) {
+            Scene scene = published;
+            if (scene == this || scene.grid.holdWhileReachable()) return scene;
+        }
+    }
+    
+    /**
+     * The latest published state of this scene, kept intact until {@link #release()}
+     * is called on it once. Acquiring a snapshot holds it again.
+     */
+    public Scene acquire() {
+        while (true) {
+            Scene scene = published;
+            if (scene.grid.tryHold()) return scene;
+            if (scene == this) {
+                throw new IllegalStateException("Snapshot was already released");
+            }
+        }
+    }
+    
+    /**
+     * Release a snapshot taken with {@link #acquire()}
+     */
+    public void release() {
+        if (published != this) {
+            throw new IllegalStateException("Only snapshots can be released");
+        }
+        grid.release();
+    }
+    
+    /**
+     * This scene's latest snapshot, with every ray traced through it (up to its hit, or to its
+     * full length for shadow tests) added to the footprint. Not for use on several threads at once.
+     */
+    public Scene recording(ChunkFootprint footprint) {
+        return new Scene(published, footprint);
+    }
+    
+    /**
+     * Chunks that changed between two snapshots of this scene, or null if everything
+     * must be treated as changed: the lights or skybox differ, or the edits are too old
+     * to be known. Call on the live scene.
+     */
+    public Set<Long> getChangedChunks(Scene since, Scene until) {
+        if (!since.lights.equals(until.lights) || since.skybox != until.skybox) {
+            return null;
+        }
+        return grid.getChangedChunks(since.grid, until.grid);
+    }
+    
+    /**
+     * Bounds of the grid cells that have held objects, as {minX, minY, minZ, maxX, maxY, maxZ}
+     */
+    int[] getGridBounds() {
+        return grid.getBounds();
     }
     
     /**
      * Add a block to the grid
      */
-    public void addBlock(Block block) {
+    public synchronized void addBlock(Block block) {
+        checkWritable();
         grid.addBlock(block);
+        publish();
     } 
     
     /**
      * Add a unit sphere to the grid
      */
-    public void addUnitSphere(UnitSphere sphere) {
+    public synchronized void addUnitSphere(UnitSphere sphere) {
+        checkWritable();
         Vector3 pos = sphere.getGridPosition();
         grid.addObject(sphere, (int) pos.x, (int) pos.y, (int) pos.z);
+        publish();
     }
     
     /**
      * Add a unit light to the scene
      */
-    public void addUnitLight(UnitLight light) {
+    public synchronized void addUnitLight(UnitLight light) {
+        checkWritable();
         lights.add(light);
         Vector3 pos = light.getGridPosition();
         grid.addObject(light, (int) pos.x, (int) pos.y, (int) pos.z);
+        publish();
     }
     
     /**
      * Add multiple blocks at once (convenience method for terrain generation)
      */
     public void addBlocks(List<Block> blocks) {
-        for (Block block : blocks) {
-            addBlock(block);
+        beginEdit().addBlocks(blocks).commit();
+    }
+    
+    /**
+     * Start a batch of changes that is applied and published as a whole by {@link SceneEdit#commit()}
+     */
+    public SceneEdit beginEdit() {
+        checkWritable();
+        return new SceneEdit(this);
+    }
+    
+    /**
+     * Apply a committed edit: lights and skybox first, then all grid changes in one pass
+     */
+    synchronized void apply(SceneEdit edit) {
+        checkWritable();
+        lights.addAll(edit.getLights());
+        if (edit.getSkybox() != null) {
+            skybox = edit.getSkybox();
         }
+        grid.apply(edit.getOps());
+        publish();
     }
     
     /**
      * Remove an object from the grid
      */
-    public void removeObject(int x, int y, int z) {
+    public synchronized void removeObject(int x, int y, int z) {
+        checkWritable();
         grid.removeObject(x, y, z);
+        publish();
     }
     
-    public void setSkybox(Skybox skybox) {
+    public synchronized void setSkybox(Skybox skybox) {
+        checkWritable();
         this.skybox = skybox;
+        publish();
     }
     
     public Skybox getSkybox() {
-        return skybox;
+        return published.skybox;
     }
     
+    /**
+     * Lights of the latest snapshot (an unmodifiable list)
+     */
     public List<UnitLight> getLights() {
-        return lights;
+        return published.lights;
+    }
+    
+    /**
+     * Bump the version and make the current state visible to readers
+     */
+    private void publish() {
+        version++;
+        Scene previous = published;
+        // Lights are only ever added, so while the count holds the previous copy is still current
+        List<UnitLight> lightCopy = previous != null && previous.lights.size() == lights.size()
+                ? previous.lights : List.copyOf(lights);
+        published = new Scene(this, grid.acquire(), lightCopy);
+        if (previous != null) {
+            previous.grid.release();
+        }
+    }
+    
+    private void checkWritable() {
+        if (published == this) {
+            throw new UnsupportedOperationException("Scene snapshots are read-only");
+        }
+    }
+    
+    /**
+     * Counters and stage timings shared by everything that renders this scene
+     */
+    public RenderStats getStats() {
+        return stats;
+    }
+    
+    /**
+     * Version counter that changes whenever objects, lights or the skybox change.
+     * Caches of rendered results compare it to know when they are stale.
+     */
+    public long getVersion() {
+        return version;
     }
     
     /**
-     * Optimized ray intersection using spatial grid
+     * Optimized ray intersection using spatial grid traversal
      */
     public Intersection intersect(Ray ray) {
-        Intersection closest = null;
+        Intersection hit = grid.intersect(ray);
+        if (footprint != null) {
+            footprint.addSegment(ray, hit != null ? hit.distance : Double.POSITIVE_INFINITY, 0);
+        }
+        return hit;
+    }
+        
+    /**
+     * Ray intersection that switches to coarse levels of detail once the ray's
+     * footprint, growing by spread per unit of distance, covers several cells
+     */
+    public Intersection intersect(Ray ray, double spread) {
+        Intersection hit = grid.intersect(ray, spread);
+        if (footprint != null) {
+            footprint.addSegment(ray, hit != null ? hit.distance : Double.POSITIVE_INFINITY, 0);
+        }
+        return hit;
+    }
         
-        // Use grid optimization - only check visible objects
-        List<Renderable> visibleObjects = grid.getVisibleObjects();
+    /**
+     * Shadow test: whether anything other than the target light blocks the ray
+     * before maxDistance. Uses the grid's column height map to skip open sky.
+     */
+    public boolean isOccluded(Ray ray, double maxDistance, Renderable target) {
+        if (footprint != null) {
+            footprint.addShadowSegment(ray, maxDistance, target);
+        }
+        return grid.isOccluded(ray, maxDistance, target);
+    }
+    
+    /**
+     * Highest occupied y in the grid column at x, z, or Integer.MIN_VALUE if the column is empty
+     */
+    public int getColumnHeight(int x, int z) {
+        return grid.getColumnHeight(x, z);
+    }
         
-        for (Renderable obj : visibleObjects) {
-            Intersection hit = obj.intersect(ray);
-            if (hit != null && (closest == null || hit.distance < closest.distance)) {
-                closest = hit;
-            }
+    /**
+     * Intersect a packet of coherent rays; results are stored per lane in the packet
+     */
+    public void intersect(RayPacket packet) {
+        grid.intersect(packet);
+    }
+    
+    /**
+     * Find the first occupied cell along a ray (cells count as solid cubes).
+     * Cheap enough for many picking and line-of-sight queries per tick.
+     *
+     * @return whether a cell was hit within maxDistance; details are written to result
+     */
+    public boolean raycast(Vector3 origin, Vector3 direction, double maxDistance, VoxelHit result) {
+        return grid.raycast(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z,
+                            maxDistance, result);
+    }
+    
+    /**
+     * Run a batch of raycast queries in parallel against one snapshot of the grid.
+     * Query i uses the origin, direction and max distance of entry i in the queue,
+     * and its result is written into results[i], which must not be null.
+     */
+    public void raycast(RayQueue queries, VoxelHit[] results) {
+        if (results.length < queries.size()) {
+            throw new IllegalArgumentException("Need " + queries.size() + " results, got " + results.length);
+        }
+        UnitGrid snapshot = grid.acquire();
+        try {
+            IntStream.range(0, queries.size()).parallel().forEach(i ->
+                snapshot.raycast(queries.originX[i], queries.originY[i], queries.originZ[i],
+                                 queries.dirX[i], queries.dirY[i], queries.dirZ[i],
+                                 queries.maxDistance[i], results[i]));
+        } finally {
+            snapshot.release();
         }
-        return closest;
     }
     
     /**
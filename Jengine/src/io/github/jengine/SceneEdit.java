@@ -0,0 +1,119 @@
+package io.github.jengine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * SceneEdit gathers many scene changes and applies them together.
+ * <p>
+ * Start an edit with {@link Scene#beginEdit()}, record adds and removes, then
+ * {@link #commit()}. Nothing is visible to renderers until the commit, which
+ * applies every change under one lock, refreshes each touched chunk once and
+ * publishes a single new snapshot. Large edits such as terrain loads therefore
+ * cost one pass over the changes instead of one snapshot per block.
+ * <p>
+ * Changes are applied in the order they were recorded. An edit can be
+ * committed only once.
+ */
+public class SceneEdit {
+    private final Scene scene;
+    private final List<Op> ops = new ArrayList<>();
+    private final List<UnitLight> lights = new ArrayList<>();
+    private Skybox skybox;
+    private boolean committed;
+
+    SceneEdit(Scene scene) {
+        this.scene = scene;
+    }
+
+    public SceneEdit addBlock(Block block) {
+        checkOpen();
+        ops.add(new Op(block, (int) Math.round(block.position.x), (int) Math.round(block.position.y),
+                       (int) Math.round(block.position.z)));
+        return this;
+    }
+
+    public SceneEdit addBlocks(Collection<? extends Block> blocks) {
+        for (Block block : blocks) {
+            addBlock(block);
+        }
+        return this;
+    }
+
+    public SceneEdit addUnitSphere(UnitSphere sphere) {
+        checkOpen();
+        Vector3 pos = sphere.getGridPosition();
+        ops.add(new Op(sphere, (int) pos.x, (int) pos.y, (int) pos.z));
+        return this;
+    }
+
+    public SceneEdit addUnitLight(UnitLight light) {
+        checkOpen();
+        Vector3 pos = light.getGridPosition();
+        ops.add(new Op(light, (int) pos.x, (int) pos.y, (int) pos.z));
+        lights.add(light);
+        return this;
+    }
+
+    public SceneEdit removeObject(int x, int y, int z) {
+        checkOpen();
+        ops.add(new Op(null, x, y, z));
+        return this;
+    }
+
+    public SceneEdit setSkybox(Skybox skybox) {
+        checkOpen();
+        this.skybox = skybox;
+        return this;
+    }
+
+    /**
+     * Number of grid changes recorded so far
+     */
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * Apply all recorded changes to the scene and publish them as one snapshot
+     */
+    public void commit() {
+        checkOpen();
+        committed = true;
+        scene.apply(this);
+    }
+
+    List<Op> getOps() {
+        return ops;
+    }
+
+    List<UnitLight> getLights() {
+        return lights;
+    }
+
+    Skybox getSkybox() {
+        return skybox;
+    }
+
+    private void checkOpen() {
+        if (committed) {
+            throw new IllegalStateException("Edit has already been committed");
+        }
+    }
+
+    /**
+     * One grid change: store an object in a cell, or clear the cell when object is null
+     */
+    static final class Op {
+        final Renderable object;
+        final int x, y, z;
+
+        Op(Renderable object, int x, int y, int z) {
+            this.object = object;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+}
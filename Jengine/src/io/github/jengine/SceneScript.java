@@ -0,0 +1,171 @@
+package io.github.jengine;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SceneScript describes a scene as terrain seeds plus edits, small enough to
+ * send to another process that rebuilds the same scene.
+ * <p>
+ * Each command is one line of text; lines starting with '#' are comments.
+ * <pre>
+ * terrain &lt;seed&gt; &lt;minX&gt; &lt;maxX&gt; &lt;minZ&gt; &lt;maxZ&gt; &lt;resolution&gt;
+ * flat &lt;seed&gt; &lt;minX&gt; &lt;maxX&gt; &lt;minZ&gt; &lt;maxZ&gt;
+ * block &lt;grass|dirt|stone|bedrock&gt; &lt;x&gt; &lt;y&gt; &lt;z&gt;
+ * sphere &lt;x&gt; &lt;y&gt; &lt;z&gt; &lt;rgb&gt; &lt;reflectivity&gt; &lt;refractivity&gt; &lt;refractiveIndex&gt;
+ * light &lt;x&gt; &lt;y&gt; &lt;z&gt; &lt;rgb&gt; &lt;intensity&gt;
+ * remove &lt;x&gt; &lt;y&gt; &lt;z&gt;
+ * </pre>
+ * Colors are hexadecimal RGB. Commands are replayed in order, so the same
+ * script always produces the same scene.
+ */
+public class SceneScript {
+    private final List<String> lines = new ArrayList<>();
+
+    public SceneScript addTerrain(long seed, int minX, int maxX, int minZ, int maxZ, int resolution) {
+        return add("terrain " + seed + " " + minX + " " + maxX + " " + minZ + " " + maxZ + " " + resolution);
+    }
+
+    public SceneScript addFlatTerrain(long seed, int minX, int maxX, int minZ, int maxZ) {
+        return add("flat " + seed + " " + minX + " " + maxX + " " + minZ + " " + maxZ);
+    }
+
+    public SceneScript addBlock(String type, int x, int y, int z) {
+        createBlock(type, new Vector3(x, y, z));
+        return add("block " + type + " " + x + " " + y + " " + z);
+    }
+
+    public SceneScript addUnitSphere(int x, int y, int z, Material material) {
+        return add("sphere " + x + " " + y + " " + z + " " + hex(material.color) + " " + material.reflectivity
+                   + " " + material.refractivity + " " + material.refractiveIndex);
+    }
+
+    public SceneScript addUnitLight(int x, int y, int z, Color color, double intensity) {
+        return add("light " + x + " " + y + " " + z + " " + hex(color) + " " + intensity);
+    }
+
+    public SceneScript removeObject(int x, int y, int z) {
+        return add("remove " + x + " " + y + " " + z);
+    }
+
+    /**
+     * Parse a script produced by {@link #toString()}; malformed commands are reported when it is applied
+     */
+    public static SceneScript parse(String text) {
+        SceneScript script = new SceneScript();
+        for (String line : text.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            script.lines.add(line);
+        }
+        return script;
+    }
+
+    /**
+     * Build a new scene from this script
+     */
+    public Scene build(ChunkMemory memory) {
+        Scene scene = new Scene(memory);
+        applyTo(scene);
+        return scene;
+    }
+
+    /**
+     * Replay every command on a scene as one edit
+     */
+    public void applyTo(Scene scene) {
+        SceneEdit edit = scene.beginEdit();
+        for (String line : lines) {
+            replay(line, edit);
+        }
+        edit.commit();
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    /**
+     * The script as text, one command per line
+     */
+    @Override
+    public String toString() {
+        return String.join("\n", lines);
+    }
+
+    private SceneScript add(String line) {
+        lines.add(line);
+        return this;
+    }
+
+    private void replay(String line, SceneEdit edit) {
+        String[] f = line.split("\\s+");
+        try {
+            switch (f[0]) {
+                case "terrain":
+                    expect(f, 7);
+                    edit.addBlocks(new TerrainGenerator(Long.parseLong(f[1])).generateTerrain(
+                        num(f[2]), num(f[3]), num(f[4]), num(f[5]), num(f[6])));
+                    break;
+                case "flat":
+                    expect(f, 6);
+                    edit.addBlocks(new TerrainGenerator(Long.parseLong(f[1])).generateFlatTerrain(
+                        num(f[2]), num(f[3]), num(f[4]), num(f[5])));
+                    break;
+                case "block":
+                    expect(f, 5);
+                    edit.addBlock(createBlock(f[1], new Vector3(num(f[2]), num(f[3]), num(f[4]))));
+                    break;
+                case "sphere":
+                    expect(f, 8);
+                    edit.addUnitSphere(new UnitSphere(num(f[1]), num(f[2]), num(f[3]), new Material(
+                        color(f[4]), Double.parseDouble(f[5]), Double.parseDouble(f[6]), Double.parseDouble(f[7]))));
+                    break;
+                case "light":
+                    expect(f, 6);
+                    edit.addUnitLight(new UnitLight(num(f[1]), num(f[2]), num(f[3]), color(f[4]),
+                                                    Double.parseDouble(f[5])));
+                    break;
+                case "remove":
+                    expect(f, 4);
+                    edit.removeObject(num(f[1]), num(f[2]), num(f[3]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad number in scene command: " + line, e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(e.getMessage() + ": " + line, e);
+        }
+    }
+
+    private static Block createBlock(String type, Vector3 position) {
+        switch (type) {
+            case "grass": return new GrassBlock(position);
+            case "dirt": return new DirtBlock(position);
+            case "stone": return new StoneBlock(position);
+            case "bedrock": return new BedrockBlock(position);
+            default: throw new IllegalArgumentException("Unknown block type " + type);
+        }
+    }
+
+    private static void expect(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException("Expected " + (count - 1) + " arguments");
+        }
+    }
+
+    private static int num(String field) {
+        return Integer.parseInt(field);
+    }
+
+    private static Color color(String field) {
+        return new Color(Integer.parseInt(field, 16));
+    }
+
+    private static String hex(Color color) {
+        return String.format("%06x", color.getRGB() & 0xFFFFFF);
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.jengine;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ShadowBenchmark checks the height-map shadow test against full intersection
+ * and compares their speed.
+ * <p>
+ * Random shadow rays run from terrain surfaces to points on lights (and, for
+ * a quarter of them, to arbitrary points) over seeded terrain with spheres and
+ * lights. {@link Scene#isOccluded} must agree with {@link Scene#intersect(Ray)}
+ * on every ray: occluded exactly when the closest hit lies within the ray's
+ * length and is not the target light. After each round the terrain is dug and
+ * built on, so the height map's refresh on publish is checked as well.
+ * <p>
+ * Usage: java io.github.jengine.ShadowBenchmark [rays rounds]
+ * <br>Exits with status 1 if any ray disagrees.
+ */
+public class ShadowBenchmark {
+    private static final int EXTENT = 30;
+
+    public static void main(String[] args) {
+        int rays = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Random random = new Random(3);
+        Scene scene = new Scene();
+        scene.addBlocks(new TerrainGenerator(7L).generateTerrain(-EXTENT, EXTENT, -EXTENT, EXTENT, 1));
+        List<UnitLight> lights = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            UnitLight light = new UnitLight(random.nextInt(50) - 25, 60 + random.nextInt(40), random.nextInt(50) - 25,
+                                            Color.WHITE, 1);
+            scene.addUnitLight(light);
+            lights.add(light);
+        }
+        for (int i = 0; i < 10; i++) {
+            scene.addUnitSphere(new UnitSphere(random.nextInt(50) - 25, 70 + random.nextInt(20), random.nextInt(50) - 25,
+                                               new Material(Color.RED, 0, 0, 1)));
+        }
+        System.out.println(scene.getGridStats());
+
+        int totalMismatches = 0;
+        for (int round = 0; round < rounds; round++) {
+            List<Ray> shadowRays = new ArrayList<>(rays);
+            List<Double> lengths = new ArrayList<>(rays);
+            List<UnitLight> targets = new ArrayList<>(rays);
+            while (shadowRays.size() < rays) {
+                int x = random.nextInt(2 * EXTENT) - EXTENT, z = random.nextInt(2 * EXTENT) - EXTENT;
+                int top = scene.getColumnHeight(x, z);
+                if (top == Integer.MIN_VALUE) continue;
+
+                Vector3 origin = new Vector3(x + random.nextDouble() - 0.5, top + 0.501, z + random.nextDouble() - 0.5);
+                UnitLight light = lights.get(random.nextInt(lights.size()));
+                Vector3 end = random.nextInt(4) == 0
+                    ? new Vector3(random.nextDouble() * 80 - 40, random.nextDouble() * 100, random.nextDouble() * 80 - 40)
+                    : light.position.add(new Vector3(random.nextDouble() - 0.5, random.nextDouble() - 0.5,
+                                                     random.nextDouble() - 0.5));
+                Vector3 toEnd = end.subtract(origin);
+                shadowRays.add(new Ray(origin, toEnd));
+                lengths.add(toEnd.length());
+                targets.add(light);
+            }
+
+            // Verify before timing
+            int mismatches = 0;
+            int occluded = 0;
+            for (int i = 0; i < rays; i++) {
+                Ray ray = shadowRays.get(i);
+                Intersection hit = scene.intersect(ray);
+                boolean expected = hit != null && hit.object != targets.get(i) && hit.distance <= lengths.get(i);
+                boolean actual = scene.isOccluded(ray, lengths.get(i), targets.get(i));
+                if (actual) occluded++;
+                if (actual != expected) {
+                    if (mismatches++ < 5) {
+                        System.out.printf("  Mismatch: origin %.3f %.3f %.3f, expected %b%n",
+                                          ray.origin.x, ray.origin.y, ray.origin.z, expected);
+                    }
+                }
+            }
+            totalMismatches += mismatches;
+            System.out.printf("Round %d: mismatched shadow rays: %d of %d (%d occluded)%n",
+                              round, mismatches, rays, occluded);
+
+            long start = System.nanoTime();
+            int hits = 0;
+            for (int i = 0; i < rays; i++) {
+                Intersection hit = scene.intersect(shadowRays.get(i));
+                if (hit != null && hit.object != targets.get(i) && hit.distance <= lengths.get(i)) hits++;
+            }
+            double intersectSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            for (int i = 0; i < rays; i++) {
+                if (scene.isOccluded(shadowRays.get(i), lengths.get(i), targets.get(i))) hits--;
+            }
+            double occludedSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  intersect: %.1f ms, isOccluded: %.1f ms (%.2fx)%s%n",
+                              intersectSeconds * 1000, occludedSeconds * 1000, intersectSeconds / occludedSeconds,
+                              hits == 0 ? "" : " (counts differ)");
+
+            // Dig and build so the next round sees a height map refreshed by publish
+            for (int i = 0; i < 300; i++) {
+                int x = random.nextInt(2 * EXTENT) - EXTENT, z = random.nextInt(2 * EXTENT) - EXTENT;
+                int top = scene.getColumnHeight(x, z);
+                if (top == Integer.MIN_VALUE) continue;
+                if (random.nextBoolean()) {
+                    scene.removeObject(x, top, z);
+                } else {
+                    scene.addBlock(new StoneBlock(new Vector3(x, top + 1 + random.nextInt(5), z)));
+                }
+            }
+        }
+
+        if (totalMismatches > 0) {
+            System.exit(1);
+        }
+    }
+}
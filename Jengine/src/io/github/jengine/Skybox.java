@@ -4,85 +4,171 @@ import java.awt.Color;
 
 /**
  * Skybox provides a procedural sky gradient similar to Minecraft.
+ * <p>
+ * The gradient and sun glow are baked once per configuration into a small
+ * cube map of packed RGB values. Lookups use bilinear filtering within a face
+ * and cost a few array reads with no allocation.
  */
 public class Skybox {
+    // Texels along each edge of a cube map face
+    private static final int FACE_SIZE = 64;
+
     private final Color horizonColor;
     private final Color zenithColor;
     private final Color sunColor;
     private final Vector3 sunDirection;
-    
+
+    // Faces +X, -X, +Y, -Y, +Z, -Z, each FACE_SIZE * FACE_SIZE packed RGB
+    private final int[] cubeMap = new int[6 * FACE_SIZE * FACE_SIZE];
+
     public Skybox() {
         // Minecraft-like sky colors
         this.horizonColor = new Color(135, 206, 235); // Sky blue
         this.zenithColor = new Color(30, 144, 255);   // Deeper blue
         this.sunColor = new Color(255, 255, 200);     // Warm white
         this.sunDirection = new Vector3(0.3, 0.8, 0.5).normalize(); // Sun position
+        bakeCubeMap();
     }
-    
+
     public Skybox(Color horizonColor, Color zenithColor, Color sunColor, Vector3 sunDirection) {
         this.horizonColor = horizonColor;
         this.zenithColor = zenithColor;
         this.sunColor = sunColor;
         this.sunDirection = sunDirection.normalize();
+        bakeCubeMap();
     }
-    
+
     /**
      * Get the sky color for a given ray direction
      */
     public Color getSkyColor(Vector3 direction) {
-        direction = direction.normalize();
-        
-        // Calculate the vertical gradient (horizon to zenith)
-        double height = Math.max(0, direction.y); // 0 at horizon, 1 at zenith
-        
-        // Interpolate between horizon and zenith colors
-        Color baseColor = interpolateColor(horizonColor, zenithColor, height);
-        
-        // Add sun glow effect
-        double sunDot = Math.max(0, direction.dot(sunDirection));
-        double sunIntensity = Math.pow(sunDot, 16); // Sharp sun disc
-        double sunGlow = Math.pow(sunDot, 4) * 0.3; // Soft glow around sun
-        
-        // Blend sun color with base sky color
-        if (sunIntensity > 0.1 || sunGlow > 0) {
-            Color sunContrib = multiplyColor(sunColor, sunIntensity + sunGlow);
-            baseColor = addColors(baseColor, sunContrib);
-        }
-        
-        return baseColor;
+        return new Color(getSkyRGB(direction.x, direction.y, direction.z));
     }
-    
+
     /**
-     * Linear interpolation between two colors
+     * Get the baked sky color for a given ray direction as packed RGB
      */
-    private Color interpolateColor(Color a, Color b, double t) {
-        t = Math.max(0, Math.min(1, t)); // Clamp t to [0,1]
-        
-        int r = (int) (a.getRed() * (1 - t) + b.getRed() * t);
-        int g = (int) (a.getGreen() * (1 - t) + b.getGreen() * t);
-        int blue = (int) (a.getBlue() * (1 - t) + b.getBlue() * t);
-        
-        return new Color(Math.min(255, r), Math.min(255, g), Math.min(255, blue));
+    public int getSkyRGB(Vector3 direction) {
+        return getSkyRGB(direction.x, direction.y, direction.z);
     }
-    
+
     /**
-     * Multiply a color by a scalar
+     * Get the baked sky color as packed RGB. The direction does not need to be normalized.
      */
-    private Color multiplyColor(Color color, double multiplier) {
-        int r = (int) Math.min(255, color.getRed() * multiplier);
-        int g = (int) Math.min(255, color.getGreen() * multiplier);
-        int b = (int) Math.min(255, color.getBlue() * multiplier);
-        return new Color(r, g, b);
+    public int getSkyRGB(double dx, double dy, double dz) {
+        double ax = Math.abs(dx);
+        double ay = Math.abs(dy);
+        double az = Math.abs(dz);
+
+        // Project onto the face of the dominant axis
+        int face;
+        double u, v;
+        if (ax >= ay && ax >= az) {
+            face = dx >= 0 ? 0 : 1;
+            u = dy / ax;
+            v = dz / ax;
+        } else if (ay >= az) {
+            face = dy >= 0 ? 2 : 3;
+            u = dx / ay;
+            v = dz / ay;
+        } else {
+            face = dz >= 0 ? 4 : 5;
+            u = dx / az;
+            v = dy / az;
+        }
+        if (Double.isNaN(u) || Double.isNaN(v)) {
+            return cubeMap[0];
+        }
+
+        // Texel space, with texel centers at integer coordinates
+        double s = (u + 1) * 0.5 * FACE_SIZE - 0.5;
+        double t = (v + 1) * 0.5 * FACE_SIZE - 0.5;
+        int s0 = (int) Math.floor(s);
+        int t0 = (int) Math.floor(t);
+        double fs = s - s0;
+        double ft = t - t0;
+        int s1 = clampTexel(s0 + 1);
+        int t1 = clampTexel(t0 + 1);
+        s0 = clampTexel(s0);
+        t0 = clampTexel(t0);
+
+        int base = face * FACE_SIZE * FACE_SIZE;
+        int c00 = cubeMap[base + t0 * FACE_SIZE + s0];
+        int c10 = cubeMap[base + t0 * FACE_SIZE + s1];
+        int c01 = cubeMap[base + t1 * FACE_SIZE + s0];
+        int c11 = cubeMap[base + t1 * FACE_SIZE + s1];
+
+        double w00 = (1 - fs) * (1 - ft);
+        double w10 = fs * (1 - ft);
+        double w01 = (1 - fs) * ft;
+        double w11 = fs * ft;
+
+        int r = (int) (((c00 >> 16) & 0xFF) * w00 + ((c10 >> 16) & 0xFF) * w10
+                     + ((c01 >> 16) & 0xFF) * w01 + ((c11 >> 16) & 0xFF) * w11 + 0.5);
+        int g = (int) (((c00 >> 8) & 0xFF) * w00 + ((c10 >> 8) & 0xFF) * w10
+                     + ((c01 >> 8) & 0xFF) * w01 + ((c11 >> 8) & 0xFF) * w11 + 0.5);
+        int b = (int) ((c00 & 0xFF) * w00 + (c10 & 0xFF) * w10
+                     + (c01 & 0xFF) * w01 + (c11 & 0xFF) * w11 + 0.5);
+
+        return (Math.min(255, r) << 16) | (Math.min(255, g) << 8) | Math.min(255, b);
     }
-    
+
+    private static int clampTexel(int i) {
+        return i < 0 ? 0 : (i >= FACE_SIZE ? FACE_SIZE - 1 : i);
+    }
+
     /**
-     * Add two colors together (clamped)
+     * Evaluate the procedural sky at every texel center of the cube map
      */
-    private Color addColors(Color a, Color b) {
-        int r = Math.min(255, a.getRed() + b.getRed());
-        int g = Math.min(255, a.getGreen() + b.getGreen());
-        int blue = Math.min(255, a.getBlue() + b.getBlue());
-        return new Color(r, g, blue);
+    private void bakeCubeMap() {
+        for (int face = 0; face < 6; face++) {
+            double sign = (face & 1) == 0 ? 1 : -1;
+            int base = face * FACE_SIZE * FACE_SIZE;
+
+            for (int t = 0; t < FACE_SIZE; t++) {
+                double v = (t + 0.5) / FACE_SIZE * 2 - 1;
+                for (int s = 0; s < FACE_SIZE; s++) {
+                    double u = (s + 0.5) / FACE_SIZE * 2 - 1;
+
+                    double dx, dy, dz;
+                    switch (face >> 1) {
+                        case 0:  dx = sign; dy = u; dz = v; break;
+                        case 1:  dx = u; dy = sign; dz = v; break;
+                        default: dx = u; dy = v; dz = sign; break;
+                    }
+                    double len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+                    cubeMap[base + t * FACE_SIZE + s] = evaluateSky(dx / len, dy / len, dz / len);
+                }
+            }
+        }
     }
-}
 
+    /**
+     * Evaluate the procedural sky for a normalized direction as packed RGB
+     */
+    private int evaluateSky(double dx, double dy, double dz) {
+        // Calculate the vertical gradient (horizon to zenith)
+        double height = Math.max(0, Math.min(1, dy)); // 0 at horizon, 1 at zenith
+
+        // Interpolate between horizon and zenith colors
+        int r = Math.min(255, (int) (horizonColor.getRed() * (1 - height) + zenithColor.getRed() * height));
+        int g = Math.min(255, (int) (horizonColor.getGreen() * (1 - height) + zenithColor.getGreen() * height));
+        int b = Math.min(255, (int) (horizonColor.getBlue() * (1 - height) + zenithColor.getBlue() * height));
+
+        // Add sun glow effect
+        double sunDot = Math.max(0, dx * sunDirection.x + dy * sunDirection.y + dz * sunDirection.z);
+        double sunIntensity = Math.pow(sunDot, 16); // Sharp sun disc
+        double sunGlow = Math.pow(sunDot, 4) * 0.3; // Soft glow around sun
+
+        // Blend sun color with base sky color
+        if (sunIntensity > 0.1 || sunGlow > 0) {
+            double multiplier = sunIntensity + sunGlow;
+            r = Math.min(255, r + (int) Math.min(255, sunColor.getRed() * multiplier));
+            g = Math.min(255, g + (int) Math.min(255, sunColor.getGreen() * multiplier));
+            b = Math.min(255, b + (int) Math.min(255, sunColor.getBlue() * multiplier));
+        }
+
+        return (r << 16) | (g << 8) | b;
+    }
+}
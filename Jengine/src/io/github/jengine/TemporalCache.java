@@ -0,0 +1,161 @@
+package io.github.jengine;
+
+/**
+ * TemporalCache keeps the previous frame's per-pixel hit position, normal and
+ * shaded color so that a moving camera can reuse shading it has already done.
+ * <p>
+ * For each new pixel the renderer traces only the primary ray, then projects
+ * the hit point into the previous camera. If the history pixel it lands on saw
+ * the same surface (matching position and normal), its color is reused and no
+ * lighting or secondary rays are traced. Disocclusions, view-dependent
+ * (reflective or refractive) surfaces and a rotating subset of pixels are
+ * shaded from scratch, so stale history is refreshed every few frames.
+ */
+public class TemporalCache {
+    // One in REFRESH_PERIOD pixels is re-shaded every frame regardless of history
+    private static final int REFRESH_PERIOD = 8;
+    private static final double NORMAL_TOLERANCE = 0.99;
+    // Allowed distance between old and new hit points, in pixel footprints at the hit's depth
+    private static final double POSITION_TOLERANCE = 4.0;
+
+    private int width, height;
+    private long sceneVersion = -1;
+    private int frameIndex;
+
+    // History (previous frame) and the frame being written, swapped at the end of each frame
+    private Buffer history = new Buffer(0);
+    private Buffer current = new Buffer(0);
+
+    // Previous camera pose
+    private Vector3 cameraPosition, cameraForward, cameraRight, cameraUp;
+    private double tanHalfFov, aspect;
+
+    private int reusedPixels;
+
+    /**
+     * Prepare for a new frame; history is dropped if the size or scene changed
+     */
+    public void beginFrame(int width, int height, long sceneVersion) {
+        if (width != this.width || height != this.height || sceneVersion != this.sceneVersion) {
+            this.width = width;
+            this.height = height;
+            this.sceneVersion = sceneVersion;
+            history = new Buffer(width * height);
+            current = new Buffer(width * height);
+            cameraPosition = null;
+        }
+        frameIndex++;
+        reusedPixels = 0;
+    }
+
+    /**
+     * Drop all history so the next frame is shaded from scratch
+     */
+    public void invalidate() {
+        sceneVersion = -1;
+    }
+
+    /**
+     * Whether the pixel falls in this frame's rotating refresh subset
+     */
+    public boolean isRefreshPixel(int x, int y) {
+        return (x + y * 3 + frameIndex) % REFRESH_PERIOD == 0;
+    }
+
+    /**
+     * Look up a reusable color for a primary hit, or return -1 if it must be shaded
+     */
+    public int lookup(Intersection hit) {
+        if (cameraPosition == null) return -1;
+
+        Material m = hit.object.material;
+        if (m.reflectivity > 0 || m.refractivity > 0) return -1; // View-dependent
+
+        // Project the hit point into the previous camera
+        Vector3 toPoint = hit.point.subtract(cameraPosition);
+        double z = toPoint.dot(cameraForward);
+        if (z <= 1e-6) return -1;
+
+        double px = toPoint.dot(cameraRight) / z / (tanHalfFov * aspect);
+        double py = toPoint.dot(cameraUp) / z / tanHalfFov;
+        int x = (int) Math.floor((px + 1) * 0.5 * width);
+        int y = (int) Math.floor((1 - py) * 0.5 * height);
+        if (x < 0 || x >= width || y < 0 || y >= height) return -1;
+
+        int index = y * width + x;
+        if (!history.valid[index]) return -1;
+
+        // Same surface: normals agree and the stored point is close, relative to its depth
+        double normalDot = hit.normal.x * history.normalX[index]
+                         + hit.normal.y * history.normalY[index]
+                         + hit.normal.z * history.normalZ[index];
+        if (normalDot < NORMAL_TOLERANCE) return -1;
+
+        double dx = hit.point.x - history.positionX[index];
+        double dy = hit.point.y - history.positionY[index];
+        double dz = hit.point.z - history.positionZ[index];
+        double tolerance = POSITION_TOLERANCE * 2 * tanHalfFov * z / height + 1e-3;
+        if (dx * dx + dy * dy + dz * dz > tolerance * tolerance) return -1;
+
+        reusedPixels++;
+        return history.color[index];
+    }
+
+    /**
+     * Record the result for a pixel of the current frame (hit may be null for sky)
+     */
+    public void store(int x, int y, Intersection hit, int color) {
+        int index = y * width + x;
+        current.valid[index] = hit != null;
+        current.color[index] = color;
+        if (hit != null) {
+            current.positionX[index] = (float) hit.point.x;
+            current.positionY[index] = (float) hit.point.y;
+            current.positionZ[index] = (float) hit.point.z;
+            current.normalX[index] = (float) hit.normal.x;
+            current.normalY[index] = (float) hit.normal.y;
+            current.normalZ[index] = (float) hit.normal.z;
+        }
+    }
+
+    /**
+     * Make the finished frame the history for the next one
+     */
+    public void endFrame(Vector3 position, Vector3 forward, Vector3 right, Vector3 up, double fov) {
+        Buffer swap = history;
+        history = current;
+        current = swap;
+
+        cameraPosition = position;
+        cameraForward = forward;
+        cameraRight = right;
+        cameraUp = up;
+        tanHalfFov = Math.tan(fov / 2);
+        aspect = (double) width / height;
+    }
+
+    /**
+     * Fraction of pixels in the last frame that reused history
+     */
+    public double getReuseRatio() {
+        return width * height > 0 ? (double) reusedPixels / (width * height) : 0;
+    }
+
+    private static final class Buffer {
+        final float[] positionX, positionY, positionZ;
+        final float[] normalX, normalY, normalZ;
+        final int[] color;
+        final boolean[] valid;
+
+        Buffer(int size) {
+            positionX = new float[size];
+            positionY = new float[size];
+            positionZ = new float[size];
+            normalX = new float[size];
+            normalY = new float[size];
+            normalZ = new float[size];
+            color = new int[size];
+            valid = new boolean[size];
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package io.github.jengine;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TileCoordinator renders frames by splitting them into tiles and farming the
+ * tiles out to {@link TileWorker} processes over sockets.
+ * <p>
+ * The scene is shipped once, as a {@link SceneScript}, when the coordinator
+ * connects; each worker rebuilds it in its own JVM and heap. Per frame only the
+ * camera and settings are sent, followed by tile jobs, and workers stream back
+ * packed RGB rows. Two tiles are kept in flight per worker so it never waits for
+ * a round trip.
+ * <p>
+ * Load is balanced by work stealing: each worker starts with a contiguous run
+ * of tiles and, once its own run is done, steals from the far end of the
+ * longest remaining run. Tiles held by a worker that disconnects go back to the
+ * queues and are finished by the others.
+ * <p>
+ * Usage: java io.github.jengine.TileCoordinator [--workers N] [--connect host:port,...]
+ * [--frames N] [--size WxH] [output directory]
+ * <br>Renders an orbit around mirror and glass spheres, with N local workers (default 2)
+ * unless worker addresses are given, and writes one PNG per frame.
+ */
+public class TileCoordinator implements Closeable {
+    public static final int DEFAULT_TILE_SIZE = 32;
+    private static final int TILES_IN_FLIGHT = 2;
+
+    private final List<Connection> workers = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+    private final ExecutorService pool;
+    private TraceSettings traceSettings = TraceSettings.DEFAULT;
+    private boolean levelOfDetail = true;
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private final AtomicLong stolenTiles = new AtomicLong();
+
+    /**
+     * Connect to running workers and send each of them the scene
+     */
+    public TileCoordinator(SceneScript script, List<InetSocketAddress> addresses) throws IOException {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        pool = Executors.newFixedThreadPool(addresses.size(), runnable -> {
+            Thread thread = new Thread(runnable, "TileCoordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (InetSocketAddress address : addresses) {
+                workers.add(new Connection(address));
+            }
+            // Send to all before waiting, so workers build the scene in parallel
+            byte[] text = script.toString().getBytes(StandardCharsets.UTF_8);
+            for (Connection worker : workers) {
+                worker.out.writeByte(TileWorker.SCENE);
+                worker.out.writeInt(text.length);
+                worker.out.write(text);
+                worker.out.flush();
+            }
+            for (Connection worker : workers) {
+                worker.expect(TileWorker.SCENE);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start worker JVMs on this machine, with this JVM's class path, and connect to them
+     */
+    public static TileCoordinator spawnLocal(SceneScript script, int count) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> started = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                            TileWorker.class.getName(), "--once", "0");
+                builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+                started.add(builder.start());
+            }
+            for (Process process : started) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                String line = reader.readLine();
+                if (line == null) {
+                    throw new IOException("Worker process exited before listening");
+                }
+                int port = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+                addresses.add(new InetSocketAddress("localhost", port));
+            }
+            TileCoordinator coordinator = new TileCoordinator(script, addresses);
+            coordinator.processes.addAll(started);
+            return coordinator;
+        } catch (IOException | RuntimeException e) {
+            started.forEach(Process::destroy);
+            throw e;
+        }
+    }
+
+    public void setTraceSettings(TraceSettings traceSettings) {
+        this.traceSettings = traceSettings;
+    }
+
+    /**
+     * Enable or disable coarse levels of detail for distant primary ray hits (on by default)
+     */
+    public void setLevelOfDetail(boolean enabled) {
+        levelOfDetail = enabled;
+    }
+
+    /**
+     * Width and height of the square tiles frames are split into
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be >= 1: " + tileSize);
+        }
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Number of workers still connected
+     */
+    public synchronized int getWorkerCount() {
+        int live = 0;
+        for (Connection worker : workers) {
+            if (worker.alive) live++;
+        }
+        return live;
+    }
+
+    /**
+     * Tiles taken from another worker's run since the coordinator started
+     */
+    public long getStolenTiles() {
+        return stolenTiles.get();
+    }
+
+    /**
+     * Render one frame on the workers. The frame seed fixes light sampling and
+     * Russian roulette, so the same seed gives the same image however the tiles
+     * are distributed.
+     */
+    public synchronized BufferedImage render(Camera camera, int width, int height, long frameSeed)
+            throws IOException {
+        int[] pixels = new int[width * height];
+        List<int[]> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new int[] {tiles.size(), x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)});
+            }
+        }
+        TileQueues queues = new TileQueues(workers.size(), tiles);
+        TraceSettings settings = traceSettings;
+        boolean lod = levelOfDetail;
+
+        // Repeat while tiles were handed back by workers that dropped out
+        while (!queues.isEmpty()) {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < workers.size(); i++) {
+                Connection worker = workers.get(i);
+                if (!worker.alive) continue;
+                int index = i;
+                running.add(pool.submit(() -> {
+                    worker.renderTiles(index, queues, camera, settings, lod, width, height, frameSeed, pixels);
+                    return null;
+                }));
+            }
+            if (running.isEmpty()) {
+                throw new IOException("No workers left to render " + queues.size() + " tiles");
+            }
+            for (Future<?> task : running) {
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while rendering", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Tile rendering failed", e.getCause());
+                }
+            }
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * Tell the workers to quit and stop any worker processes this coordinator started
+     */
+    @Override
+    public synchronized void close() {
+        for (Connection worker : workers) {
+            worker.close();
+        }
+        pool.shutdownNow();
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(2, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Per-worker runs of tiles; a worker takes from the front of its own run and
+     * steals from the back of the longest other run
+     */
+    private class TileQueues {
+        private final List<ArrayDeque<int[]>> runs = new ArrayList<>();
+
+        TileQueues(int workerCount, List<int[]> tiles) {
+            for (int i = 0; i < workerCount; i++) {
+                runs.add(new ArrayDeque<>());
+            }
+            // Contiguous runs keep each worker on neighbouring tiles, which share cached chunks
+            int live = Math.max(1, getWorkerCount());
+            int next = 0;
+            for (int i = 0; i < workerCount; i++) {
+                if (!workers.get(i).alive) continue;
+                int end = (int) ((long) tiles.size() * (next + 1) / live);
+                for (int t = (int) ((long) tiles.size() * next / live); t < end; t++) {
+                    runs.get(i).add(tiles.get(t));
+                }
+                next++;
+            }
+            if (next == 0) {
+                runs.get(0).addAll(tiles);
+            }
+        }
+
+        synchronized int[] take(int worker) {
+            int[] tile = runs.get(worker).pollFirst();
+            if (tile != null) {
+                return tile;
+            }
+            ArrayDeque<int[]> victim = null;
+            for (ArrayDeque<int[]> run : runs) {
+                if (victim == null || run.size() > victim.size()) victim = run;
+            }
+            tile = victim.pollLast();
+            if (tile != null) {
+                stolenTiles.incrementAndGet();
+            }
+            return tile;
+        }
+
+        synchronized void giveBack(int worker, Iterable<int[]> tiles) {
+            for (int[] tile : tiles) {
+                runs.get(worker).addFirst(tile);
+            }
+        }
+
+        synchronized int size() {
+            int size = 0;
+            for (ArrayDeque<int[]> run : runs) {
+                size += run.size();
+            }
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size() == 0;
+        }
+    }
+
+    /**
+     * Socket connection to one worker
+     */
+    private static class Connection {
+        final InetSocketAddress address;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        volatile boolean alive = true;
+        private byte[] rowBytes = new byte[0];
+
+        Connection(InetSocketAddress address) throws IOException {
+            this.address = address;
+            this.socket = new Socket(address.getHostString(), address.getPort());
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /**
+         * Send tiles and copy the returned rows into the frame until no tile is left to take or steal
+         */
+        void renderTiles(int index, TileQueues queues, Camera camera, TraceSettings settings, boolean levelOfDetail,
+                         int width, int height, long frameSeed, int[] pixels) {
+            ArrayDeque<int[]> inFlight = new ArrayDeque<>();
+            try {
+                TileWorker.writeFrame(out, frameSeed, width, height, camera, settings, levelOfDetail);
+                while (true) {
+                    while (inFlight.size() < TILES_IN_FLIGHT) {
+                        int[] tile = queues.take(index);
+                        if (tile == null) break;
+                        // Held before it is written, so a failed write still hands it back
+                        inFlight.add(tile);
+                        out.writeByte(TileWorker.TILE);
+                        for (int value : tile) {
+                            out.writeInt(value);
+                        }
+                    }
+                    out.flush();
+                    if (inFlight.isEmpty()) {
+                        return;
+                    }
+                    readTile(inFlight.peek(), width, pixels);
+                    inFlight.poll();
+                }
+            } catch (IOException e) {
+                System.err.println("Worker " + address + " dropped: " + e.getMessage());
+                close();
+                queues.giveBack(index, inFlight);
+            }
+        }
+
+        /**
+         * Read the next reply's message type, failing with the worker's reason if it reports an error
+         */
+        void expect(int message) throws IOException {
+            int reply = in.read();
+            if (reply == TileWorker.ERROR) {
+                throw new IOException("Worker " + address + " failed: " + in.readUTF());
+            }
+            if (reply != message) {
+                throw new IOException("Worker " + address + " sent " + reply + " instead of " + message);
+            }
+        }
+
+        private void readTile(int[] tile, int width, int[] pixels) throws IOException {
+            expect(TileWorker.TILE);
+            int index = in.readInt();
+            if (index != tile[0]) {
+                throw new IOException("Expected tile " + tile[0] + " but got " + index);
+            }
+            int tileX = tile[1], tileY = tile[2], tileW = tile[3], tileH = tile[4];
+            if (rowBytes.length < tileW * Integer.BYTES) {
+                rowBytes = new byte[tileW * Integer.BYTES];
+            }
+            IntBuffer row = ByteBuffer.wrap(rowBytes).asIntBuffer();
+            for (int y = 0; y < tileH; y++) {
+                in.readFully(rowBytes, 0, tileW * Integer.BYTES);
+                row.get(0, pixels, (tileY + y) * width + tileX, tileW);
+            }
+        }
+
+        void close() {
+            if (!alive) return;
+            alive = false;
+            try {
+                out.writeByte(TileWorker.QUIT);
+                out.flush();
+            } catch (IOException ignored) {
+                // Already gone
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int workerCount = 2;
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        int frames = 8;
+        int width = 640, height = 480;
+        File directory = new File("frames");
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers":
+                    workerCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--connect":
+                    for (String address : args[++i].split(",")) {
+                        int colon = address.lastIndexOf(':');
+                        addresses.add(new InetSocketAddress(address.substring(0, colon),
+                                                            Integer.parseInt(address.substring(colon + 1))));
+                    }
+                    break;
+                case "--frames":
+                    frames = Integer.parseInt(args[++i]);
+                    break;
+                case "--size":
+                    String[] size = args[++i].split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                    break;
+                default:
+                    directory = new File(args[i]);
+            }
+        }
+        SceneScript script = new SceneScript()
+            .addFlatTerrain(12345L, -10, 10, -10, 10)
+            .addUnitSphere(-1, 1, 0, new Material(new Color(230, 230, 230), 0.9, 0, 1))
+            .addUnitSphere(1, 1, 0, new Material(new Color(200, 220, 255), 0.1, 0.85, 1.5))
+            .addUnitLight(0, 8, 4, Color.WHITE, 2.0);
+        long start = System.nanoTime();
+        // PNG encoding runs beside the next frame's rendering instead of after it
+        try (TileCoordinator coordinator = addresses.isEmpty() ? spawnLocal(script, workerCount)
+                                                               : new TileCoordinator(script, addresses);
+             FrameOutput output = new FrameOutput(FrameOutput.pngFiles(directory), 2, 4)) {
+            System.out.printf("%d workers ready in %.0f ms%n", coordinator.getWorkerCount(),
+                              (System.nanoTime() - start) / 1e6);
+            Camera camera = new Camera();
+            for (int frame = 0; frame < frames; frame++) {
+                double angle = 2 * Math.PI * frame / frames;
+                camera.setPosition(new Vector3(5 * Math.sin(angle), 3, 5 * Math.cos(angle)));
+                camera.setDirection(new Vector3(-Math.sin(angle), -0.4, -Math.cos(angle)));
+
+                long frameStart = System.nanoTime();
+                BufferedImage image = coordinator.render(camera, width, height, frame);
+                double millis = (System.nanoTime() - frameStart) / 1e6;
+                output.submit(image);
+                System.out.printf("frame %d: %.1f ms, %d tiles stolen so far%n", frame, millis,
+                                  coordinator.getStolenTiles());
+            }
+        }
+    }
+}
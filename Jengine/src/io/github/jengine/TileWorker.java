@@ -0,0 +1,196 @@
+package io.github.jengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * TileWorker renders tiles of frames for a {@link TileCoordinator} in its own JVM.
+ * <p>
+ * The coordinator connects, sends the scene once as a {@link SceneScript}, then
+ * for each frame sends the camera and settings followed by tile jobs. The worker
+ * answers every tile with its packed RGB rows. Light sampling and Russian
+ * roulette are reseeded per tile, so a tile comes out the same whichever worker
+ * renders it. If a message fails (a scene that does not parse, say), the worker
+ * answers with an error carrying the reason and drops the connection.
+ * <p>
+ * Usage: java io.github.jengine.TileWorker [--once] [port]
+ * <br>Prints the port it listens on (port 0 picks a free one). Coordinators are
+ * served one at a time; with --once the worker exits after the first.
+ */
+public class TileWorker {
+    // Messages from the coordinator; the worker acknowledges SCENE and answers each TILE, or sends ERROR
+    static final int SCENE = 1;
+    static final int FRAME = 2;
+    static final int TILE = 3;
+    static final int QUIT = 4;
+    static final int ERROR = 5;
+    // Longest error reason sent, well within writeUTF's limit
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final Camera camera = new Camera();
+    private Scene scene;
+    private Renderer renderer;
+    private int width, height;
+    private long frameSeed;
+
+    public static void main(String[] args) throws IOException {
+        boolean once = false;
+        int port = 0;
+        for (String arg : args) {
+            if (arg.equals("--once")) {
+                once = true;
+            } else {
+                port = Integer.parseInt(arg);
+            }
+        }
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("TileWorker listening on port " + server.getLocalPort());
+            System.out.flush();
+            do {
+                try (Socket socket = server.accept()) {
+                    socket.setTcpNoDelay(true);
+                    new TileWorker().serve(socket);
+                } catch (IOException e) {
+                    System.err.println("TileWorker: " + e.getMessage());
+                }
+            } while (!once);
+        }
+    }
+
+    /**
+     * Answer one coordinator's messages until it quits or disconnects
+     */
+    void serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        try {
+            answer(in, out);
+        } catch (RuntimeException e) {
+            String reason = e.getMessage() != null ? e.getMessage() : e.toString();
+            if (reason.length() > MAX_ERROR_LENGTH) {
+                reason = reason.substring(0, MAX_ERROR_LENGTH);
+            }
+            out.writeByte(ERROR);
+            out.writeUTF(reason);
+            out.flush();
+            throw new IOException("Failed to answer the coordinator: " + reason, e);
+        }
+    }
+
+    private void answer(DataInputStream in, DataOutputStream out) throws IOException {
+        int[] pixels = new int[0];
+        ByteBuffer rows = ByteBuffer.allocate(0);
+        while (true) {
+            int message = in.read();
+            if (message < 0 || message == QUIT) {
+                return;
+            }
+            switch (message) {
+                case SCENE:
+                    byte[] text = new byte[in.readInt()];
+                    in.readFully(text);
+                    scene = SceneScript.parse(new String(text, StandardCharsets.UTF_8)).build(ChunkMemory.offHeap());
+                    renderer = new Renderer(scene, camera);
+                    out.writeByte(SCENE);
+                    out.flush();
+                    break;
+                case FRAME:
+                    readFrame(in);
+                    break;
+                case TILE:
+                    if (renderer == null) {
+                        throw new IOException("Tile requested before the scene was sent");
+                    }
+                    int tile = in.readInt();
+                    int tileX = in.readInt(), tileY = in.readInt();
+                    int tileW = in.readInt(), tileH = in.readInt();
+                    if (pixels.length < tileW * tileH) {
+                        pixels = new int[tileW * tileH];
+                        rows = ByteBuffer.allocate(pixels.length * Integer.BYTES);
+                    }
+                    seedLights(scene, frameSeed, tile);
+                    renderer.renderTile(width, height, tileX, tileY, tileW, tileH, pixels, rouletteSeed(frameSeed, tile));
+                    rows.clear();
+                    rows.asIntBuffer().put(pixels, 0, tileW * tileH);
+                    out.writeByte(TILE);
+                    out.writeInt(tile);
+                    out.write(rows.array(), 0, tileW * tileH * Integer.BYTES);
+                    out.flush();
+                    break;
+                default:
+                    throw new IOException("Unknown message " + message);
+            }
+        }
+    }
+
+    private void readFrame(DataInputStream in) throws IOException {
+        frameSeed = in.readLong();
+        width = in.readInt();
+        height = in.readInt();
+        camera.setPosition(readVector(in));
+        camera.setUp(readVector(in));
+        camera.setDirection(readVector(in));
+        camera.setFov(in.readDouble());
+        TraceSettings settings = new TraceSettings(in.readInt(), in.readDouble(), in.readInt());
+        boolean levelOfDetail = in.readBoolean();
+        if (renderer != null) {
+            renderer.setTraceSettings(settings);
+            renderer.setLevelOfDetail(levelOfDetail);
+        }
+    }
+
+    /**
+     * Write the frame message a worker expects for a camera and settings
+     */
+    static void writeFrame(DataOutputStream out, long frameSeed, int width, int height, Camera camera,
+                           TraceSettings settings, boolean levelOfDetail) throws IOException {
+        out.writeByte(FRAME);
+        out.writeLong(frameSeed);
+        out.writeInt(width);
+        out.writeInt(height);
+        writeVector(out, camera.getPosition());
+        writeVector(out, camera.getUp());
+        writeVector(out, camera.getDirection());
+        out.writeDouble(camera.getFov());
+        out.writeInt(settings.maxDepth);
+        out.writeDouble(settings.minContribution);
+        out.writeInt(settings.rouletteDepth);
+        out.writeBoolean(levelOfDetail);
+    }
+
+    /**
+     * Seed every light's sampler from the frame and tile, so tiles are reproducible on any worker
+     */
+    static void seedLights(Scene scene, long frameSeed, int tile) {
+        List<UnitLight> lights = scene.getLights();
+        long seed = frameSeed * 1_000_003L + (long) tile * lights.size();
+        for (int i = 0; i < lights.size(); i++) {
+            lights.get(i).setSeed(seed + i);
+        }
+    }
+
+    /**
+     * Seed of a tile's Russian-roulette decisions, kept apart from the light seeds
+     */
+    static long rouletteSeed(long frameSeed, int tile) {
+        return (frameSeed * 1_000_003L + tile) * 0x9E3779B97F4A7C15L;
+    }
+
+    private static Vector3 readVector(DataInputStream in) throws IOException {
+        return new Vector3(in.readDouble(), in.readDouble(), in.readDouble());
+    }
+
+    private static void writeVector(DataOutputStream out, Vector3 v) throws IOException {
+        out.writeDouble(v.x);
+        out.writeDouble(v.y);
+        out.writeDouble(v.z);
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.jengine;
+
+/**
+ * TraceSettings controls when secondary (reflection and refraction) rays are spawned.
+ * <p>
+ * Every ray carries a throughput: the weight its color has in the final pixel,
+ * i.e. the product of the reflectivity/refractivity factors along its path.
+ * Rays whose throughput falls below {@code minContribution} are never traced,
+ * and from {@code rouletteDepth} on, rays survive with a probability based on
+ * their throughput (Russian roulette) and have their weight scaled up to stay
+ * unbiased. This lets mirror and glass scenes bounce deeper than the default
+ * without the ray count growing exponentially.
+ */
+public class TraceSettings {
+    public static final int DEFAULT_MAX_DEPTH = 2;
+    public static final double DEFAULT_MIN_CONTRIBUTION = 1.0 / 255;
+
+    /** Default settings: depth 2, no roulette, skip rays worth less than one color step */
+    public static final TraceSettings DEFAULT =
+        new TraceSettings(DEFAULT_MAX_DEPTH, DEFAULT_MIN_CONTRIBUTION, Integer.MAX_VALUE);
+
+    // Upper bound on the survival probability so roulette always terminates
+    private static final double MAX_SURVIVAL = 0.95;
+
+    public final int maxDepth;
+    public final double minContribution;
+    public final int rouletteDepth;
+
+    public TraceSettings(int maxDepth, double minContribution, int rouletteDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth must be >= 0: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+        this.minContribution = minContribution;
+        this.rouletteDepth = rouletteDepth;
+    }
+
+    /**
+     * Probability with which a secondary ray at the given depth and throughput should be traced.
+     * Returns 0 if the ray is culled, 1 if it is always traced, or the roulette survival probability.
+     */
+    public double continueProbability(int depth, double throughput) {
+        if (depth > maxDepth || throughput < minContribution) return 0;
+        if (depth < rouletteDepth) return 1;
+        return Math.min(MAX_SURVIVAL, throughput);
+    }
+}
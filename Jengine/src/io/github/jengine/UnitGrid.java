@@ -1,110 +1,1594 @@
 package io.github.jengine;
 
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * UnitGrid provides a 3D unit grid for efficient spatial partitioning.
  * Everything is placed on integer coordinates with unit spacing.
  * Supports negative coordinates and optimizes rendering by culling hidden faces.
+ * <p>
+ * Edits are copy-on-write per chunk. After each edit (or batch of edits) the
+ * grid publishes an immutable snapshot that shares every untouched chunk with
+ * the previous one, so renders holding an older snapshot never see a partial
+ * edit and never block the writer. All queries on a live grid read its latest
+ * snapshot; {@link #acquire()} pins one for a whole frame.
+ * <p>
+ * Chunks dropped or replaced by an edit stay intact while a snapshot that shows
+ * them is held, and their memory is released once none is (see {@link ChunkMemory}).
  */
 public class UnitGrid {
-    private final Map<GridPosition, Renderable> grid;
+    // Largest footprint (in cells) a packet may cover in one slice before it is split into single rays
+    private static final int PACKET_FOOTPRINT_LIMIT = 64;
+    // Publishes remembered by getChangedChunks
+    private static final int CHANGE_LOG_SIZE = 64;
+    // Per cell of a chunk, one more than the cells between it and the nearest chunk face:
+    // an empty cube of radius d - 1 around the cell must stay inside the chunk
+    private static final byte[] BORDER_DISTANCE = new byte[GridChunk.VOLUME];
+    
+    static {
+        for (int index = 0; index < GridChunk.VOLUME; index++) {
+            int lx = index & GridChunk.MASK;
+            int lz = (index >> GridChunk.SHIFT) & GridChunk.MASK;
+            int ly = index >> (2 * GridChunk.SHIFT);
+            BORDER_DISTANCE[index] = (byte) (Math.min(Math.min(Math.min(lx, GridChunk.MASK - lx),
+                                                               Math.min(ly, GridChunk.MASK - ly)),
+                                                      Math.min(lz, GridChunk.MASK - lz)) + 1);
+        }
+    }
+
+    // Snapshots share both maps and copy only the paths to entries changed since
+    private final ChunkMap<GridChunk> chunks;
+    // Highest occupied cell of every grid column, in 16x16 tiles keyed like chunks with chunkY 0 and
+    // followed by the tile's maximum; rebuilt for the touched columns on publish and replaced rather
+    // than modified in place
+    private final ChunkMap<int[]> columnTops;
+    private final RenderStats stats;
+    private final ChunkMemory memory;
+    private int objectCount;
+    
+    // Conservative bounds of occupied cells (grown on insert, reset on clear)
+    private int minX, minY, minZ, maxX, maxY, maxZ;
+    
+    // Latest published snapshot; a snapshot points to itself
+    private volatile UnitGrid published;
+    // Chunks stamped with this epoch belong to the unpublished edit and may be written in place
+    private long writeEpoch = 1;
+    // Chunks touched since the last publish, refreshed once each when publishing
+    private final Set<Long> dirtyChunks = new HashSet<>();
+    private long lastDirtyKey;
+    // Epoch of the edit a snapshot shows (the live grid's writeEpoch when it was published)
+    private final long publishedEpoch;
+    // Whether a snapshot handed out by snapshot() holds its epoch until it is garbage collected
+    private boolean heldWhileReachable;
+    // Chunks changed by each recent publish, oldest first; null keys mean everything changed.
+    // Kept by the live grid only
+    private final ArrayDeque<ChunkChanges> changeLog;
+    private boolean changedEverything;
     
     public UnitGrid() {
-        this.grid = new HashMap<>();
+        this(new RenderStats());
+    }
+    
+    /**
+     * Create a grid that reports intersect calls, cells traversed and objects tested to stats
+     */
+    public UnitGrid(RenderStats stats) {
+        this(stats, ChunkMemory.HEAP);
+    }
+    
+    /**
+     * Create a grid whose chunks keep their cells in the given memory
+     */
+    public UnitGrid(RenderStats stats, ChunkMemory memory) {
+        memory.claim();
+        this.chunks = new ChunkMap<>();
+        this.columnTops = new ChunkMap<>();
+        this.stats = stats;
+        this.memory = memory;
+        this.publishedEpoch = 0;
+        this.changeLog = new ArrayDeque<>();
+        resetBounds();
+        publish();
+    }
+    
+    /**
+     * Immutable copy of a grid's current state, sharing its chunks and, until the
+     * source's next edit touches them, the maps' nodes
+     */
+    private UnitGrid(UnitGrid source) {
+        this.chunks = source.chunks.snapshot();
+        this.columnTops = source.columnTops.snapshot();
+        this.stats = source.stats;
+        this.memory = source.memory;
+        this.objectCount = source.objectCount;
+        this.minX = source.minX;
+        this.minY = source.minY;
+        this.minZ = source.minZ;
+        this.maxX = source.maxX;
+        this.maxY = source.maxY;
+        this.maxZ = source.maxZ;
+        this.publishedEpoch = source.writeEpoch;
+        this.changeLog = null;
+        this.published = this;
+    }
+    
+    /**
+     * The latest published state of this grid. It never changes, so it can be
+     * traversed by any number of threads while edits continue on the live grid.
+     * With off-heap memory the chunks it shows are kept until it is garbage
+     * collected; prefer {@link #acquire()} for snapshots with a known lifetime.
+     */
+    public UnitGrid snapshot() {
+        while (true) {
+            UnitGrid grid = published;
+            if (grid == this || grid.holdWhileReachable()) return grid;
+        }
+    }
+    
+    /**
+     * The latest published state of this grid, kept intact until {@link #release()}
+     * is called on it once. Acquiring a snapshot holds it again.
+     */
+    public UnitGrid acquire() {
+        while (true) {
+            UnitGrid grid = published;
+            if (grid.tryHold()) return grid;
+            if (grid == this) {
+                throw new IllegalStateException("Snapshot was already released");
+            }
+        }
+    }
+    
+    /**
+     * Release a snapshot taken with {@link #acquire()}
+     */
+    public void release() {
+        if (published != this) {
+            throw new IllegalStateException("Only snapshots can be released");
+        }
+        memory.release(publishedEpoch);
+    }
+    
+    /**
+     * Hold this snapshot once more, unless it has already been released for good
+     */
+    boolean tryHold() {
+        return memory.tryHold(publishedEpoch);
+    }
+    
+    /**
+     * Hold this snapshot until it is garbage collected, unless it has already been released for good
+     */
+    synchronized boolean holdWhileReachable() {
+        if (!heldWhileReachable) {
+            heldWhileReachable = memory.holdWhileReachable(this, publishedEpoch);
+        }
+        return heldWhileReachable;
+    }
+    
+    /**
+     * Run a query of the live grid on its latest snapshot, held meanwhile
+     */
+    private <T> T query(Function<UnitGrid, T> query) {
+        UnitGrid grid = acquire();
+        try {
+            return query.apply(grid);
+        } finally {
+            grid.release();
+        }
     }
     
     /**
      * Add an object to the grid at integer coordinates
      */
-    public void addObject(Renderable object, int x, int y, int z) {
-        GridPosition pos = new GridPosition(x, y, z);
-        grid.put(pos, object);
+    public synchronized void addObject(Renderable object, int x, int y, int z) {
+        put(object, x, y, z);
+        publish();
     }
     
     /**
      * Add a block to the grid (using its position)
      */
-    public void addBlock(Block block) {
+    public synchronized void addBlock(Block block) {
         GridPosition pos = worldToGrid(block.position);
-        grid.put(pos, block);
+        addObject(block, pos.x, pos.y, pos.z);
+    }
+    
+    /**
+     * Add many blocks and publish them as a single snapshot
+     */
+    public synchronized void addBlocks(Collection<? extends Block> blocks) {
+        for (Block block : blocks) {
+            GridPosition pos = worldToGrid(block.position);
+            put(block, pos.x, pos.y, pos.z);
+        }
+        publish();
     }
     
     /**
      * Remove an object from the grid
      */
-    public void removeObject(int x, int y, int z) {
-        GridPosition pos = new GridPosition(x, y, z);
-        grid.remove(pos);
+    public synchronized void removeObject(int x, int y, int z) {
+        remove(x, y, z);
+        publish();
+    }
+        
+    /**
+     * Apply a batch of stores and removes in order and publish once
+     */
+    synchronized void apply(List<SceneEdit.Op> ops) {
+        for (SceneEdit.Op op : ops) {
+            if (op.object != null) {
+                put(op.object, op.x, op.y, op.z);
+            } else {
+                remove(op.x, op.y, op.z);
+            }
+        }
+        publish();
+    }
+    
+    /**
+     * Store an object without publishing
+     */
+    private void put(Renderable object, int x, int y, int z) {
+        checkWritable();
+        if (!writableChunk(chunkKeyOf(x, y, z), x, y, z).set(x, y, z, object)) {
+            objectCount++;
+        }
+        markNeighborChunksDirty(x, y, z);
+        expandBounds(x, y, z);
+    }
+    
+    /**
+     * Clear a cell without publishing
+     */
+    private void remove(int x, int y, int z) {
+        checkWritable();
+        long key = chunkKeyOf(x, y, z);
+        GridChunk chunk = chunks.get(key);
+        if (chunk == null || !chunk.isOccupied(GridChunk.cellIndex(x, y, z))) return;
+        
+        writableChunk(key, x, y, z).set(x, y, z, null);
+        objectCount--;
+        markNeighborChunksDirty(x, y, z);
+    }
+    
+    /**
+     * A cell on a chunk border also changes the face masks of the adjacent chunk
+     */
+    private void markNeighborChunksDirty(int x, int y, int z) {
+        int cx = x >> GridChunk.SHIFT, cy = y >> GridChunk.SHIFT, cz = z >> GridChunk.SHIFT;
+        int lx = x & GridChunk.MASK, ly = y & GridChunk.MASK, lz = z & GridChunk.MASK;
+        if (lx == 0) dirtyChunks.add(GridChunk.key(cx - 1, cy, cz));
+        if (lx == GridChunk.MASK) dirtyChunks.add(GridChunk.key(cx + 1, cy, cz));
+        if (ly == 0) dirtyChunks.add(GridChunk.key(cx, cy - 1, cz));
+        if (ly == GridChunk.MASK) dirtyChunks.add(GridChunk.key(cx, cy + 1, cz));
+        if (lz == 0) dirtyChunks.add(GridChunk.key(cx, cy, cz - 1));
+        if (lz == GridChunk.MASK) dirtyChunks.add(GridChunk.key(cx, cy, cz + 1));
+    }
+    
+    /**
+     * The chunk holding a cell, copied first if it is shared with a published snapshot
+     */
+    private GridChunk writableChunk(long key, int x, int y, int z) {
+        if (dirtyChunks.isEmpty() || key != lastDirtyKey) {
+            dirtyChunks.add(key);
+            lastDirtyKey = key;
+        }
+        
+        GridChunk chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = new GridChunk(x >> GridChunk.SHIFT, y >> GridChunk.SHIFT, z >> GridChunk.SHIFT, writeEpoch, memory);
+            chunks.put(key, chunk);
+        } else if (chunk.epoch != writeEpoch) {
+            chunk.retire(writeEpoch);
+            chunk = chunk.copy(writeEpoch);
+            chunks.put(key, chunk);
+        }
+        return chunk;
+    }
+    
+    /**
+     * Refresh every chunk touched since the last publish, then make the current
+     * state visible to readers; later edits copy the chunks they touch
+     */
+    private void publish() {
+        changeLog.addLast(new ChunkChanges(writeEpoch, changedEverything ? null : new HashSet<>(dirtyChunks)));
+        if (changeLog.size() > CHANGE_LOG_SIZE) {
+            changeLog.removeFirst();
+        }
+        changedEverything = false;
+        
+        Set<Long> dirtyColumns = new HashSet<>();
+        for (long key : dirtyChunks) {
+            refreshChunk(key);
+            dirtyColumns.add(key & ~(0x1FFFFFL << 21));
+        }
+        dirtyChunks.clear();
+        for (long column : dirtyColumns) {
+            updateColumnTops(column);
+        }
+        
+        UnitGrid previous = published;
+        UnitGrid next = new UnitGrid(this);
+        memory.hold(next.publishedEpoch);
+        published = next;
+        writeEpoch++;
+        if (previous != null) {
+            memory.release(previous.publishedEpoch);
+        }
+    }
+    
+    /**
+     * Bring a chunk's derived state (face masks, empty distances, levels of detail
+     * and mesh) up to date after edits; empty chunks are dropped
+     */
+    private void refreshChunk(long key) {
+        GridChunk chunk = chunks.get(key);
+        if (chunk == null) return;
+        if (chunk.isEmpty()) {
+            chunks.remove(key);
+            drop(chunk);
+            return;
+        }
+        if (chunk.epoch != writeEpoch) {
+            chunk.retire(writeEpoch);
+            chunk = chunk.copy(writeEpoch);
+            chunks.put(key, chunk);
+        }
+        updateFaceMasks(chunk);
+        updateEmptyDistances(chunk);
+        updateLevelsOfDetail(chunk);
+        chunk.setMesh(ChunkMesh.build(chunk));
+    }
+    
+    /**
+     * Release a chunk taken out of the grid: at once if only the current edit has
+     * seen it, otherwise once no snapshot showing it is held
+     */
+    private void drop(GridChunk chunk) {
+        if (chunk.epoch == writeEpoch) {
+            chunk.free();
+        } else {
+            chunk.retire(writeEpoch);
+        }
+    }
+    
+    /**
+     * Rebuild the column heights of one 16x16 tile of columns by scanning its
+     * chunks from the top of the occupied bounds down
+     */
+    private void updateColumnTops(long columnKey) {
+        int chunkX = (int) (columnKey >> 42) << 11 >> 11;
+        int chunkZ = (int) columnKey << 11 >> 11;
+        int columns = GridChunk.SIZE * GridChunk.SIZE;
+        int[] tops = new int[columns + 1];
+        Arrays.fill(tops, Integer.MIN_VALUE);
+        int remaining = columns;
+        for (int chunkY = maxY >> GridChunk.SHIFT; chunkY >= minY >> GridChunk.SHIFT && remaining > 0; chunkY--) {
+            GridChunk chunk = chunks.get(GridChunk.key(chunkX, chunkY, chunkZ));
+            if (chunk == null) continue;
+            for (int column = 0; column < columns; column++) {
+                if (tops[column] != Integer.MIN_VALUE) continue;
+                // column is z * SIZE + x, matching the low bits of a cell index
+                for (int ly = GridChunk.MASK; ly >= 0; ly--) {
+                    if (chunk.isOccupied((ly << (2 * GridChunk.SHIFT)) | column)) {
+                        tops[column] = chunk.originY() + ly;
+                        tops[columns] = Math.max(tops[columns], tops[column]);
+                        remaining--;
+                        break;
+                    }
+                }
+            }
+        }
+        if (remaining == columns) {
+            columnTops.remove(columnKey);
+        } else {
+            columnTops.put(columnKey, tops);
+        }
+    }
+    
+    /**
+     * Recompute the distance field of a chunk. Occupancy is kept as one 16-bit row
+     * per (y, z) and grown by one cell in every direction (a 3x3x3 dilation) per
+     * round; a cell first covered in round d is at Chebyshev distance d from the
+     * nearest occupied cell. Distances are capped so the empty cube around a cell
+     * never leaves the chunk, which keeps the field local to the chunk: an edit
+     * only ever has to refresh the chunk it touched.
+     */
+    private static void updateEmptyDistances(GridChunk chunk) {
+        int size = GridChunk.SIZE;
+        int rowMask = (1 << size) - 1;
+        int[] covered = new int[size * size]; // bit x of row (y * size + z)
+        for (int index = 0; index < GridChunk.VOLUME; index++) {
+            if (chunk.isOccupied(index)) {
+                int lx = index & GridChunk.MASK;
+                int lz = (index >> GridChunk.SHIFT) & GridChunk.MASK;
+                int ly = index >> (2 * GridChunk.SHIFT);
+                covered[ly * size + lz] |= 1 << lx;
+            }
+        }
+        
+        // Largest useful distance: the empty cube around the chunk's central cells reaches the border
+        int maxDistance = size / 2;
+        int[] distanceOf = new int[GridChunk.VOLUME];
+        Arrays.fill(distanceOf, maxDistance);
+        int[] grown = new int[size * size];
+        int[] next = new int[size * size];
+        int[] dilated = new int[size * size];
+        for (int distance = 0; distance < maxDistance; distance++) {
+            boolean full = true;
+            for (int row = 0; row < covered.length; row++) {
+                int bits = covered[row];
+                int fresh = bits & ~grown[row];
+                int y = row / size, z = row % size;
+                while (fresh != 0) {
+                    int x = Integer.numberOfTrailingZeros(fresh);
+                    fresh &= fresh - 1;
+                    distanceOf[GridChunk.cellIndex(x, y, z)] = distance;
+                }
+                full &= bits == rowMask;
+            }
+            if (full) break;
+            System.arraycopy(covered, 0, grown, 0, covered.length);
+            
+            // Dilate by one cell along x, then z, then y
+            for (int row = 0; row < covered.length; row++) {
+                int bits = covered[row];
+                next[row] = (bits | (bits << 1) | (bits >> 1)) & rowMask;
+            }
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < size; z++) {
+                    int row = y * size + z;
+                    int bits = next[row];
+                    if (z > 0) bits |= next[row - 1];
+                    if (z < size - 1) bits |= next[row + 1];
+                    dilated[row] = bits;
+                }
+            }
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < size; z++) {
+                    int row = y * size + z;
+                    int bits = dilated[row];
+                    if (y > 0) bits |= dilated[row - size];
+                    if (y < size - 1) bits |= dilated[row + size];
+                    covered[row] = bits;
+                }
+            }
+        }
+        
+        for (int index = 0; index < GridChunk.VOLUME; index++) {
+            chunk.setEmptyDistance(index, Math.min(distanceOf[index], BORDER_DISTANCE[index]));
+        }
+    }
+    
+    /**
+     * Rebuild the coarse levels of a chunk, each from the level below. A coarse
+     * cell is solid if any of its 8 children is; its representative is the block
+     * whose material is most common among the children, counting only exposed
+     * children when there are any so that surfaces (grass rather than the dirt
+     * under it) set the color seen from afar. Non-block objects mark their coarse
+     * cells as mixed.
+     */
+    private static void updateLevelsOfDetail(GridChunk chunk) {
+        int[] cells = null;
+        boolean[] exposed = null;
+        boolean[] mixed = null;
+        int[] candidates = new int[8];
+        for (int level = 1; level <= GridChunk.LOD_LEVELS; level++) {
+            int childSize = GridChunk.SIZE >> (level - 1);
+            int size = childSize / 2;
+            int[] levelCells = new int[size * size * size];
+            boolean[] levelExposed = new boolean[levelCells.length];
+            boolean[] levelMixed = new boolean[levelCells.length];
+            for (int y = 0; y < size; y++) {
+                for (int z = 0; z < size; z++) {
+                    for (int x = 0; x < size; x++) {
+                        int index = (y * size + z) * size + x;
+                        int count = 0;
+                        boolean anyExposed = false;
+                        for (int child = 0; child < 8; child++) {
+                            int childIndex = ((2 * y + (child >> 2)) * childSize + 2 * z + ((child >> 1) & 1)) * childSize
+                                           + 2 * x + (child & 1);
+                            // Representatives are kept as the index of the chunk cell holding them
+                            int cell;
+                            boolean childExposed;
+                            if (level == 1) {
+                                // Children are the chunk's own cells
+                                cell = chunk.isOccupied(childIndex) ? childIndex : -1;
+                                if (cell >= 0 && !chunk.isBlock(cell)) {
+                                    levelMixed[index] = true;
+                                    cell = -1;
+                                }
+                                childExposed = cell >= 0 && chunk.getFaceMask(childIndex) != 0;
+                            } else {
+                                levelMixed[index] |= mixed[childIndex];
+                                cell = cells[childIndex];
+                                childExposed = exposed[childIndex];
+                            }
+                            if (cell < 0) continue;
+                            // Once an exposed child is seen, buried ones no longer vote
+                            if (childExposed && !anyExposed) {
+                                anyExposed = true;
+                                count = 0;
+                            }
+                            if (childExposed || !anyExposed) {
+                                candidates[count++] = cell;
+                            }
+                        }
+                        levelCells[index] = mostCommonMaterial(chunk, candidates, count);
+                        levelExposed[index] = anyExposed;
+                        chunk.setLod(level, index, levelCells[index], levelMixed[index]);
+                    }
+                }
+            }
+            cells = levelCells;
+            exposed = levelExposed;
+            mixed = levelMixed;
+        }
+    }
+    
+    /**
+     * The first of the given cells whose material occurs most often among them, or -1 if there are none
+     */
+    private static int mostCommonMaterial(GridChunk chunk, int[] cells, int count) {
+        int best = -1;
+        int bestVotes = 0;
+        for (int i = 0; i < count; i++) {
+            Material material = chunk.getMaterial(cells[i]);
+            int votes = 0;
+            for (int j = 0; j < count; j++) {
+                if (chunk.getMaterial(cells[j]) == material) votes++;
+            }
+            if (votes > bestVotes) {
+                best = cells[i];
+                bestVotes = votes;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Recompute the exposed-face mask of every cell in a chunk. A face is exposed
+     * unless the neighbouring cell holds a block.
+     */
+    private void updateFaceMasks(GridChunk chunk) {
+        BlockFace[] faces = BlockFace.values();
+        GridChunk[] neighbors = new GridChunk[faces.length];
+        for (BlockFace face : faces) {
+            neighbors[face.ordinal()] = chunks.get(GridChunk.key(chunk.chunkX + face.dx, chunk.chunkY + face.dy,
+                                                                 chunk.chunkZ + face.dz));
+        }
+        
+        for (int index = 0; index < GridChunk.VOLUME; index++) {
+            if (!chunk.isOccupied(index)) {
+                chunk.setFaceMask(index, 0);
+                continue;
+            }
+            int lx = index & GridChunk.MASK;
+            int lz = (index >> GridChunk.SHIFT) & GridChunk.MASK;
+            int ly = index >> (2 * GridChunk.SHIFT);
+            
+            int mask = 0;
+            for (BlockFace face : faces) {
+                int nx = lx + face.dx, ny = ly + face.dy, nz = lz + face.dz;
+                GridChunk owner = chunk;
+                if (nx < 0 || nx > GridChunk.MASK || ny < 0 || ny > GridChunk.MASK || nz < 0 || nz > GridChunk.MASK) {
+                    owner = neighbors[face.ordinal()];
+                }
+                if (owner == null || !owner.isBlock(GridChunk.cellIndex(nx, ny, nz))) {
+                    mask |= face.bit(); // Air or a non-block
+                }
+            }
+            chunk.setFaceMask(index, mask);
+        }
+    }
+        
+    private void checkWritable() {
+        if (published == this) {
+            throw new UnsupportedOperationException("Grid snapshots are read-only");
+        }
+    }
+    
+    /**
+     * Highest occupied y in the grid column at x, z, or Integer.MIN_VALUE if the column is empty
+     */
+    public int getColumnHeight(int x, int z) {
+        int[] tops = published.columnTops.get(GridChunk.key(x >> GridChunk.SHIFT, 0, z >> GridChunk.SHIFT));
+        return tops != null ? tops[((z & GridChunk.MASK) << GridChunk.SHIFT) | (x & GridChunk.MASK)]
+                            : Integer.MIN_VALUE;
     }
     
     /**
      * Check if an object exists at the given grid position
      */
     public boolean hasObjectAt(int x, int y, int z) {
-        GridPosition pos = new GridPosition(x, y, z);
-        return grid.containsKey(pos);
+        return getObjectAt(x, y, z) != null;
     }
     
     /**
      * Get an object at the given grid position
      */
     public Renderable getObjectAt(int x, int y, int z) {
-        GridPosition pos = new GridPosition(x, y, z);
-        return grid.get(pos);
+        if (published != this) return query(grid -> grid.getObjectAt(x, y, z));
+        
+        GridChunk chunk = chunks.get(chunkKeyOf(x, y, z));
+        return chunk != null ? chunk.get(x, y, z) : null;
     }
     
     /**
-     * Get all visible objects (blocks with at least one exposed face, and all non-blocks)
+     * Find the closest intersection by walking the ray through the grid cell by cell
+     * (Amanatides-Woo traversal). Objects never extend past their own cell, so the
+     * first cell with a hit holds the closest hit. Chunks with a merged mesh are
+     * intersected as a whole against their quads when the ray enters them; those
+     * chunks and empty ones are then crossed in one jump instead of cell by cell.
+     * Inside other chunks the walk leaps over the run of cells that the chunk's
+     * empty distance field guarantees to be air.
      */
-    public List<Renderable> getVisibleObjects() {
-        List<Renderable> visibleObjects = new ArrayList<>();
+    public Intersection intersect(Ray ray) {
+        if (published != this) return query(grid -> grid.intersect(ray));
+        
+        stats.increment(RenderStats.Counter.INTERSECT_CALLS);
+        if (objectCount == 0) return null;
+        return walk(ray, 0, Double.POSITIVE_INFINITY);
+    }
+        
+    /**
+     * Find the closest intersection of a ray whose footprint widens by spread (in
+     * cells per unit of distance, e.g. the angle a pixel covers). Once the
+     * footprint spans 2, 4 or 8 cells the walk continues through the chunks'
+     * coarse levels of detail, where a solid coarse cell is hit as a whole cube
+     * with its representative block. Coarse cells holding anything other than
+     * blocks are still walked at full resolution. With a spread of 0 this is
+     * the exact {@link #intersect(Ray)}.
+     */
+    public Intersection intersect(Ray ray, double spread) {
+        if (published != this) return query(grid -> grid.intersect(ray, spread));
+        if (!(spread > 0)) return intersect(ray);
+        
+        stats.increment(RenderStats.Counter.INTERSECT_CALLS);
+        if (objectCount == 0) return null;
+        
+        Intersection hit = walk(ray, 0, 2 / spread);
+        for (int level = 1; hit == null && level <= GridChunk.LOD_LEVELS; level++) {
+            double tEnd = level < GridChunk.LOD_LEVELS ? (2 << level) / spread : Double.POSITIVE_INFINITY;
+            hit = walkCoarse(ray, level, (1 << level) / spread, tEnd);
+        }
+        return hit;
+    }
+    
+    /**
+     * Cell walk of the part of a ray between tStart and tLimit. A hit in the
+     * last cell may lie slightly past tLimit.
+     */
+    private Intersection walk(Ray ray, double tStart, double tLimit) {
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+        
+        // Clip the ray against the occupied bounds
+        double[] range = {tStart, tLimit};
+        if (!clipSlab(ox, dx, minX - 0.5, maxX + 0.5, range)
+                || !clipSlab(oy, dy, minY - 0.5, maxY + 0.5, range)
+                || !clipSlab(oz, dz, minZ - 0.5, maxZ + 0.5, range)) {
+            return null;
+        }
+        double tEnter = range[0];
+        double tExit = range[1];
+        
+        // Starting cell (cells are centered on integer coordinates)
+        int x = clamp((int) Math.floor(ox + dx * tEnter + 0.5), minX, maxX);
+        int y = clamp((int) Math.floor(oy + dy * tEnter + 0.5), minY, maxY);
+        int z = clamp((int) Math.floor(oz + dz * tEnter + 0.5), minZ, maxZ);
         
-        for (Map.Entry<GridPosition, Renderable> entry : grid.entrySet()) {
-            Renderable object = entry.getValue();
+        int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+        int stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+        int stepZ = dz > 0 ? 1 : (dz < 0 ? -1 : 0);
+        double tDeltaX = stepX != 0 ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = stepY != 0 ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        double tDeltaZ = stepZ != 0 ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+        double tMaxX = stepX != 0 ? (x + 0.5 * stepX - ox) / dx : Double.POSITIVE_INFINITY;
+        double tMaxY = stepY != 0 ? (y + 0.5 * stepY - oy) / dy : Double.POSITIVE_INFINITY;
+        double tMaxZ = stepZ != 0 ? (z + 0.5 * stepZ - oz) / dz : Double.POSITIVE_INFINITY;
+        
+        GridChunk chunk = null;
+        long chunkKey = 0;
+        boolean chunkValid = false;
+        Intersection hit = null;
+        int cells = 0;
+        int tests = 0; // Counted locally and published once per ray
+        ChunkMesh.Traversal traversal = null;
+        
+        while (true) {
+            long key = chunkKeyOf(x, y, z);
+            if (!chunkValid || key != chunkKey) {
+                chunk = chunks.get(key);
+                chunkKey = key;
+                chunkValid = true;
+                ChunkMesh mesh = chunk != null ? chunk.getMesh() : null;
+                if (mesh != null) {
+                    if (traversal == null) traversal = ChunkMesh.traversal();
+                    hit = mesh.intersect(ray, traversal);
+                    tests += traversal.tests;
+                    if (hit != null && hit.distance <= tLimit) break;
+                    hit = null;
+                }
+                if (chunk == null || mesh != null) {
+                    // Nothing in this chunk is hit: move to its last cell on the ray, with the
+                    // same additions the cell walk would make, so the next step leaves the chunk
+                    double tLeave = Math.min(chunkLeave(x, stepX, tMaxX, tDeltaX, 0),
+                                             Math.min(chunkLeave(y, stepY, tMaxY, tDeltaY, 0),
+                                                      chunkLeave(z, stepZ, tMaxZ, tDeltaZ, 0)));
+                    while (tMaxX < tLeave) {
+                        x += stepX;
+                        tMaxX += tDeltaX;
+                    }
+                    while (tMaxY < tLeave) {
+                        y += stepY;
+                        tMaxY += tDeltaY;
+                    }
+                    while (tMaxZ < tLeave) {
+                        z += stepZ;
+                        tMaxZ += tDeltaZ;
+                    }
+                    chunk = null;
+                }
+            }
+            cells++;
             
-            if (object instanceof Block) {
-                Block block = (Block) object;
-                if (hasExposedFace(entry.getKey())) {
-                    visibleObjects.add(block);
+            if (chunk != null) {
+                int index = GridChunk.cellIndex(x, y, z);
+                // Fully buried blocks cannot be the first thing a ray from outside hits
+                if (chunk.isOccupied(index) && (chunk.getFaceMask(index) != 0 || !chunk.isBlock(index))) {
+                    tests++;
+                    hit = chunk.intersect(index, chunk.getFaceMask(index), ray);
+                    if (hit != null) break;
+                }
+                
+                int distance = chunk.getEmptyDistance(index);
+                if (distance > 1) {
+                    // Every cell within distance - 1 is empty: move to the last of them on the ray
+                    // without reading any, so the next step lands on the first cell that may be occupied
+                    // (bounded by r per axis, since rounding in the sums may drift past tLeave)
+                    int r = distance - 1;
+                    double tLeave = Math.min(tMaxX + r * tDeltaX, Math.min(tMaxY + r * tDeltaY, tMaxZ + r * tDeltaZ));
+                    for (int i = 0; i < r && tMaxX < tLeave; i++) {
+                        x += stepX;
+                        tMaxX += tDeltaX;
+                    }
+                    for (int i = 0; i < r && tMaxY < tLeave; i++) {
+                        y += stepY;
+                        tMaxY += tDeltaY;
+                    }
+                    for (int i = 0; i < r && tMaxZ < tLeave; i++) {
+                        z += stepZ;
+                        tMaxZ += tDeltaZ;
+                    }
                 }
+            }
+            
+            // Step into the next cell along the axis with the nearest boundary
+            if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+                if (tMaxX > tExit) break;
+                x += stepX;
+                tMaxX += tDeltaX;
+            } else if (tMaxY < tMaxZ) {
+                if (tMaxY > tExit) break;
+                y += stepY;
+                tMaxY += tDeltaY;
             } else {
-                // Non-blocks (spheres, lights) are always visible
-                visibleObjects.add(object);
+                if (tMaxZ > tExit) break;
+                z += stepZ;
+                tMaxZ += tDeltaZ;
+            }
+            
+            if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+                break;
             }
         }
         
-        return visibleObjects;
+        stats.add(RenderStats.Counter.CELLS_TRAVERSED, cells);
+        stats.add(RenderStats.Counter.OBJECTS_TESTED, tests);
+        return hit;
     }
     
     /**
-     * Check if a grid position has at least one exposed face
+     * Walk the part of a ray between tStart and tEnd through the coarse cells of a
+     * level of detail (2^level cells wide). The first solid coarse cell is hit on
+     * the face the ray entered it through.
      */
-    private boolean hasExposedFace(GridPosition pos) {
-        // Check all 6 adjacent positions
-        GridPosition[] adjacentPositions = {
-            new GridPosition(pos.x + 1, pos.y, pos.z),  // +X
-            new GridPosition(pos.x - 1, pos.y, pos.z),  // -X
-            new GridPosition(pos.x, pos.y + 1, pos.z),  // +Y
-            new GridPosition(pos.x, pos.y - 1, pos.z),  // -Y
-            new GridPosition(pos.x, pos.y, pos.z + 1),  // +Z
-            new GridPosition(pos.x, pos.y, pos.z - 1)   // -Z
-        };
+    private Intersection walkCoarse(Ray ray, int level, double tStart, double tEnd) {
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+        
+        double[] range = {tStart, tEnd};
+        if (!clipSlab(ox, dx, minX - 0.5, maxX + 0.5, range)
+                || !clipSlab(oy, dy, minY - 0.5, maxY + 0.5, range)
+                || !clipSlab(oz, dz, minZ - 0.5, maxZ + 0.5, range)) {
+            return null;
+        }
+        double tEnter = range[0];
+        double tExit = range[1];
+        
+        // Coarse cell c covers grid cells c * size to c * size + size - 1
+        int size = 1 << level;
+        int x = clamp((int) Math.floor((ox + dx * tEnter + 0.5) / size), minX >> level, maxX >> level);
+        int y = clamp((int) Math.floor((oy + dy * tEnter + 0.5) / size), minY >> level, maxY >> level);
+        int z = clamp((int) Math.floor((oz + dz * tEnter + 0.5) / size), minZ >> level, maxZ >> level);
         
-        for (GridPosition adjacentPos : adjacentPositions) {
-            Renderable adjacent = grid.get(adjacentPos);
-            if (adjacent == null || !(adjacent instanceof Block)) {
-                return true; // At least one face is exposed (air or non-block)
+        int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+        int stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+        int stepZ = dz > 0 ? 1 : (dz < 0 ? -1 : 0);
+        double tDeltaX = stepX != 0 ? Math.abs(size / dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = stepY != 0 ? Math.abs(size / dy) : Double.POSITIVE_INFINITY;
+        double tDeltaZ = stepZ != 0 ? Math.abs(size / dz) : Double.POSITIVE_INFINITY;
+        double tMaxX = stepX != 0 ? ((x + (stepX > 0 ? 1 : 0)) * size - 0.5 - ox) / dx : Double.POSITIVE_INFINITY;
+        double tMaxY = stepY != 0 ? ((y + (stepY > 0 ? 1 : 0)) * size - 0.5 - oy) / dy : Double.POSITIVE_INFINITY;
+        double tMaxZ = stepZ != 0 ? ((z + (stepZ > 0 ? 1 : 0)) * size - 0.5 - oz) / dz : Double.POSITIVE_INFINITY;
+        
+        // Face the ray entered the first cell through: the axis whose slab it crossed last
+        double tEntryX = tMaxX - tDeltaX, tEntryY = tMaxY - tDeltaY, tEntryZ = tMaxZ - tDeltaZ;
+        int axis = tEntryX >= tEntryY && tEntryX >= tEntryZ ? 0 : (tEntryY >= tEntryZ ? 1 : 2);
+        double tIn = tEnter;
+        
+        GridChunk chunk = null;
+        long chunkKey = 0;
+        boolean chunkValid = false;
+        Intersection hit = null;
+        int cells = 0;
+        
+        while (true) {
+            cells++;
+            long key = chunkKeyOf(x << level, y << level, z << level);
+            if (!chunkValid || key != chunkKey) {
+                chunk = chunks.get(key);
+                chunkKey = key;
+                chunkValid = true;
+                if (chunk == null) {
+                    // Cross an empty chunk in one jump, as the full-detail walk does
+                    double tLeave = Math.min(chunkLeave(x, stepX, tMaxX, tDeltaX, level),
+                                             Math.min(chunkLeave(y, stepY, tMaxY, tDeltaY, level),
+                                                      chunkLeave(z, stepZ, tMaxZ, tDeltaZ, level)));
+                    while (tMaxX < tLeave) {
+                        x += stepX;
+                        tMaxX += tDeltaX;
+                    }
+                    while (tMaxY < tLeave) {
+                        y += stepY;
+                        tMaxY += tDeltaY;
+                    }
+                    while (tMaxZ < tLeave) {
+                        z += stepZ;
+                        tMaxZ += tDeltaZ;
+                    }
+                }
+            }
+            
+            if (chunk != null) {
+                int index = GridChunk.lodIndex(level, x << level, y << level, z << level);
+                if (chunk.isLodMixed(level, index)) {
+                    hit = walk(ray, tIn, Math.min(tMaxX, Math.min(tMaxY, tMaxZ)));
+                    if (hit != null) break;
+                } else {
+                    int cell = chunk.getLodCell(level, index);
+                    if (cell >= 0) {
+                        Vector3 normal = axis == 0 ? Vector3.of(-stepX, 0, 0)
+                                       : axis == 1 ? Vector3.of(0, -stepY, 0) : Vector3.of(0, 0, -stepZ);
+                        hit = new Intersection(tIn, ray.origin.add(ray.direction.multiply(tIn)), normal,
+                                               chunk.getHitObject(cell));
+                        break;
+                    }
+                }
+            }
+            
+            if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+                if (tMaxX > tExit) break;
+                tIn = tMaxX;
+                axis = 0;
+                x += stepX;
+                tMaxX += tDeltaX;
+            } else if (tMaxY < tMaxZ) {
+                if (tMaxY > tExit) break;
+                tIn = tMaxY;
+                axis = 1;
+                y += stepY;
+                tMaxY += tDeltaY;
+            } else {
+                if (tMaxZ > tExit) break;
+                tIn = tMaxZ;
+                axis = 2;
+                z += stepZ;
+                tMaxZ += tDeltaZ;
+            }
+            
+            if (x < minX >> level || x > maxX >> level || y < minY >> level || y > maxY >> level
+                    || z < minZ >> level || z > maxZ >> level) {
+                break;
+            }
+        }
+        
+        stats.add(RenderStats.Counter.CELLS_TRAVERSED, cells);
+        return hit;
+    }
+    
+    /**
+     * Whether a shadow ray is blocked before maxDistance by anything other than
+     * target (the light it is aimed at, which may be null). The ray first walks
+     * the column height map: a column it crosses entirely above its highest
+     * cell cannot block it, and a 16x16 tile of columns it crosses above the
+     * tile's highest cell is skipped in one jump. Only from the first column it may touch on does the full cell walk
+     * take over, so on open terrain most shadow rays never look at a cell.
+     * The answer is the same as from {@link #intersect(Ray)}.
+     */
+    public boolean isOccluded(Ray ray, double maxDistance, Renderable target) {
+        if (published != this) return query(grid -> grid.isOccluded(ray, maxDistance, target));
+        if (objectCount == 0) return false;
+        
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+        
+        double[] range = {0, maxDistance};
+        if (!clipSlab(ox, dx, minX - 0.5, maxX + 0.5, range)
+                || !clipSlab(oy, dy, minY - 0.5, maxY + 0.5, range)
+                || !clipSlab(oz, dz, minZ - 0.5, maxZ + 0.5, range)) {
+            return false;
+        }
+        double tEnter = range[0];
+        double tExit = range[1];
+        
+        int x = clamp((int) Math.floor(ox + dx * tEnter + 0.5), minX, maxX);
+        int z = clamp((int) Math.floor(oz + dz * tEnter + 0.5), minZ, maxZ);
+        int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+        int stepZ = dz > 0 ? 1 : (dz < 0 ? -1 : 0);
+        double tDeltaX = stepX != 0 ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double tDeltaZ = stepZ != 0 ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+        double tMaxX = stepX != 0 ? (x + 0.5 * stepX - ox) / dx : Double.POSITIVE_INFINITY;
+        double tMaxZ = stepZ != 0 ? (z + 0.5 * stepZ - oz) / dz : Double.POSITIVE_INFINITY;
+        
+        int[] tops = null;
+        long tileKey = 0;
+        boolean tileValid = false;
+        double tIn = tEnter;
+        int columns = 0;
+        
+        while (true) {
+            columns++;
+            long key = GridChunk.key(x >> GridChunk.SHIFT, 0, z >> GridChunk.SHIFT);
+            if (!tileValid || key != tileKey) {
+                tops = columnTops.get(key);
+                tileKey = key;
+                tileValid = true;
+                double tLeave = Math.min(chunkLeave(x, stepX, tMaxX, tDeltaX, 0), chunkLeave(z, stepZ, tMaxZ, tDeltaZ, 0));
+                if (tops == null || oy + dy * (dy > 0 ? tIn : Math.min(tLeave, tExit)) > tops[tops.length - 1] + 0.5) {
+                    // Clear of the whole tile: move to its last column on the ray
+                    while (tMaxX < tLeave) {
+                        x += stepX;
+                        tMaxX += tDeltaX;
+                    }
+                    while (tMaxZ < tLeave) {
+                        z += stepZ;
+                        tMaxZ += tDeltaZ;
+                    }
+                    tops = null;
+                }
+            }
+            double tOut = Math.min(Math.min(tMaxX, tMaxZ), tExit);
+            if (tops != null) {
+                int top = tops[((z & GridChunk.MASK) << GridChunk.SHIFT) | (x & GridChunk.MASK)];
+                double lowest = oy + dy * (dy > 0 ? tIn : tOut);
+                if (top != Integer.MIN_VALUE && lowest <= top + 0.5) {
+                    // Crossing only the target's own cell near the top of the column: reaching the
+                    // target first means the ray is unblocked
+                    if (target != null && onlyTargetBetween(x, z, (int) Math.floor(lowest + 0.5), top, target)) {
+                        if (target.intersect(ray) != null) break;
+                    } else {
+                        // The ray may touch this column: find the first hit from here on exactly
+                        stats.add(RenderStats.Counter.CELLS_TRAVERSED, columns);
+                        stats.increment(RenderStats.Counter.INTERSECT_CALLS);
+                        Intersection hit = walk(ray, tIn, maxDistance);
+                        return hit != null && hit.object != target && hit.distance <= maxDistance;
+                    }
+                }
+            }
+            
+            if (tOut >= tExit) break;
+            tIn = tOut;
+            if (tMaxX < tMaxZ) {
+                x += stepX;
+                tMaxX += tDeltaX;
+            } else {
+                z += stepZ;
+                tMaxZ += tDeltaZ;
+            }
+        }
+        
+        stats.add(RenderStats.Counter.CELLS_TRAVERSED, columns);
+        return false;
+    }
+    
+    /**
+     * Whether the cells of a column from low to high (at most a few) hold nothing but the target
+     */
+    private boolean onlyTargetBetween(int x, int z, int low, int high, Renderable target) {
+        if (high - low > 3) return false;
+        for (int y = Math.max(low, minY); y <= high; y++) {
+            GridChunk chunk = chunks.get(chunkKeyOf(x, y, z));
+            int index = GridChunk.cellIndex(x, y, z);
+            if (chunk != null && chunk.isOccupied(index) && !chunk.holds(index, target)) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Distance at which a cell walk along one axis crosses out of the current chunk
+     * (coord and tDelta are in cells of the given level of detail, 0 for full detail)
+     */
+    private static double chunkLeave(int coord, int step, double tMax, double tDelta, int level) {
+        if (step == 0) return Double.POSITIVE_INFINITY;
+        int mask = GridChunk.MASK >> level;
+        int steps = step > 0 ? mask - (coord & mask) : coord & mask;
+        double t = tMax;
+        for (int i = 0; i < steps; i++) {
+            t += tDelta;
+        }
+        return t;
+    }
+    
+    /**
+     * Find the closest intersection for every lane of a coherent ray packet.
+     * <p>
+     * The packet walks the grid slice by slice along its dominant axis. In each slice
+     * the union of the lanes' cell footprints is visited once, and each occupied cell
+     * is tested only against the lanes whose own footprint covers it. Chunks with a
+     * merged mesh are not visited cell by cell: each lane whose footprint reaches one
+     * is intersected with its mesh once, as a single ray would be, and empty chunks
+     * are skipped. Where every chunk the lanes reach in a chunk-thick layer of slices
+     * is empty or meshed, the packet crosses the whole layer in one step. A lane
+     * retires once its closest hit lies within the slices walked so far. Packets whose
+     * rays point different ways along the dominant axis, or whose footprint grows too
+     * wide, fall back to single rays.
+     * <p>
+     * Packets share cell reads, not mesh or distance field tests, so on meshed terrain
+     * where single rays leap over empty space they are at best on par with single rays
+     * (see {@link PacketBenchmark}); they pay off on unmeshed, densely filled grids.
+     */
+    public void intersect(RayPacket packet) {
+        if (published != this) {
+            query(grid -> {
+                grid.intersect(packet);
+                return null;
+            });
+            return;
+        }
+        
+        int n = packet.size();
+        for (int i = 0; i < n; i++) {
+            packet.hits[i] = null;
+        }
+        if (objectCount == 0 || n == 0) {
+            stats.add(RenderStats.Counter.INTERSECT_CALLS, n);
+            return;
+        }
+        
+        // Dominant axis of the packet, from the sum of all directions
+        double sumX = 0, sumY = 0, sumZ = 0;
+        for (int i = 0; i < n; i++) {
+            Vector3 d = packet.rays[i].direction;
+            sumX += d.x;
+            sumY += d.y;
+            sumZ += d.z;
+        }
+        int axisK = Math.abs(sumX) >= Math.abs(sumY) && Math.abs(sumX) >= Math.abs(sumZ) ? 0
+                  : (Math.abs(sumY) >= Math.abs(sumZ) ? 1 : 2);
+        int axisU = axisK == 0 ? 1 : 0;
+        int axisV = axisK == 2 ? 1 : 2;
+        int step = component(axisK, sumX, sumY, sumZ) >= 0 ? 1 : -1;
+        
+        int activeCount = 0;
+        for (int i = 0; i < n; i++) {
+            Ray ray = packet.rays[i];
+            double dK = component(ray.direction, axisK);
+            if (dK * step < 1e-6) {
+                // Lane runs against the packet along the dominant axis
+                intersectSingles(packet);
+                return;
+            }
+            
+            double[] range = packet.range;
+            range[0] = 0;
+            range[1] = Double.POSITIVE_INFINITY;
+            packet.active[i] = clipSlab(ray.origin.x, ray.direction.x, minX - 0.5, maxX + 0.5, range)
+                            && clipSlab(ray.origin.y, ray.direction.y, minY - 0.5, maxY + 0.5, range)
+                            && clipSlab(ray.origin.z, ray.direction.z, minZ - 0.5, maxZ + 0.5, range);
+            packet.tEnter[i] = range[0];
+            packet.tExit[i] = range[1];
+            packet.originK[i] = component(ray.origin, axisK);
+            packet.invDirK[i] = 1.0 / dK;
+            packet.originU[i] = component(ray.origin, axisU);
+            packet.dirU[i] = component(ray.direction, axisU);
+            packet.originV[i] = component(ray.origin, axisV);
+            packet.dirV[i] = component(ray.direction, axisV);
+            packet.meshChunkCount[i] = 0;
+            if (packet.active[i]) activeCount++;
+        }
+        if (activeCount == 0) {
+            recordPacket(n, 0, 0);
+            return;
+        }
+        
+        // First slice any lane enters, and the last slice of the bounds
+        int kMin = axisK == 0 ? minX : (axisK == 1 ? minY : minZ);
+        int kMax = axisK == 0 ? maxX : (axisK == 1 ? maxY : maxZ);
+        int k = step > 0 ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            if (!packet.active[i]) continue;
+            double entryK = packet.originK[i] + packet.tEnter[i] / packet.invDirK[i];
+            int entry = clamp((int) Math.floor(entryK + 0.5), kMin, kMax);
+            k = step > 0 ? Math.min(k, entry) : Math.max(k, entry);
+        }
+        
+        GridChunk chunk = null;
+        long chunkKey = 0;
+        boolean chunkValid = false;
+        int cells = 0, tests = 0;
+        ChunkMesh.Traversal traversal = null;
+        
+        // Chunk layer along the dominant axis that turned out to hold cells to walk
+        int walkedLayer = Integer.MIN_VALUE;
+        
+        for (; k >= kMin && k <= kMax && activeCount > 0; k += step) {
+            int layer = k >> GridChunk.SHIFT;
+            int layerEnd = step > 0 ? Math.min(k | GridChunk.MASK, kMax) : Math.max(k & ~GridChunk.MASK, kMin);
+            if (layerEnd != k && layer != walkedLayer) {
+                // Cross the rest of this chunk layer in one step if every chunk the lanes reach in
+                // it is empty or meshed, as a single ray crosses such chunks whole
+                activeCount -= laneFootprints(packet, k, layerEnd);
+                int[] footprint = packet.footprint;
+                boolean crossed = true;
+                if (footprint[0] <= footprint[1]) {
+                    int layerChunks = 0;
+                    for (int cu = footprint[0] >> GridChunk.SHIFT; crossed && cu <= footprint[1] >> GridChunk.SHIFT; cu++) {
+                        for (int cv = footprint[2] >> GridChunk.SHIFT; cv <= footprint[3] >> GridChunk.SHIFT; cv++) {
+                            int u = cu << GridChunk.SHIFT, v = cv << GridChunk.SHIFT;
+                            GridChunk layerChunk = chunks.get(chunkKeyOf(axisK == 0 ? k : u, axisK == 1 ? k : (axisK == 0 ? u : v),
+                                                                        axisK == 2 ? k : v));
+                            layerChunks++;
+                            if (layerChunk != null && layerChunk.getMesh() == null) {
+                                crossed = false;
+                                break;
+                            }
+                        }
+                    }
+                    cells += layerChunks;
+                    for (int cu = footprint[0] >> GridChunk.SHIFT; crossed && cu <= footprint[1] >> GridChunk.SHIFT; cu++) {
+                        for (int cv = footprint[2] >> GridChunk.SHIFT; cv <= footprint[3] >> GridChunk.SHIFT; cv++) {
+                            int u = cu << GridChunk.SHIFT, v = cv << GridChunk.SHIFT;
+                            long key = chunkKeyOf(axisK == 0 ? k : u, axisK == 1 ? k : (axisK == 0 ? u : v), axisK == 2 ? k : v);
+                            GridChunk layerChunk = chunks.get(key);
+                            if (layerChunk == null) continue;
+                            if (traversal == null) traversal = ChunkMesh.traversal();
+                            tests += intersectMesh(packet, layerChunk.getMesh(), key, u, v, traversal);
+                        }
+                    }
+                }
+                if (crossed) {
+                    activeCount -= retireLanes(packet);
+                    k = layerEnd;
+                    continue;
+                }
+                walkedLayer = layer;
+            }
+            
+            // Footprint of each lane within this slice
+            activeCount -= laneFootprints(packet, k, k);
+            int uLo = packet.footprint[0], uHi = packet.footprint[1];
+            int vLo = packet.footprint[2], vHi = packet.footprint[3];
+            if (uLo > uHi) continue;
+            
+            if ((long) (uHi - uLo + 1) * (vHi - vLo + 1) > PACKET_FOOTPRINT_LIMIT) {
+                // Packet has diverged; finish the remaining lanes one by one (they count themselves)
+                recordPacket(n - activeCount, cells, tests);
+                for (int i = 0; i < n; i++) {
+                    if (packet.active[i]) {
+                        packet.hits[i] = intersect(packet.rays[i]);
+                    }
+                }
+                return;
+            }
+            
+            // Visit each occupied cell of the shared footprint once
+            for (int u = uLo; u <= uHi; u++) {
+                for (int v = vLo; v <= vHi; v++) {
+                    int x = axisK == 0 ? k : u;
+                    int y = axisK == 1 ? k : (axisK == 0 ? u : v);
+                    int z = axisK == 2 ? k : v;
+                    long key = chunkKeyOf(x, y, z);
+                    if (!chunkValid || key != chunkKey) {
+                        chunk = chunks.get(key);
+                        chunkKey = key;
+                        chunkValid = true;
+                    }
+                    cells++;
+                    if (chunk == null || chunk.getMesh() != null) {
+                        if (chunk != null) {
+                            if (traversal == null) traversal = ChunkMesh.traversal();
+                            tests += intersectMesh(packet, chunk.getMesh(), key, u, v, traversal);
+                        }
+                        // Skip the rest of this chunk's cells in this row
+                        v = Math.min(vHi, v | GridChunk.MASK);
+                        continue;
+                    }
+                    int index = GridChunk.cellIndex(x, y, z);
+                    if (!chunk.isOccupied(index)) continue;
+                    int faceMask = chunk.getFaceMask(index);
+                    if (faceMask == 0 && chunk.isBlock(index)) continue;
+                    
+                    for (int i = 0; i < n; i++) {
+                        if (!packet.inSlice[i] || u < packet.uMin[i] || u > packet.uMax[i]
+                                || v < packet.vMin[i] || v > packet.vMax[i]) {
+                            continue;
+                        }
+                        tests++;
+                        Intersection hit = chunk.intersect(index, faceMask, packet.rays[i]);
+                        if (hit != null && (packet.hits[i] == null || hit.distance < packet.hits[i].distance)) {
+                            packet.hits[i] = hit;
+                        }
+                    }
+                }
+            }
+            
+            activeCount -= retireLanes(packet);
+        }
+        recordPacket(n, cells, tests);
+    }
+    
+    /**
+     * Footprint of each active lane in the slices from kFrom to kTo along the packet's
+     * dominant axis: marks the lanes that cross them, with their cell ranges and the
+     * distance at which they leave the last slice, and the union of the ranges. Lanes
+     * that left the grid before these slices are deactivated; returns how many.
+     */
+    private static int laneFootprints(RayPacket packet, int kFrom, int kTo) {
+        int[] footprint = packet.footprint;
+        footprint[0] = footprint[2] = Integer.MAX_VALUE;
+        footprint[1] = footprint[3] = Integer.MIN_VALUE;
+        int kLow = Math.min(kFrom, kTo), kHigh = Math.max(kFrom, kTo);
+        int retired = 0;
+        for (int i = 0; i < packet.size(); i++) {
+            packet.inSlice[i] = false;
+            if (!packet.active[i]) continue;
+            
+            double ta = (kLow - 0.5 - packet.originK[i]) * packet.invDirK[i];
+            double tb = (kHigh + 0.5 - packet.originK[i]) * packet.invDirK[i];
+            double t0 = Math.max(Math.min(ta, tb), packet.tEnter[i]);
+            double t1 = Math.min(Math.max(ta, tb), packet.tExit[i]);
+            packet.tSliceEnd[i] = t1;
+            if (t0 > packet.tExit[i]) {
+                // Slices are past this lane's exit from the grid
+                packet.active[i] = false;
+                retired++;
+                continue;
+            }
+            if (t0 > t1) continue;
+            
+            double u0 = packet.originU[i] + packet.dirU[i] * t0, u1 = packet.originU[i] + packet.dirU[i] * t1;
+            double v0 = packet.originV[i] + packet.dirV[i] * t0, v1 = packet.originV[i] + packet.dirV[i] * t1;
+            packet.uMin[i] = cellOf(Math.min(u0, u1));
+            packet.uMax[i] = cellOf(Math.max(u0, u1));
+            packet.vMin[i] = cellOf(Math.min(v0, v1));
+            packet.vMax[i] = cellOf(Math.max(v0, v1));
+            packet.inSlice[i] = true;
+            
+            footprint[0] = Math.min(footprint[0], packet.uMin[i]);
+            footprint[1] = Math.max(footprint[1], packet.uMax[i]);
+            footprint[2] = Math.min(footprint[2], packet.vMin[i]);
+            footprint[3] = Math.max(footprint[3], packet.vMax[i]);
+        }
+        return retired;
+    }
+    
+    /**
+     * Deactivate the lanes whose closest hit is no further than the slices just walked
+     * (a mesh hit may lie in a later slice, where a cell of another chunk could still be
+     * nearer); returns how many
+     */
+    private static int retireLanes(RayPacket packet) {
+        int retired = 0;
+        for (int i = 0; i < packet.size(); i++) {
+            if (packet.active[i] && packet.hits[i] != null && packet.hits[i].distance <= packet.tSliceEnd[i]) {
+                packet.active[i] = false;
+                retired++;
+            }
+        }
+        return retired;
+    }
+    
+    /**
+     * Intersect the mesh of a chunk with every lane of the current slice whose footprint
+     * reaches the chunk (the one holding cell u, v) and that has not met it before.
+     * Returns the number of primitives tested.
+     */
+    private static int intersectMesh(RayPacket packet, ChunkMesh mesh, long key, int u, int v,
+                                     ChunkMesh.Traversal traversal) {
+        int chunkULo = u & ~GridChunk.MASK, chunkUHi = u | GridChunk.MASK;
+        int chunkVLo = v & ~GridChunk.MASK, chunkVHi = v | GridChunk.MASK;
+        int tests = 0;
+        lanes:
+        for (int i = 0; i < packet.size(); i++) {
+            if (!packet.inSlice[i] || packet.uMax[i] < chunkULo || packet.uMin[i] > chunkUHi
+                    || packet.vMax[i] < chunkVLo || packet.vMin[i] > chunkVHi) {
+                continue;
+            }
+            int seen = Math.min(packet.meshChunkCount[i], RayPacket.MESH_MEMORY);
+            for (int j = 0; j < seen; j++) {
+                if (packet.meshChunks[i * RayPacket.MESH_MEMORY + j] == key) continue lanes;
+            }
+            packet.meshChunks[i * RayPacket.MESH_MEMORY + packet.meshChunkCount[i]++ % RayPacket.MESH_MEMORY] = key;
+            
+            Intersection hit = mesh.intersect(packet.rays[i], traversal);
+            tests += traversal.tests;
+            if (hit != null && (packet.hits[i] == null || hit.distance < packet.hits[i].distance)) {
+                packet.hits[i] = hit;
+            }
+        }
+        return tests;
+    }
+    
+    /**
+     * Publish the counters of a packet traversal. Cells are counted once per packet,
+     * since that is the work actually done, so cells per ray drops with coherence.
+     */
+    private void recordPacket(int lanes, int cells, int tests) {
+        stats.add(RenderStats.Counter.INTERSECT_CALLS, lanes);
+        stats.add(RenderStats.Counter.CELLS_TRAVERSED, cells);
+        stats.add(RenderStats.Counter.OBJECTS_TESTED, tests);
+    }
+    
+    /**
+     * Trace every lane of a packet as an independent ray
+     */
+    private void intersectSingles(RayPacket packet) {
+        for (int i = 0; i < packet.size(); i++) {
+            packet.hits[i] = intersect(packet.rays[i]);
+        }
+    }
+    
+    /**
+     * Walk a ray through the grid to the first occupied cell, treating every
+     * occupied cell as a solid unit cube (no per-object intersection).
+     * Intended for gameplay queries such as picking and line of sight.
+     *
+     * @param maxDistance largest distance along the normalized direction to search
+     * @param result      overwritten with the hit cell, entry face and distance, or cleared on a miss
+     * @return whether an occupied cell was found
+     */
+    public boolean raycast(double ox, double oy, double oz, double dx, double dy, double dz,
+                           double maxDistance, VoxelHit result) {
+        if (published != this) {
+            UnitGrid grid = acquire();
+            try {
+                return grid.raycast(ox, oy, oz, dx, dy, dz, maxDistance, result);
+            } finally {
+                grid.release();
+            }
+        }
+        
+        result.clear();
+        double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (objectCount == 0 || length == 0) return false;
+        dx /= length;
+        dy /= length;
+        dz /= length;
+        
+        // Clip against the occupied bounds, remembering which slab the ray enters through
+        double tEnter = 0;
+        double tExit = maxDistance;
+        int entryAxis = -1;
+        for (int axis = 0; axis < 3; axis++) {
+            double o = component(axis, ox, oy, oz);
+            double d = component(axis, dx, dy, dz);
+            double lo = (axis == 0 ? minX : (axis == 1 ? minY : minZ)) - 0.5;
+            double hi = (axis == 0 ? maxX : (axis == 1 ? maxY : maxZ)) + 0.5;
+            if (Math.abs(d) < 1e-12) {
+                if (o < lo || o > hi) return false;
+                continue;
+            }
+            double t0 = ((d > 0 ? lo : hi) - o) / d;
+            double t1 = ((d > 0 ? hi : lo) - o) / d;
+            if (t0 > tEnter) {
+                tEnter = t0;
+                entryAxis = axis;
+            }
+            tExit = Math.min(tExit, t1);
+        }
+        if (tEnter > tExit) return false;
+        
+        int x = clamp((int) Math.floor(ox + dx * tEnter + 0.5), minX, maxX);
+        int y = clamp((int) Math.floor(oy + dy * tEnter + 0.5), minY, maxY);
+        int z = clamp((int) Math.floor(oz + dz * tEnter + 0.5), minZ, maxZ);
+        
+        int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+        int stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+        int stepZ = dz > 0 ? 1 : (dz < 0 ? -1 : 0);
+        double tDeltaX = stepX != 0 ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = stepY != 0 ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        double tDeltaZ = stepZ != 0 ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+        double tMaxX = stepX != 0 ? (x + 0.5 * stepX - ox) / dx : Double.POSITIVE_INFINITY;
+        double tMaxY = stepY != 0 ? (y + 0.5 * stepY - oy) / dy : Double.POSITIVE_INFINITY;
+        double tMaxZ = stepZ != 0 ? (z + 0.5 * stepZ - oz) / dz : Double.POSITIVE_INFINITY;
+        
+        double t = tEnter;
+        int axis = entryAxis;
+        GridChunk chunk = null;
+        long chunkKey = 0;
+        boolean chunkValid = false;
+        
+        while (true) {
+            long key = chunkKeyOf(x, y, z);
+            if (!chunkValid || key != chunkKey) {
+                chunk = chunks.get(key);
+                chunkKey = key;
+                chunkValid = true;
+            }
+            
+            if (chunk != null && chunk.isOccupied(GridChunk.cellIndex(x, y, z))) {
+                // Entered against the direction of travel on the last stepped axis
+                BlockFace face = axis < 0 ? null : BlockFace.of(axis, -(axis == 0 ? stepX : (axis == 1 ? stepY : stepZ)));
+                result.set(x, y, z, face, t, chunk.get(x, y, z));
+                return true;
+            }
+            
+            if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+                if (tMaxX > tExit) return false;
+                t = tMaxX;
+                axis = 0;
+                x += stepX;
+                tMaxX += tDeltaX;
+            } else if (tMaxY < tMaxZ) {
+                if (tMaxY > tExit) return false;
+                t = tMaxY;
+                axis = 1;
+                y += stepY;
+                tMaxY += tDeltaY;
+            } else {
+                if (tMaxZ > tExit) return false;
+                t = tMaxZ;
+                axis = 2;
+                z += stepZ;
+                tMaxZ += tDeltaZ;
+            }
+            
+            if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+                return false;
+            }
+        }
+    }
+    
+    /**
+     * Clip the parametric range [range[0], range[1]] against one axis-aligned slab.
+     * Returns false if the range becomes empty.
+     */
+    private static boolean clipSlab(double origin, double dir, double slabMin, double slabMax, double[] range) {
+        if (Math.abs(dir) < 1e-12) {
+            return origin >= slabMin && origin <= slabMax;
+        }
+        double t1 = (slabMin - origin) / dir;
+        double t2 = (slabMax - origin) / dir;
+        if (t1 > t2) {
+            double temp = t1;
+            t1 = t2;
+            t2 = temp;
+        }
+        range[0] = Math.max(range[0], t1);
+        range[1] = Math.min(range[1], t2);
+        return range[0] <= range[1];
+    }
+    
+    private static double component(Vector3 vector, int axis) {
+        return axis == 0 ? vector.x : (axis == 1 ? vector.y : vector.z);
+    }
+    
+    private static double component(int axis, double x, double y, double z) {
+        return axis == 0 ? x : (axis == 1 ? y : z);
+    }
+    
+    /**
+     * Cell holding a coordinate, as (int) Math.floor(coord + 0.5) but without the floor call,
+     * which packets make for every lane in every slice
+     */
+    private static int cellOf(double coord) {
+        double shifted = coord + 0.5;
+        int cell = (int) shifted;
+        return cell > shifted ? cell - 1 : cell;
+    }
+    
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+    
+    private static long chunkKeyOf(int x, int y, int z) {
+        return GridChunk.key(x >> GridChunk.SHIFT, y >> GridChunk.SHIFT, z >> GridChunk.SHIFT);
+    }
+    
+    private void expandBounds(int x, int y, int z) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+    }
+    
+    /**
+     * Keys of the chunks whose contents changed after snapshot since was published, up to and
+     * including snapshot until; null if that is no longer known (too many publishes ago, or the
+     * grid was cleared). Must be called on the live grid.
+     */
+    synchronized Set<Long> getChangedChunks(UnitGrid since, UnitGrid until) {
+        if (changeLog == null) {
+            throw new UnsupportedOperationException("Changes are only logged by the live grid");
+        }
+        Set<Long> changed = new HashSet<>();
+        if (until.publishedEpoch <= since.publishedEpoch) {
+            return changed;
+        }
+        if (changeLog.isEmpty() || changeLog.peekFirst().epoch > since.publishedEpoch + 1) {
+            return null;
+        }
+        for (ChunkChanges changes : changeLog) {
+            if (changes.epoch <= since.publishedEpoch || changes.epoch > until.publishedEpoch) continue;
+            if (changes.keys == null) return null;
+            changed.addAll(changes.keys);
+        }
+        return changed;
+    }
+    
+    /**
+     * Bounds of the cells that have held objects, as {minX, minY, minZ, maxX, maxY, maxZ};
+     * min exceeds max while the grid has never held anything
+     */
+    int[] getBounds() {
+        UnitGrid grid = published;
+        return new int[] {grid.minX, grid.minY, grid.minZ, grid.maxX, grid.maxY, grid.maxZ};
+    }
+    
+    private void resetBounds() {
+        minX = minY = minZ = Integer.MAX_VALUE;
+        maxX = maxY = maxZ = Integer.MIN_VALUE;
+    }
+    
+    /**
+     * Get all visible objects (blocks with at least one exposed face, and all non-blocks)
+     */
+    public List<Renderable> getVisibleObjects() {
+        if (published != this) return query(UnitGrid::getVisibleObjects);
+        
+        List<Renderable> visibleObjects = new ArrayList<>();
+        
+        for (GridChunk chunk : chunks.values()) {
+            for (int index = 0; index < GridChunk.VOLUME; index++) {
+                if (!chunk.isOccupied(index)) continue;
+            
+                if (chunk.isBlock(index)) {
+                    if (chunk.getFaceMask(index) != 0) {
+                        visibleObjects.add(chunk.get(index));
+                    }
+                } else {
+                    // Non-blocks (spheres, lights) are always visible
+                    visibleObjects.add(chunk.get(index));
+                }
             }
         }
         
-        return false; // All faces are covered by blocks
+        return visibleObjects;
     }
     
     /**
      * Get objects within a certain distance from a point (for frustum culling)
      */
     public List<Renderable> getObjectsInRadius(Vector3 center, double radius) {
+        if (published != this) return query(grid -> grid.getObjectsInRadius(center, radius));
+        
         List<Renderable> nearbyObjects = new ArrayList<>();
         
         int gridRadius = (int) Math.ceil(radius) + 1;
@@ -114,7 +1598,7 @@ public class UnitGrid {
             for (int y = centerGrid.y - gridRadius; y <= centerGrid.y + gridRadius; y++) {
                 for (int z = centerGrid.z - gridRadius; z <= centerGrid.z + gridRadius; z++) {
                     GridPosition pos = new GridPosition(x, y, z);
-                    Renderable object = grid.get(pos);
+                    Renderable object = getObjectAt(x, y, z);
                     
                     if (object != null) {
                         Vector3 objectPos = gridToWorld(pos);
@@ -151,25 +1635,57 @@ public class UnitGrid {
      * Get all objects in the grid
      */
     public Collection<Renderable> getAllObjects() {
-        return grid.values();
+        if (published != this) return query(UnitGrid::getAllObjects);
+        
+        List<Renderable> objects = new ArrayList<>(objectCount);
+        for (GridChunk chunk : chunks.values()) {
+            for (int index = 0; index < GridChunk.VOLUME; index++) {
+                if (chunk.isOccupied(index)) objects.add(chunk.get(index));
+            }
+        }
+        return objects;
     }
     
     /**
      * Clear all objects from the grid
      */
-    public void clear() {
-        grid.clear();
+    public synchronized void clear() {
+        checkWritable();
+        for (GridChunk chunk : chunks.values()) {
+            drop(chunk);
+        }
+        chunks.clear();
+        columnTops.clear();
+        dirtyChunks.clear();
+        changedEverything = true;
+        objectCount = 0;
+        resetBounds();
+        publish();
     }
     
     /**
      * Get grid statistics for debugging
      */
     public String getStats() {
-        int totalObjects = grid.size();
+        if (published != this) return query(UnitGrid::getStats);
+        
+        int totalObjects = objectCount;
         int visibleObjects = getVisibleObjects().size();
-        return String.format("Grid: %d total, %d visible (%d%% culled)", 
-                           totalObjects, visibleObjects, 
-                           totalObjects > 0 ? (100 * (totalObjects - visibleObjects) / totalObjects) : 0);
+        int meshedChunks = 0, quads = 0;
+        for (GridChunk chunk : chunks.values()) {
+            if (chunk.getMesh() != null) {
+                meshedChunks++;
+                quads += chunk.getMesh().getQuadCount();
+            }
+        }
+        String stats = String.format("Grid: %d total, %d visible (%d%% culled), %d quads in %d/%d meshed chunks", 
+                                     totalObjects, visibleObjects, 
+                                     totalObjects > 0 ? (100 * (totalObjects - visibleObjects) / totalObjects) : 0,
+                                     quads, meshedChunks, chunks.size());
+        if (memory.isOffHeap()) {
+            stats += String.format(", %.1f/%.1f MB off-heap", memory.getUsedBytes() / 1e6, memory.getReservedBytes() / 1e6);
+        }
+        return stats;
     }
     
     /**
@@ -202,5 +1718,18 @@ public class UnitGrid {
             return String.format("GridPos(%d, %d, %d)", x, y, z);
         }
     }
+    
+    /**
+     * Chunks touched by one publish
+     */
+    private static class ChunkChanges {
+        final long epoch;
+        final Set<Long> keys;
+        
+        ChunkChanges(long epoch, Set<Long> keys) {
+            this.epoch = epoch;
+            this.keys = keys;
+        }
+    }
 }
 
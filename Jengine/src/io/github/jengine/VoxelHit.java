@@ -0,0 +1,76 @@
+package io.github.jengine;
+
+/**
+ * VoxelHit is the reusable result of a grid raycast query.
+ * <p>
+ * Holds the coordinates of the first occupied cell along the ray, the face
+ * the ray entered it through and the distance to that face. Queries overwrite
+ * it in place, so one instance can serve any number of queries without
+ * allocating.
+ */
+public class VoxelHit {
+    private boolean hit;
+    private int x, y, z;
+    private BlockFace face;
+    private double distance;
+    private Renderable object;
+
+    void set(int x, int y, int z, BlockFace face, double distance, Renderable object) {
+        this.hit = true;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.face = face;
+        this.distance = distance;
+        this.object = object;
+    }
+
+    void clear() {
+        hit = false;
+        face = null;
+        object = null;
+        distance = Double.POSITIVE_INFINITY;
+    }
+
+    public boolean isHit() {
+        return hit;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    /**
+     * Face the ray entered through, or null if the ray started inside the cell
+     */
+    public BlockFace getFace() {
+        return face;
+    }
+
+    /**
+     * Distance along the (normalized) ray to the entry face
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * Object occupying the hit cell
+     */
+    public Renderable getObject() {
+        return object;
+    }
+
+    @Override
+    public String toString() {
+        return hit ? String.format("VoxelHit(%d, %d, %d, %s, %.3f)", x, y, z, face, distance) : "VoxelHit(miss)";
+    }
+}
@@ -0,0 +1,280 @@
+package io.github.jengine;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/**
+ * WavefrontTracer evaluates the same shading as the recursive renderer, but
+ * breadth-first: every ray of one generation is queued, intersected as a
+ * batch, and only then are the shadow rays and the next generation of
+ * reflection and refraction rays emitted.
+ * <p>
+ * Colors are resolved bottom-up once the deepest generation is done, using the
+ * same per-level clamping as {@link Renderer}, so the output matches the
+ * recursive path. Batch intersection runs in parallel across cores.
+ * Secondary rays are culled and rouletted by the same {@link TraceSettings}
+ * rules as the recursive path. Time spent intersecting, shading and
+ * spawning/resolving is reported per stage to the scene's {@link RenderStats}.
+ */
+public class WavefrontTracer {
+    // Snapshot being rendered by the current call
+    private Scene scene;
+    private RenderStats stats;
+    private final List<Wave> waves = new ArrayList<>();
+
+    // Shadow rays for the current generation, owned by (hit * lightCount + light) slots
+    private final RayQueue shadowQueue = new RayQueue(1024);
+    private double[] shadowContribution = new double[1024];
+    private boolean[] shadowVisible = new boolean[1024];
+    private double[] lightR = new double[0], lightG = new double[0], lightB = new double[0];
+    private int[] lightSamples = new int[0];
+
+    /**
+     * Render a frame of a scene snapshot into a packed RGB pixel array of width * height entries.
+     * Primary rays use levels of detail for the given footprint spread (0 for full detail).
+     */
+    public synchronized void render(Scene scene, Camera camera, int width, int height, int[] pixels,
+                                    TraceSettings settings, double spread) {
+        this.scene = scene;
+        this.stats = scene.getStats();
+
+        while (waves.size() <= settings.maxDepth) {
+            waves.add(new Wave());
+        }
+
+        RayQueue primary = waves.get(0).rays;
+        primary.clear();
+        primary.addAll(camera.getPrimaryRays(width, height), Double.POSITIVE_INFINITY);
+
+        int deepest = 0;
+        for (int depth = 0; depth <= settings.maxDepth; depth++) {
+            Wave wave = waves.get(depth);
+            if (wave.rays.isEmpty()) break;
+
+            RayQueue next = depth < settings.maxDepth ? waves.get(depth + 1).rays : null;
+            if (next != null) next.clear();
+
+            if (depth > 0) {
+                stats.add(RenderStats.Counter.SECONDARY_RAYS, wave.rays.size());
+            }
+
+            long start = System.nanoTime();
+            intersect(wave, depth == 0 ? spread : 0);
+            long intersected = System.nanoTime();
+            shade(wave);
+            long shaded = System.nanoTime();
+            spawn(wave, next, depth, settings);
+            stats.addTime(RenderStats.Stage.INTERSECT, intersected - start);
+            stats.addTime(RenderStats.Stage.SHADING, shaded - intersected);
+            stats.addTime(RenderStats.Stage.RESOLVE, System.nanoTime() - shaded);
+            deepest = depth;
+        }
+
+        long resolveStart = System.nanoTime();
+        for (int depth = deepest; depth >= 0; depth--) {
+            resolve(waves.get(depth), depth < deepest ? waves.get(depth + 1) : null);
+        }
+        stats.addTime(RenderStats.Stage.RESOLVE, System.nanoTime() - resolveStart);
+
+        Wave first = waves.get(0);
+        for (int i = 0; i < primary.size(); i++) {
+            pixels[primary.owner[i]] = first.color[i];
+        }
+    }
+
+    /**
+     * Intersect every ray in the wave; misses take their color from the skybox
+     */
+    private void intersect(Wave wave, double spread) {
+        RayQueue rays = wave.rays;
+        wave.ensureCapacity(rays.size());
+        Skybox skybox = scene.getSkybox();
+
+        IntStream.range(0, rays.size()).parallel().forEach(i -> {
+            Intersection hit = scene.intersect(rays.toRay(i), spread);
+            wave.hits[i] = hit;
+            if (hit == null) {
+                wave.color[i] = skybox.getSkyRGB(rays.dirX[i], rays.dirY[i], rays.dirZ[i]);
+            }
+        });
+    }
+
+    /**
+     * Compute direct lighting for every hit in the wave through one batch of shadow rays
+     */
+    private void shade(Wave wave) {
+        List<UnitLight> lights = scene.getLights();
+        int lightCount = lights.size();
+        int count = wave.rays.size();
+
+        // Queue all light samples for all hits
+        shadowQueue.clear();
+        for (int i = 0; i < count; i++) {
+            Intersection hit = wave.hits[i];
+            if (hit == null) continue;
+
+            Vector3 origin = hit.point.add(hit.normal.multiply(0.001));
+            for (int l = 0; l < lightCount; l++) {
+                UnitLight light = lights.get(l);
+                for (int s = 0; s < Renderer.SHADOW_SAMPLES; s++) {
+                    Vector3 lightPoint = light.sampleLightSurface();
+                    Vector3 lightDir = lightPoint.subtract(hit.point).normalize();
+                    double distance = lightPoint.subtract(hit.point).length();
+
+                    int index = shadowQueue.add(origin, lightDir, distance, i * lightCount + l);
+                    if (index >= shadowContribution.length) {
+                        shadowContribution = Arrays.copyOf(shadowContribution, shadowQueue.owner.length);
+                    }
+                    shadowContribution[index] = light.sampleContribution(hit.normal, lightPoint, lightDir, distance);
+                }
+            }
+        }
+
+        // Occlusion test for the whole batch
+        int shadowCount = shadowQueue.size();
+        stats.add(RenderStats.Counter.SHADOW_RAYS, shadowCount);
+        if (shadowVisible.length < shadowCount) {
+            shadowVisible = new boolean[shadowQueue.owner.length];
+        }
+        IntStream.range(0, shadowCount).parallel().forEach(i -> {
+            UnitLight light = lights.get(shadowQueue.owner[i] % lightCount);
+            shadowVisible[i] = !scene.isOccluded(shadowQueue.toRay(i), shadowQueue.maxDistance[i], light);
+        });
+
+        // Gather unoccluded samples per (hit, light) slot
+        int slots = count * lightCount;
+        if (lightSamples.length < slots) {
+            lightR = new double[slots];
+            lightG = new double[slots];
+            lightB = new double[slots];
+            lightSamples = new int[slots];
+        } else {
+            Arrays.fill(lightR, 0, slots, 0);
+            Arrays.fill(lightG, 0, slots, 0);
+            Arrays.fill(lightB, 0, slots, 0);
+            Arrays.fill(lightSamples, 0, slots, 0);
+        }
+        for (int i = 0; i < shadowCount; i++) {
+            if (!shadowVisible[i]) continue;
+
+            int slot = shadowQueue.owner[i];
+            Color surface = wave.hits[slot / lightCount].object.material.color;
+            Color lightColor = lights.get(slot % lightCount).color;
+            double contribution = shadowContribution[i];
+
+            lightR[slot] += surface.getRed() * contribution * lightColor.getRed() / 255.0;
+            lightG[slot] += surface.getGreen() * contribution * lightColor.getGreen() / 255.0;
+            lightB[slot] += surface.getBlue() * contribution * lightColor.getBlue() / 255.0;
+            lightSamples[slot]++;
+        }
+
+        // Average per light and add to ambient, clamping after every light
+        for (int i = 0; i < count; i++) {
+            if (wave.hits[i] == null) continue;
+
+            int r = Renderer.AMBIENT, g = Renderer.AMBIENT, b = Renderer.AMBIENT;
+            for (int l = 0; l < lightCount; l++) {
+                int slot = i * lightCount + l;
+                int valid = lightSamples[slot];
+                if (valid == 0) continue;
+
+                r = Math.min(255, r + (int) Math.min(255, lightR[slot] / valid));
+                g = Math.min(255, g + (int) Math.min(255, lightG[slot] / valid));
+                b = Math.min(255, b + (int) Math.min(255, lightB[slot] / valid));
+            }
+            wave.lightColor[i] = (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * Queue reflection and refraction rays for the next generation
+     */
+    private void spawn(Wave wave, RayQueue next, int depth, TraceSettings settings) {
+        RayQueue rays = wave.rays;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < rays.size(); i++) {
+            wave.reflectChild[i] = -1;
+            wave.refractChild[i] = -1;
+
+            Intersection hit = wave.hits[i];
+            if (hit == null || next == null) continue;
+
+            Material m = hit.object.material;
+            Vector3 dir = new Vector3(rays.dirX[i], rays.dirY[i], rays.dirZ[i]);
+
+            double reflectWeight = rays.weight[i] * m.reflectivity;
+            double reflectChance = m.reflectivity > 0 ? settings.continueProbability(depth + 1, reflectWeight) : 0;
+            if (reflectChance > 0 && (reflectChance >= 1 || random.nextDouble() < reflectChance)) {
+                Vector3 reflectDir = Renderer.reflect(dir, hit.normal);
+                wave.reflectChild[i] = next.add(hit.point.add(reflectDir.multiply(0.001)), reflectDir,
+                                                Double.POSITIVE_INFINITY, reflectWeight / reflectChance, i);
+                wave.reflectScale[i] = 1 / reflectChance;
+            }
+
+            double refractWeight = rays.weight[i] * m.refractivity;
+            double refractChance = m.refractivity > 0 ? settings.continueProbability(depth + 1, refractWeight) : 0;
+            if (refractChance > 0 && (refractChance >= 1 || random.nextDouble() < refractChance)) {
+                Vector3 refractDir = Renderer.refract(dir, hit.normal, m.refractiveIndex);
+                if (refractDir != null) {
+                    wave.refractChild[i] = next.add(hit.point.add(refractDir.multiply(0.001)), refractDir,
+                                                    Double.POSITIVE_INFINITY, refractWeight / refractChance, i);
+                    wave.refractScale[i] = 1 / refractChance;
+                }
+            }
+        }
+    }
+
+    /**
+     * Combine each hit's lighting with the resolved colors of its children
+     */
+    private void resolve(Wave wave, Wave children) {
+        for (int i = 0; i < wave.rays.size(); i++) {
+            Intersection hit = wave.hits[i];
+            if (hit == null) continue;
+
+            int reflectColor = 0;
+            double reflectScale = 1;
+            if (children != null && wave.reflectChild[i] >= 0) {
+                reflectColor = children.color[wave.reflectChild[i]];
+                reflectScale = wave.reflectScale[i];
+            }
+            int refractColor = 0;
+            double refractScale = 1;
+            if (children != null && wave.refractChild[i] >= 0) {
+                refractColor = children.color[wave.refractChild[i]];
+                refractScale = wave.refractScale[i];
+            }
+            wave.color[i] = Renderer.combine(wave.lightColor[i], reflectColor, refractColor, hit.object.material,
+                                             reflectScale, refractScale);
+        }
+    }
+
+    /**
+     * Per-generation results, indexed like the generation's ray queue
+     */
+    private static final class Wave {
+        final RayQueue rays = new RayQueue(1024);
+        Intersection[] hits = new Intersection[0];
+        int[] lightColor = new int[0];
+        int[] reflectChild = new int[0];
+        int[] refractChild = new int[0];
+        double[] reflectScale = new double[0];
+        double[] refractScale = new double[0];
+        int[] color = new int[0];
+
+        void ensureCapacity(int count) {
+            if (hits.length >= count) return;
+            hits = new Intersection[count];
+            lightColor = new int[count];
+            reflectChild = new int[count];
+            refractChild = new int[count];
+            reflectScale = new double[count];
+            refractScale = new double[count];
+            color = new int[count];
+        }
+    }
+}